@@ -1,9 +1,11 @@
 #!/bin/bash
 
 # Define constants
-JAR_DIR="/Users/andrewhammond/dev/pdfparse/target"
+JAR_DIR="${PDFPARSE_HOME:-/Users/andrewhammond/dev/pdfparse/target}"
 JAR_NAME="pdfparse.jar"
 JAR_PATH="$JAR_DIR/$JAR_NAME"
+# Class-data-sharing archive written by 'mvn package -Pstartup' or '$0 warmup' below
+CDS_ARCHIVE="$JAR_DIR/pdfparse.jsa"
 
 # Check if the JAR file exists
 if [ ! -f "$JAR_PATH" ]; then
@@ -14,24 +16,115 @@ fi
 
 # Display usage if no arguments
 if [ $# -lt 1 ]; then
-    echo "Usage: $0 <path-to-pdf-file> [options]"
+    echo "Usage: $0 <path-to-pdf-file>... [options]"
+    echo "       $0 index <index-dir> <pdf-file>..."
+    echo "       $0 search <index-dir> <query>"
+    echo "       $0 compare <old.pdf|old.smf> <new.pdf|new.smf> [-o <new.smf>] [--structure <src>]"
+    echo "               (added, removed and changed sections)"
+    echo "       $0 watch <dir>... [--workers <n>] [--debounce <ms>] [--structure <src>]"
+    echo "               (extract new and changed PDFs to <name>.json beside them)"
+    echo "       $0 loadtest <plan-file> [-c <n>] [--rate <per-s>] [--duration <s>] [--warmup <s>] [--seed <n>]"
+    echo "       $0 warmup   (build the startup cache: CDS archive and font cache)"
     echo "Options:"
-    echo "  -p, --pages <range>     Specify page range (e.g., 1-10 or 5)"
-    echo "  -d, --detailed          Extract detailed information for a single page"
+    echo "  -p, --pages <set>       Pages to process, e.g. 5, 1-10 or 1-3,17,40-55"
+    echo "  -d, --detailed          Extract detailed information for each selected page (default 1)"
+    echo "      --fields <list>     Page data fields to extract with -d or --serve, e.g."
+    echo "                          plainText,regionText.content (default all)"
     echo "  -r, --raw               Disable text normalization for inconsistent font sizes"
+    echo "      --no-layout         Disable column/block segmentation of pages"
+    echo "      --lean-text         Read text with the lighter text engine (faster; no ActualText"
+    echo "                          or right-to-left handling)"
     echo "  -m, --margins <values>  Set margins to filter content (left,top,right,bottom)"
+    echo "  -a, --auto-margins      Detect running headers/footers and exclude them"
+    echo "      --structure <src>   Section hierarchy source: auto, outline (bookmarks), tags,"
+    echo "                          or heuristic (font sizes, the default)"
+    echo "      --toc               Print only the section tree (titles, levels and pages)"
+    echo "  -s, --section <path>    Extract only one section, e.g. \"Chapter 7 > 7.3 Limits\","
+    echo "                          parsing just its pages (found via the outline or --index)"
+    echo "      --index <dir>       Section index directory to look up (and cache) section pages"
+    echo "      --checkpoint <dir>  Checkpoint long extractions every 100 pages to a directory;"
+    echo "                          a rerun resumes, or extends to more pages, from there"
+    echo "      --page-budget <ms>  Stop interpreting a page after this many milliseconds"
+    echo "      --page-glyphs <n>   Stop interpreting a page after this many glyphs"
+    echo "      --over-budget <a>   Over-budget pages: skip (the default) or degrade (keep the"
+    echo "                          text read so far, without layout analysis)"
+    echo "  -i, --images <dir>      Export each unique image in the page range to a directory"
+    echo "                          (image XObjects only; inline images are skipped)"
+    echo "      --serve <port>      Serve page tiles and page data to the annotator on localhost"
+    echo "      --serve-origin <o>  Let pages of this origin (the annotator's) read served data"
+    echo "      --password <pw>     Password of an encrypted PDF (or keystore password);"
+    echo "                          defaults to the PDFPARSE_PASSWORD environment variable"
+    echo "      --keystore <file>   PKCS#12 keystore for certificate-encrypted PDFs"
+    echo "      --alias <alias>     Key alias in the keystore"
+    echo "      --decrypt-cache <m> Decrypt once and reuse: none, file (private temp copy) or memory"
+    echo "      --font-cache <mb>   Share parsed embedded fonts between files, up to this size"
+    echo "                          (default 64 with several files, 0 disables)"
     echo "  -h, --help              Print this help message"
     echo "Examples:"
     echo "  $0 /path/to/document.pdf"
     echo "  $0 /path/to/document.pdf -p 10-20"
+    echo "  $0 /path/to/a.pdf /path/to/b.pdf -p 1-3,17,40-55"
     echo "  $0 /path/to/document.pdf -p 5 -d"
     echo "  $0 /path/to/document.pdf -p 5 -d -r"
     echo "  $0 /path/to/document.pdf -m 50,50,50,50"
+    echo "  $0 /path/to/document.pdf -a"
+    echo "  $0 /path/to/document.pdf --structure auto"
+    echo "  $0 /path/to/manual.pdf --toc"
+    echo "  $0 /path/to/scanned.pdf --page-budget 2000 --over-budget degrade"
+    echo "  $0 /path/to/manual.pdf -s \"Chapter 7 > 7.3 Limits\" --index /path/to/index"
+    echo "  $0 /path/to/licensed.pdf --password secret --serve 8080 --decrypt-cache file"
+    echo "  $0 /path/to/huge.pdf --checkpoint /path/to/checkpoints"
+    echo "  $0 /path/to/document.pdf -p 1-20 -i figures"
+    echo "  $0 index /path/to/index /path/to/manuals/*.pdf"
+    echo "  $0 search /path/to/index torque limits"
+    echo "  $0 compare /path/to/manual-v1.smf /path/to/manual-v2.pdf -o /path/to/manual-v2.smf"
+    echo "  $0 watch /path/to/drop --workers 2"
+    echo "  $0 loadtest /path/to/plan.txt -c 8 --duration 60"
+    echo "  $0 loadtest /path/to/plan.txt --rate 20 -c 8   (plan lines: mode weight pages margins file)"
     exit 1
 fi
 
+# Keep the PDFBox font cache next to the jar so a prebuilt one is reused, and
+# validate it by file size and date instead of re-hashing every system font
+JAVA_OPTS=(-Dpdfbox.fontcache="$JAR_DIR" -Dpdfbox.fontcache.skipchecksums=true -Djava.awt.headless=true)
+
+# Build the startup cache only when asked to: run every mode once, recording
+# the classes they load in the archive
+if [ "$1" = "warmup" ]; then
+    echo "Building startup cache in $JAR_DIR..." >&2
+    if java "${JAVA_OPTS[@]}" -XX:ArchiveClassesAtExit="$CDS_ARCHIVE" -Xlog:cds=off -jar "$JAR_PATH" warmup; then
+        echo "Wrote $CDS_ARCHIVE" >&2
+        exit 0
+    fi
+    rm -f "$CDS_ARCHIVE"
+    echo "Error: Could not build the startup cache" >&2
+    exit 1
+fi
+
+# Map the prebuilt class archive when it matches the jar
+if [ -f "$CDS_ARCHIVE" ] && [ "$CDS_ARCHIVE" -nt "$JAR_PATH" ]; then
+    JAVA_OPTS+=(-XX:SharedArchiveFile="$CDS_ARCHIVE")
+elif [ -f "$CDS_ARCHIVE" ]; then
+    echo "Note: $CDS_ARCHIVE is older than the jar and was not used; run '$0 warmup' to rebuild it" >&2
+fi
+
+# A single detailed page is a short run: the optimizing JIT compiler never pays
+# for itself, and the serial collector starts fastest
+for arg in "$@"; do
+    if [ "$arg" = "-d" ] || [ "$arg" = "--detailed" ]; then
+        JAVA_OPTS+=(-XX:TieredStopAtLevel=1 -XX:+UseSerialGC)
+        break
+    fi
+done
+
+# Extra JVM options, e.g. PDFPARSE_JAVA_OPTS="-Xmx2g"
+if [ -n "$PDFPARSE_JAVA_OPTS" ]; then
+    read -r -a EXTRA_OPTS <<< "$PDFPARSE_JAVA_OPTS"
+    JAVA_OPTS+=("${EXTRA_OPTS[@]}")
+fi
+
 # Execute the Java application with all arguments
 echo "Running PDF parser on file: $1"
-java -jar "$JAR_PATH" "$@"
+java "${JAVA_OPTS[@]}" -jar "$JAR_PATH" "$@"
 
 exit 0
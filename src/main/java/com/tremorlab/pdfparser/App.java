@@ -1,22 +1,84 @@
 package com.tremorlab.pdfparser;
 
+import org.apache.pdfbox.pdmodel.PDDocument;
+
 import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
 
 public class App {
+    /** Font cache size for runs over several files, unless set with --font-cache */
+    private static final long DEFAULT_FONT_CACHE_MB = 64;
+    /** Time a dropped file must stay unchanged before the watch mode extracts it */
+    private static final long DEFAULT_WATCH_DEBOUNCE_MS = 2000;
+    /** Pages between the checkpoints of a hierarchical extraction with --checkpoint */
+    private static final int CHECKPOINT_INTERVAL_PAGES = 100;
+
     public static void main(String[] args) {
         if (args.length < 1) {
             printUsage();
             return;
         }
 
-        String pdfFilePath = args[0];
-        File pdfFile = new File(pdfFilePath);
+        // Section index subcommands work on extracted structure, not on a single PDF
+        if ("index".equals(args[0])) {
+            runIndex(args);
+            return;
+        }
+        if ("search".equals(args[0])) {
+            runSearch(args);
+            return;
+        }
+        if ("compare".equals(args[0])) {
+            runCompare(args);
+            return;
+        }
+        if ("watch".equals(args[0])) {
+            runWatch(args);
+            return;
+        }
+        if ("loadtest".equals(args[0])) {
+            runLoadTest(args);
+            return;
+        }
+        if ("warmup".equals(args[0])) {
+            runWarmup();
+            return;
+        }
+
+        // Every argument that is not an option or its value is an input file
+        List<File> pdfFiles = new ArrayList<>();
+        pdfFiles.add(new File(args[0]));
 
-        // Use an array to hold page ranges so they can be modified in lambda
-        int[] pageRange = { -1, -1 }; // [startPage, endPage]
+        PageSet pages = null; // All pages
         boolean detailedSinglePage = false;
         boolean normalizeText = true;
+        boolean layoutAnalysis = true;
+        boolean leanText = false;
+        Set<SinglePageExtractor.Field> pageFields = EnumSet.allOf(SinglePageExtractor.Field.class);
+        boolean autoMargins = false;
+        HierarchicalPdfExtractor.StructureSource structureSource = HierarchicalPdfExtractor.StructureSource.HEURISTIC;
+        String sectionPath = null;
+        boolean tocOnly = false;
+        String sectionIndexDir = null;
+        String checkpointDir = null;
+        long[] pageBudget = { 0, 0 }; // Milliseconds, glyphs
+        HierarchicalPdfExtractor.OverBudgetAction overBudgetAction = HierarchicalPdfExtractor.OverBudgetAction.SKIP;
         float[] margins = { -1, -1, -1, -1 }; // Left, Top, Right, Bottom
+        String imageDir = null;
+        String password = System.getenv("PDFPARSE_PASSWORD");
+        String keyStorePath = null;
+        String keyAlias = null;
+        PdfOpener.DecryptCache decryptCache = PdfOpener.DecryptCache.NONE;
+        long fontCacheMb = -1; // Default for the number of files
+        int servePort = -1;
+        String serveOrigin = null;
 
         // Parse optional arguments
         for (int i = 1; i < args.length; i++) {
@@ -24,16 +86,21 @@ public class App {
                 if (i + 1 < args.length) {
                     String pageRangeStr = args[++i];
                     try {
-                        parsePageRange(pageRangeStr, pageRange);
-                    } catch (NumberFormatException e) {
+                        pages = PageSet.parse(pageRangeStr);
+                    } catch (IllegalArgumentException e) {
                         System.err.println("Invalid page range format: " + pageRangeStr);
-                        System.err.println("Expected format: startPage-endPage (e.g., 1-10) or singlePage (e.g., 5)");
+                        System.err.println("Expected format: pages and ranges separated by commas"
+                                + " (e.g., 5, 1-10 or 1-3,17,40-55)");
                     }
                 }
             } else if ("-d".equals(args[i]) || "--detailed".equals(args[i])) {
                 detailedSinglePage = true;
             } else if ("-r".equals(args[i]) || "--raw".equals(args[i])) {
                 normalizeText = false;
+            } else if ("--no-layout".equals(args[i])) {
+                layoutAnalysis = false;
+            } else if ("--lean-text".equals(args[i])) {
+                leanText = true;
             } else if ("-m".equals(args[i]) || "--margins".equals(args[i])) {
                 if (i + 1 < args.length) {
                     String marginStr = args[++i];
@@ -44,19 +111,223 @@ public class App {
                         System.err.println("Expected format: left,top,right,bottom (e.g., 50,50,50,50)");
                     }
                 }
+            } else if ("-a".equals(args[i]) || "--auto-margins".equals(args[i])) {
+                autoMargins = true;
+            } else if ("--fields".equals(args[i])) {
+                if (i + 1 < args.length) {
+                    String fieldsStr = args[++i];
+                    try {
+                        pageFields = SinglePageExtractor.Field.parse(fieldsStr);
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Invalid page data fields: " + fieldsStr);
+                        System.err.println("Expected some of: fonts, images, plainText, positionedText, tables,"
+                                + " rawPositionedText, regionText, regionText.<content|topLeft|topRight|"
+                                + "bottomLeft|bottomRight>");
+                    }
+                }
+            } else if ("--structure".equals(args[i])) {
+                if (i + 1 < args.length) {
+                    String sourceStr = args[++i];
+                    try {
+                        structureSource = HierarchicalPdfExtractor.StructureSource
+                                .valueOf(sourceStr.trim().toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Invalid structure source: " + sourceStr);
+                        System.err.println("Expected one of: auto, outline, tags, heuristic");
+                    }
+                }
+            } else if ("-s".equals(args[i]) || "--section".equals(args[i])) {
+                if (i + 1 < args.length) {
+                    sectionPath = args[++i];
+                }
+            } else if ("--toc".equals(args[i])) {
+                tocOnly = true;
+            } else if ("--index".equals(args[i])) {
+                if (i + 1 < args.length) {
+                    sectionIndexDir = args[++i];
+                }
+            } else if ("--checkpoint".equals(args[i])) {
+                if (i + 1 < args.length) {
+                    checkpointDir = args[++i];
+                }
+            } else if ("--page-budget".equals(args[i]) || "--page-glyphs".equals(args[i])) {
+                if (i + 1 < args.length) {
+                    int budgetIndex = "--page-budget".equals(args[i]) ? 0 : 1;
+                    String budgetStr = args[++i];
+                    try {
+                        pageBudget[budgetIndex] = Long.parseLong(budgetStr.trim());
+                        if (pageBudget[budgetIndex] < 0 || (budgetIndex == 1 && pageBudget[1] > Integer.MAX_VALUE)) {
+                            throw new NumberFormatException("Budget out of range");
+                        }
+                    } catch (NumberFormatException e) {
+                        pageBudget[budgetIndex] = 0;
+                        System.err.println("Invalid page budget: " + budgetStr);
+                    }
+                }
+            } else if ("--over-budget".equals(args[i])) {
+                if (i + 1 < args.length) {
+                    String actionStr = args[++i];
+                    try {
+                        overBudgetAction = HierarchicalPdfExtractor.OverBudgetAction
+                                .valueOf(actionStr.trim().toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Invalid over-budget action: " + actionStr);
+                        System.err.println("Expected one of: skip, degrade");
+                    }
+                }
+            } else if ("-i".equals(args[i]) || "--images".equals(args[i])) {
+                if (i + 1 < args.length) {
+                    imageDir = args[++i];
+                }
+            } else if ("--serve".equals(args[i])) {
+                if (i + 1 < args.length) {
+                    String portStr = args[++i];
+                    try {
+                        servePort = Integer.parseInt(portStr.trim());
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid port: " + portStr);
+                    }
+                }
+            } else if ("--serve-origin".equals(args[i])) {
+                if (i + 1 < args.length) {
+                    serveOrigin = args[++i];
+                }
+            } else if ("--password".equals(args[i])) {
+                if (i + 1 < args.length) {
+                    password = args[++i];
+                }
+            } else if ("--keystore".equals(args[i])) {
+                if (i + 1 < args.length) {
+                    keyStorePath = args[++i];
+                }
+            } else if ("--alias".equals(args[i])) {
+                if (i + 1 < args.length) {
+                    keyAlias = args[++i];
+                }
+            } else if ("--decrypt-cache".equals(args[i])) {
+                if (i + 1 < args.length) {
+                    String modeStr = args[++i];
+                    try {
+                        decryptCache = PdfOpener.DecryptCache.valueOf(modeStr.trim().toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Invalid decrypt cache: " + modeStr);
+                        System.err.println("Expected one of: none, file, memory");
+                    }
+                }
+            } else if ("--font-cache".equals(args[i])) {
+                if (i + 1 < args.length) {
+                    String sizeStr = args[++i];
+                    try {
+                        fontCacheMb = Long.parseLong(sizeStr.trim());
+                        if (fontCacheMb < 0) {
+                            throw new NumberFormatException("Negative size");
+                        }
+                    } catch (NumberFormatException e) {
+                        fontCacheMb = -1;
+                        System.err.println("Invalid font cache size: " + sizeStr);
+                    }
+                }
             } else if ("-h".equals(args[i]) || "--help".equals(args[i])) {
                 printUsage();
                 return;
+            } else if (!args[i].startsWith("-")) {
+                pdfFiles.add(new File(args[i]));
+            }
+        }
+
+        if (servePort > 0 && pdfFiles.size() > 1) {
+            System.err.println("--serve takes a single PDF");
+            return;
+        }
+
+        // Volumes of a series tend to embed the same fonts, so parse them once per run
+        if (fontCacheMb < 0) {
+            fontCacheMb = pdfFiles.size() > 1 ? DEFAULT_FONT_CACHE_MB : 0;
+        }
+        SharedFontCache fontCache = fontCacheMb > 0 ? new SharedFontCache(fontCacheMb * 1024 * 1024) : null;
+
+        for (File pdfFile : pdfFiles) {
+            if (pdfFiles.size() > 1) {
+                System.out.println("==> " + pdfFile.getPath() + " <==");
             }
+            processFile(pdfFile, pages, detailedSinglePage, normalizeText, layoutAnalysis, leanText, pageFields,
+                    autoMargins, structureSource, sectionPath, tocOnly, sectionIndexDir, checkpointDir, pageBudget,
+                    overBudgetAction, margins,
+                    imageDir != null && pdfFiles.size() > 1 ? new File(imageDir, baseName(pdfFile)).getPath()
+                            : imageDir,
+                    password, keyStorePath, keyAlias, decryptCache, fontCache, servePort,
+                    serveOrigin);
         }
+    }
+
+    /**
+     * Run the requested extraction on one PDF; each document is loaded once
+     * and only the selected pages are processed
+     */
+    private static void processFile(File pdfFile, PageSet pages, boolean detailedSinglePage, boolean normalizeText,
+            boolean layoutAnalysis, boolean leanText, Set<SinglePageExtractor.Field> pageFields, boolean autoMargins,
+            HierarchicalPdfExtractor.StructureSource structureSource,
+            String sectionPath, boolean tocOnly, String sectionIndexDir, String checkpointDir, long[] pageBudget,
+            HierarchicalPdfExtractor.OverBudgetAction overBudgetAction, float[] margins, String imageDir,
+            String password, String keyStorePath, String keyAlias, PdfOpener.DecryptCache decryptCache,
+            SharedFontCache fontCache, int servePort, String serveOrigin) {
+
+        PdfOpener source = new PdfOpener(pdfFile);
+        source.setPassword(password);
+        if (keyStorePath != null) {
+            source.setKeyStore(new File(keyStorePath), keyAlias);
+        }
+        source.setDecryptCache(decryptCache);
+        source.setFontCache(fontCache);
 
         try {
-            // Check if we should extract detailed information for a single page
+            // Check if we should serve rendered page tiles and page data to the annotator
+            if (servePort > 0) {
+                int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+                PageRenderer renderer = new PageRenderer(source, 512, 256L * 1024 * 1024, threads);
+
+                SinglePageExtractor.Builder pageExtractorBuilder = new SinglePageExtractor.Builder()
+                        .normalizeText(normalizeText)
+                        .layoutAnalysis(layoutAnalysis)
+                        .leanText(leanText)
+                        .fields(pageFields);
+                if (margins[0] >= 0) {
+                    pageExtractorBuilder.margins(margins[0], margins[1], margins[2], margins[3]);
+                }
+                PagePrefetcher pagePrefetcher = new PagePrefetcher(source, pageExtractorBuilder.build(), 16, 1);
+
+                PageServer server = new PageServer(renderer, pagePrefetcher, servePort, serveOrigin);
+                server.start();
+                System.out.println("Serving pages of " + pdfFile.getName() + " (" +
+                        renderer.getPageCount() + " pages) on http://localhost:" + servePort + "/");
+                return;
+            }
+
+            // Check if we should export images instead of extracting text
+            if (imageDir != null) {
+                File outputDir = new File(imageDir);
+                System.out.println("Exporting images to " + outputDir.getPath() + "...");
+
+                ImageExporter imageExporter = new ImageExporter(outputDir);
+                List<ImageExporter.ExportedImage> images = imageExporter.exportImages(source, pages);
+
+                String manifest = ImageExporter.toJson(images);
+                try (Writer writer = new FileWriter(new File(outputDir, "images.json"))) {
+                    writer.write(manifest);
+                }
+
+                System.out.println("Exported " + images.size() + " images:");
+                System.out.println(manifest);
+                return;
+            }
+
+            // Check if we should extract detailed information for single pages
             if (detailedSinglePage) {
                 // If page range wasn't specified but detailed was requested,
                 // default to page 1
-                int pageNumber = (pageRange[0] > 0) ? pageRange[0] : 1;
-                System.out.println("Extracting detailed information for page " + pageNumber + "...");
+                PageSet detailPages = pages != null ? pages : PageSet.range(1, 1);
+                System.out.println("Extracting detailed information for page" + (detailPages.size() > 1 ? "s " : " ")
+                        + detailPages + "...");
                 System.out.println("Text normalization: " + (normalizeText ? "enabled" : "disabled"));
 
                 if (margins[0] >= 0) {
@@ -64,26 +335,78 @@ public class App {
                             ", right=" + margins[2] + ", bottom=" + margins[3]);
                 }
 
-                SinglePageExtractor pageExtractor = new SinglePageExtractor();
-                pageExtractor.setNormalizeText(normalizeText);
+                SinglePageExtractor.Builder pageExtractorBuilder = new SinglePageExtractor.Builder()
+                        .normalizeText(normalizeText)
+                        .layoutAnalysis(layoutAnalysis)
+                        .leanText(leanText)
+                        .fields(pageFields);
 
                 // Apply margins if specified
                 if (margins[0] >= 0) {
-                    pageExtractor.setMargins(margins[0], margins[1], margins[2], margins[3]);
+                    pageExtractorBuilder.margins(margins[0], margins[1], margins[2], margins[3]);
                 }
+                SinglePageExtractor pageExtractor = pageExtractorBuilder.build();
 
-                SinglePageExtractor.PageData pageData = pageExtractor.extractPage(pdfFile, pageNumber);
+                // One load of the document, sharing font and XObject descriptions between its pages
+                try (PDDocument document = source.open()) {
+                    int totalPages = document.getNumberOfPages();
+                    if (detailPages.last() > totalPages) {
+                        System.out.println("Warning: Requested pages " + detailPages
+                                + " exceed document length (" + totalPages + " pages).");
+                        detailPages = detailPages.limitTo(totalPages);
+                    }
+                    ResourceMetadataCache cache = new ResourceMetadataCache();
+                    for (int pageNumber : detailPages.toArray()) {
+                        SinglePageExtractor.PageData pageData = pageExtractor.extractPage(document, pageNumber,
+                                cache);
 
-                System.out.println("Extracted Page Data:");
-                System.out.println(pageData.toJson());
+                        System.out.println("Extracted Page Data:");
+                        System.out.println(pageData.toJson());
+                    }
+                }
+                return;
+            }
+
+            // Check if only one section was requested
+            if (sectionPath != null) {
+                System.out.println("Extracting section: " + sectionPath);
+
+                HierarchicalPdfExtractor.Builder sectionExtractorBuilder = new HierarchicalPdfExtractor.Builder()
+                        .layoutAnalysis(layoutAnalysis)
+                        .leanText(leanText)
+                        .autoMargins(autoMargins)
+                        .structureSource(structureSource)
+                        .pageBudget(pageBudget[0], (int) pageBudget[1])
+                        .overBudgetAction(overBudgetAction);
+                if (margins[0] >= 0) {
+                    sectionExtractorBuilder.margins(margins[0], margins[1], margins[2], margins[3]);
+                }
+                if (sectionIndexDir != null) {
+                    File indexDir = new File(sectionIndexDir);
+                    if (!indexDir.isDirectory() && !indexDir.mkdirs()) {
+                        System.out.println("Warning: Cannot create index directory: " + indexDir.getPath());
+                    } else {
+                        sectionExtractorBuilder.sectionIndex(SectionIndex.fileFor(indexDir, pdfFile));
+                    }
+                }
+
+                DocumentSection section = sectionExtractorBuilder.build().extractSection(source, SectionPath.parse(sectionPath));
+                if (section == null) {
+                    System.err.println("Section not found: " + sectionPath);
+                    return;
+                }
+                System.out.println("Extracted Section:");
+                System.out.println(section.toJson(0));
                 return;
             }
 
             // Otherwise do regular hierarchical extraction
             System.out.println("Extracting hierarchical structure from PDF...");
 
-            if (pageRange[0] > 0 && pageRange[1] > 0) {
-                System.out.println("Processing page range: " + pageRange[0] + " to " + pageRange[1]);
+            if (pages != null && pages.isContiguous()) {
+                System.out.println("Processing page range: " + pages.first() + " to " + pages.last());
+            } else if (pages != null) {
+                System.out.println("Processing pages: " + pages);
             } else {
                 System.out.println("Processing all pages");
             }
@@ -93,56 +416,428 @@ public class App {
                         ", right=" + margins[2] + ", bottom=" + margins[3]);
             }
 
-            HierarchicalPdfExtractor hierarchicalExtractor = new HierarchicalPdfExtractor();
-
-            // Set page range if specified
-            if (pageRange[0] > 0 && pageRange[1] > 0) {
-                hierarchicalExtractor.setPageRange(pageRange[0], pageRange[1]);
-            }
+            HierarchicalPdfExtractor.Builder extractorBuilder = new HierarchicalPdfExtractor.Builder()
+                    .layoutAnalysis(layoutAnalysis)
+                    .leanText(leanText)
+                    .autoMargins(autoMargins)
+                    .structureSource(structureSource)
+                    .pageBudget(pageBudget[0], (int) pageBudget[1])
+                    .overBudgetAction(overBudgetAction)
+                    // Section text is never built when only the table of contents is printed
+                    .lazyContent(tocOnly)
+                    // Set pages if specified
+                    .pages(pages);
 
             // Set margins if specified
             if (margins[0] >= 0) {
-                hierarchicalExtractor.setMargins(margins[0], margins[1], margins[2], margins[3]);
+                extractorBuilder.margins(margins[0], margins[1], margins[2], margins[3]);
             }
 
-            DocumentStructure structure = hierarchicalExtractor.extractHierarchy(pdfFile);
+            if (checkpointDir != null) {
+                File checkpointDirectory = new File(checkpointDir);
+                if (!checkpointDirectory.isDirectory() && !checkpointDirectory.mkdirs()) {
+                    System.out.println("Warning: Cannot create checkpoint directory: " + checkpointDirectory.getPath());
+                } else {
+                    extractorBuilder.checkpoint(checkpointDirectory, CHECKPOINT_INTERVAL_PAGES);
+                }
+            }
+
+            // A table of contents of a large document is kept as a compact tree
+            HierarchicalPdfExtractor extractor = extractorBuilder.build();
+            DocumentTree structure = tocOnly
+                    ? extractor.extractCompactTree(source)
+                    : extractor.extractHierarchy(source);
 
             System.out.println("Extracted Document Structure:");
-            System.out.println(structure.toJson());
+            System.out.println(structure.toJson(!tocOnly));
+            structure.close();
         } catch (Exception e) {
             System.err.println("Error processing PDF: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            // The tile server keeps opening documents until the JVM exits
+            if (servePort <= 0) {
+                try {
+                    source.close();
+                } catch (IOException e) {
+                    System.out.println("Warning: Could not remove decrypted working copy: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Extract each PDF and write its section index into the index directory:
+     * index &lt;index-dir&gt; &lt;pdf&gt;...
+     */
+    private static void runIndex(String[] args) {
+        if (args.length < 3) {
+            printUsage();
+            return;
+        }
+
+        File indexDir = new File(args[1]);
+        if (!indexDir.isDirectory() && !indexDir.mkdirs()) {
+            System.err.println("Cannot create index directory: " + indexDir.getPath());
+            return;
+        }
+
+        // One extractor and one font cache serve every file
+        HierarchicalPdfExtractor extractor = new HierarchicalPdfExtractor.Builder().lazyContent(true).build();
+        SharedFontCache fontCache = new SharedFontCache(DEFAULT_FONT_CACHE_MB * 1024 * 1024);
+        for (int i = 2; i < args.length; i++) {
+            File pdfFile = new File(args[i]);
+            try (PdfOpener source = new PdfOpener(pdfFile)) {
+                source.setFontCache(fontCache);
+                long start = System.nanoTime();
+                CompactDocumentTree structure = extractor.extractCompactTree(source);
+
+                File indexFile = SectionIndex.fileFor(indexDir, pdfFile);
+                SectionIndex.write(structure, pdfFile.getPath(), indexFile);
+                structure.close();
+
+                System.out.println("Indexed " + pdfFile.getPath() + " -> " + indexFile.getPath() + " ("
+                        + (System.nanoTime() - start) / 1_000_000 + " ms)");
+            } catch (Exception e) {
+                System.err.println("Error indexing " + pdfFile.getPath() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Query every section index in a directory:
+     * search &lt;index-dir&gt; &lt;query terms&gt;...
+     */
+    private static void runSearch(String[] args) {
+        if (args.length < 3) {
+            printUsage();
+            return;
+        }
+
+        File[] indexFiles = new File(args[1]).listFiles((dir, name) -> name.endsWith(SectionIndex.FILE_EXTENSION));
+        if (indexFiles == null) {
+            System.err.println("Not an index directory: " + args[1]);
+            return;
+        }
+        String query = String.join(" ", Arrays.asList(args).subList(2, args.length));
+
+        long start = System.nanoTime();
+        List<SectionIndex.Hit> hits = new ArrayList<>();
+        for (File indexFile : indexFiles) {
+            try (SectionIndex index = SectionIndex.open(indexFile)) {
+                hits.addAll(index.search(query));
+            } catch (IOException e) {
+                System.err.println("Skipping " + indexFile.getPath() + ": " + e.getMessage());
+            }
+        }
+        hits.sort((a, b) -> Double.compare(b.getScore(), a.getScore()));
+        long elapsedMicros = (System.nanoTime() - start) / 1000;
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"query\": \"").append(query.replace("\\", "\\\\").replace("\"", "\\\""))
+                .append("\",\n");
+        sb.append("  \"indexes\": ").append(indexFiles.length).append(",\n");
+        sb.append("  \"elapsedMs\": ").append(elapsedMicros / 1000.0).append(",\n");
+        sb.append("  \"hits\": [\n");
+        for (int i = 0; i < hits.size(); i++) {
+            sb.append(hits.get(i).toJson(4));
+            if (i < hits.size() - 1) {
+                sb.append(",");
+            }
+            sb.append("\n");
+        }
+        sb.append("  ]\n");
+        sb.append("}");
+        System.out.println(sb);
+    }
+
+    /**
+     * Report the sections added, removed and changed between two editions:
+     * compare &lt;old.pdf|old.smf&gt; &lt;new.pdf|new.smf&gt; [-o &lt;new.smf&gt;] [--structure &lt;src&gt;]
+     */
+    private static void runCompare(String[] args) {
+        if (args.length < 3) {
+            printUsage();
+            return;
+        }
+
+        File manifestOut = null;
+        HierarchicalPdfExtractor.Builder builder = new HierarchicalPdfExtractor.Builder()
+                .lazyContent(true)
+                .contentDigests(true);
+        for (int i = 3; i < args.length; i++) {
+            if (i + 1 >= args.length) {
+                System.err.println("Missing value for " + args[i]);
+                return;
+            }
+            if ("-o".equals(args[i]) || "--manifest".equals(args[i])) {
+                manifestOut = new File(args[++i]);
+            } else if ("--structure".equals(args[i])) {
+                String sourceStr = args[++i];
+                try {
+                    builder.structureSource(HierarchicalPdfExtractor.StructureSource
+                            .valueOf(sourceStr.trim().toUpperCase()));
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Invalid structure source: " + sourceStr);
+                    System.err.println("Expected one of: auto, outline, tags, heuristic");
+                    return;
+                }
+            } else {
+                System.err.println("Unknown compare option: " + args[i]);
+                return;
+            }
+        }
+
+        HierarchicalPdfExtractor extractor = builder.build();
+        DocumentTree newStructure = null;
+        try {
+            SectionManifest older = readManifest(extractor, new File(args[1]), null);
+            DocumentTree[] extracted = new DocumentTree[1];
+            SectionManifest newer = readManifest(extractor, new File(args[2]), extracted);
+            newStructure = extracted[0];
+
+            if (manifestOut != null) {
+                newer.write(manifestOut);
+            }
+            // Only the content of added and changed sections is built from the lazy structure
+            System.out.println(EditionDiff.compare(older, newer).toJson());
+        } catch (IOException e) {
+            System.err.println("Error comparing editions: " + e.getMessage());
+        } finally {
+            if (newStructure != null) {
+                try {
+                    newStructure.close();
+                } catch (IOException e) {
+                    System.err.println("Warning: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a section manifest file, or build the manifest of a PDF
+     *
+     * @param extracted Receives the structure extracted from a PDF, to be closed
+     *                  by the caller; null to close it here
+     */
+    private static SectionManifest readManifest(HierarchicalPdfExtractor extractor, File file,
+            DocumentTree[] extracted) throws IOException {
+        if (SectionManifest.isManifest(file)) {
+            return SectionManifest.read(file);
+        }
+        try (PdfOpener source = new PdfOpener(file)) {
+            DocumentTree structure = extractor.extractCompactTree(source);
+            if (extracted == null) {
+                structure.close();
+            } else {
+                extracted[0] = structure;
+            }
+            return SectionManifest.of(structure, file.getPath());
+        }
+    }
+
+    /**
+     * Extract every new or changed PDF dropped into some directories, writing
+     * the results next to them, until the process is stopped:
+     * watch &lt;dir&gt;... [--workers &lt;n&gt;] [--debounce &lt;ms&gt;] [--structure &lt;src&gt;]
+     */
+    private static void runWatch(String[] args) {
+        List<File> dirs = new ArrayList<>();
+        int workers = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        long debounceMillis = DEFAULT_WATCH_DEBOUNCE_MS;
+        HierarchicalPdfExtractor.Builder builder = new HierarchicalPdfExtractor.Builder();
+        try {
+            for (int i = 1; i < args.length; i++) {
+                if (!args[i].startsWith("-")) {
+                    dirs.add(new File(args[i]));
+                    continue;
+                }
+                if (i + 1 >= args.length) {
+                    System.err.println("Missing value for " + args[i]);
+                    return;
+                }
+                if ("--workers".equals(args[i])) {
+                    workers = Integer.parseInt(args[++i].trim());
+                } else if ("--debounce".equals(args[i])) {
+                    debounceMillis = Long.parseLong(args[++i].trim());
+                } else if ("--structure".equals(args[i])) {
+                    builder.structureSource(HierarchicalPdfExtractor.StructureSource
+                            .valueOf(args[++i].trim().toUpperCase()));
+                } else {
+                    System.err.println("Unknown watch option: " + args[i]);
+                    return;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid watch option: " + e.getMessage());
+            return;
+        }
+        if (dirs.isEmpty()) {
+            printUsage();
+            return;
+        }
+
+        // The worker threads parse each embedded font once for all the documents they read
+        SharedFontCache fontCache = new SharedFontCache(DEFAULT_FONT_CACHE_MB * 1024 * 1024);
+        try (FolderWatcher watcher = new FolderWatcher(builder.build(), workers, debounceMillis, fontCache)) {
+            for (File dir : dirs) {
+                watcher.watch(dir.toPath());
+            }
+            System.out.println("Watching " + dirs.size() + " director" + (dirs.size() == 1 ? "y" : "ies")
+                    + " with " + workers + " worker" + (workers == 1 ? "" : "s") + " (Ctrl+C to stop)");
+            watcher.run();
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Cannot watch: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Drive the extractors with the job mix of a plan file and report
+     * throughput, latency and memory:
+     * loadtest &lt;plan-file&gt; [options]
+     */
+    private static void runLoadTest(String[] args) {
+        if (args.length < 2) {
+            printUsage();
+            return;
+        }
+
+        try {
+            LoadTest loadTest = new LoadTest(LoadTest.readPlan(new File(args[1])));
+            long durationSeconds = 30;
+            long warmupSeconds = 5;
+            for (int i = 2; i < args.length; i++) {
+                if (i + 1 >= args.length) {
+                    System.err.println("Missing value for " + args[i]);
+                    return;
+                }
+                if ("-c".equals(args[i]) || "--concurrency".equals(args[i])) {
+                    loadTest.setConcurrency(Integer.parseInt(args[++i].trim()));
+                } else if ("--rate".equals(args[i])) {
+                    loadTest.setArrivalRate(Double.parseDouble(args[++i].trim()));
+                } else if ("--duration".equals(args[i])) {
+                    durationSeconds = Long.parseLong(args[++i].trim());
+                } else if ("--warmup".equals(args[i])) {
+                    warmupSeconds = Long.parseLong(args[++i].trim());
+                } else if ("--seed".equals(args[i])) {
+                    loadTest.setSeed(Long.parseLong(args[++i].trim()));
+                } else {
+                    System.err.println("Unknown load test option: " + args[i]);
+                    return;
+                }
+            }
+            loadTest.setDuration(durationSeconds * 1000, warmupSeconds * 1000);
+
+            System.err.println("Running load test: " + warmupSeconds + " s warmup, " + durationSeconds
+                    + " s measured...");
+            System.out.println(loadTest.run().toJson());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid load test: " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Error reading load test plan: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Load test interrupted");
+        }
+    }
+
+    /**
+     * warmup: run every mode once on a generated document so its classes and
+     * the font cache can be captured for faster startup
+     */
+    private static void runWarmup() {
+        try {
+            StartupWarmup.run();
+            System.out.println("Warmup complete");
+        } catch (IOException e) {
+            System.err.println("Error during warmup: " + e.getMessage());
+            e.printStackTrace();
         }
     }
 
     private static void printUsage() {
-        System.out.println("Usage: java -jar pdfparse.jar <path-to-pdf> [options]");
+        System.out.println("Usage: java -jar pdfparse.jar <path-to-pdf>... [options]");
+        System.out.println("       java -jar pdfparse.jar index <index-dir> <pdf>...");
+        System.out.println("       java -jar pdfparse.jar search <index-dir> <query>");
+        System.out.println("       java -jar pdfparse.jar compare <old.pdf|old.smf> <new.pdf|new.smf> [-o <new.smf>]");
+        System.out.println("                                      [--structure <src>]   (added, removed and changed sections)");
+        System.out.println("       java -jar pdfparse.jar watch <dir>... [--workers <n>] [--debounce <ms>] [--structure <src>]");
+        System.out.println("                                      (extract new and changed PDFs to <name>.json beside them)");
+        System.out.println("       java -jar pdfparse.jar loadtest <plan-file> [-c <n>] [--rate <per-s>] [--duration <s>]");
+        System.out.println("                                       [--warmup <s>] [--seed <n>]");
+        System.out.println("       java -jar pdfparse.jar warmup   (exercise all modes once, e.g. to build a CDS archive)");
         System.out.println("Options:");
-        System.out.println("  -p, --pages <range>     Specify page range (e.g., 1-10 or 5)");
-        System.out.println("  -d, --detailed          Extract detailed information for a single page");
+        System.out.println("  -p, --pages <set>       Pages to process, e.g. 5, 1-10 or 1-3,17,40-55");
+        System.out.println("  -d, --detailed          Extract detailed information for each selected page (default 1)");
+        System.out.println("      --fields <list>     Page data fields to extract with -d or --serve, e.g.");
+        System.out.println("                          plainText,regionText.content (default all)");
         System.out.println("  -r, --raw               Disable text normalization for inconsistent font sizes");
+        System.out.println("      --no-layout         Disable column/block segmentation of pages");
+        System.out.println("      --lean-text         Read text with the lighter text engine (faster; no ActualText");
+        System.out.println("                          or right-to-left handling)");
         System.out.println("  -m, --margins <values>  Set margins to filter content (left,top,right,bottom)");
+        System.out.println("  -a, --auto-margins      Detect running headers/footers and exclude them");
+        System.out.println("      --structure <src>   Section hierarchy source: auto, outline (bookmarks), tags,");
+        System.out.println("                          or heuristic (font sizes, the default)");
+        System.out.println("      --toc               Print only the section tree (titles, levels and pages)");
+        System.out.println("  -s, --section <path>    Extract only one section, e.g. \"Chapter 7 > 7.3 Limits\",");
+        System.out.println("                          parsing just its pages (found via the outline or --index)");
+        System.out.println("      --index <dir>       Section index directory to look up (and cache) section pages");
+        System.out.println("      --checkpoint <dir>  Checkpoint long extractions every 100 pages to a directory;");
+        System.out.println("                          a rerun resumes, or extends to more pages, from there");
+        System.out.println("      --page-budget <ms>  Stop interpreting a page after this many milliseconds");
+        System.out.println("      --page-glyphs <n>   Stop interpreting a page after this many glyphs");
+        System.out.println("      --over-budget <a>   Over-budget pages: skip (the default) or degrade (keep the");
+        System.out.println("                          text read so far, without layout analysis)");
+        System.out.println("  -i, --images <dir>      Export each unique image in the page range to a directory");
+        System.out.println("                          (image XObjects only; inline images are skipped)");
+        System.out.println("      --serve <port>      Serve page tiles and page data to the annotator on localhost");
+        System.out.println("      --serve-origin <o>  Let pages of this origin (the annotator's) read served data");
+        System.out.println("      --password <pw>     Password of an encrypted PDF (or keystore password);");
+        System.out.println("                          defaults to the PDFPARSE_PASSWORD environment variable");
+        System.out.println("      --keystore <file>   PKCS#12 keystore for certificate-encrypted PDFs");
+        System.out.println("      --alias <alias>     Key alias in the keystore");
+        System.out.println("      --decrypt-cache <m> Decrypt once and reuse: none, file (private temp copy) or memory");
+        System.out.println("      --font-cache <mb>   Share parsed embedded fonts between files, up to this size");
+        System.out.println("                          (default 64 with several files, 0 disables)");
         System.out.println("  -h, --help              Print this help message");
         System.out.println("Examples:");
         System.out.println("  java -jar pdfparse.jar document.pdf");
         System.out.println("  java -jar pdfparse.jar document.pdf -p 10-20");
+        System.out.println("  java -jar pdfparse.jar a.pdf b.pdf -p 1-3,17,40-55");
         System.out.println("  java -jar pdfparse.jar document.pdf -p 5 -d");
         System.out.println("  java -jar pdfparse.jar document.pdf -p 5 -d -r");
         System.out.println("  java -jar pdfparse.jar document.pdf -m 50,50,50,50");
+        System.out.println("  java -jar pdfparse.jar document.pdf -a");
+        System.out.println("  java -jar pdfparse.jar document.pdf --structure auto");
+        System.out.println("  java -jar pdfparse.jar manual.pdf --toc");
+        System.out.println("  java -jar pdfparse.jar scanned.pdf --page-budget 2000 --over-budget degrade");
+        System.out.println("  java -jar pdfparse.jar manual.pdf -s \"Chapter 7 > 7.3 Limits\" --index manuals-index");
+        System.out.println("  java -jar pdfparse.jar licensed.pdf --password secret --serve 8080 --decrypt-cache file");
+        System.out.println("  java -jar pdfparse.jar huge.pdf --checkpoint checkpoints");
+        System.out.println("  java -jar pdfparse.jar document.pdf -p 1-20 -i figures");
+        System.out.println("  java -jar pdfparse.jar index manuals-index manuals/*.pdf");
+        System.out.println("  java -jar pdfparse.jar search manuals-index torque limits");
+        System.out.println("  java -jar pdfparse.jar compare manual-v1.smf manual-v2.pdf -o manual-v2.smf");
+        System.out.println("  java -jar pdfparse.jar watch /srv/drop --workers 2");
+        System.out.println("  java -jar pdfparse.jar loadtest plan.txt -c 8 --duration 60");
+        System.out.println("  java -jar pdfparse.jar loadtest plan.txt --rate 20 -c 8   (plan lines: mode weight pages"
+                + " margins file)");
     }
 
-    private static void parsePageRange(String range, int[] result) throws NumberFormatException {
-        if (range.contains("-")) {
-            String[] parts = range.split("-");
-            result[0] = Integer.parseInt(parts[0].trim());
-            result[1] = Integer.parseInt(parts[1].trim());
-        } else {
-            result[0] = Integer.parseInt(range.trim());
-            result[1] = result[0]; // Single page means start=end
-        }
+    /**
+     * File name without its extension
+     */
+    private static String baseName(File file) {
+        String name = file.getName();
+        int extensionIndex = name.lastIndexOf('.');
+        return extensionIndex > 0 ? name.substring(0, extensionIndex) : name;
     }
 
-    private static void parseMargins(String marginString, float[] margins) throws NumberFormatException {
+    static void parseMargins(String marginString, float[] margins) throws NumberFormatException {
         String[] parts = marginString.split(",");
         if (parts.length != 4) {
             throw new NumberFormatException("Margins must be specified as four values: left,top,right,bottom");
@@ -0,0 +1,145 @@
+package com.tremorlab.pdfparser;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The text lines of an extracted document in reading order, kept outside the
+ * heap so that section content can be built from it on demand.
+ *
+ * Lines are written as UTF-8, separated by newlines, to a temporary file that
+ * only the current user can read. The heap holds just the byte offset, page and
+ * vertical position of each line, so the content of a run of lines is a single
+ * read of the file, identical to the lines joined with newlines.
+ *
+ * The file is removed when the store is closed, or at exit if it never is.
+ */
+public class BlockStore implements Closeable {
+    private final Path path;
+    private final FileChannel channel;
+    /** Start of each line in the file; one extra entry marks the end of the last line */
+    private final long[] offsets;
+    private final int[] pageNumbers;
+    private final float[] yPositions;
+
+    private BlockStore(Path path, long[] offsets, int[] pageNumbers, float[] yPositions) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.offsets = offsets;
+        this.pageNumbers = pageNumbers;
+        this.yPositions = yPositions;
+    }
+
+    public int size() {
+        return pageNumbers.length;
+    }
+
+    public String getLine(int index) {
+        return getText(index, index + 1);
+    }
+
+    /**
+     * Get the 1-based page a line is on
+     */
+    public int getPageNumber(int index) {
+        return pageNumbers[index];
+    }
+
+    /**
+     * Get the baseline of a line, in display coordinates from the top of the page
+     */
+    public float getYPosition(int index) {
+        return yPositions[index];
+    }
+
+    /**
+     * Get a run of lines joined with newlines
+     *
+     * @param from Index of the first line
+     * @param to   Index after the last line
+     * @throws UncheckedIOException If the backing file cannot be read
+     */
+    public String getText(int from, int to) {
+        if (from >= to)
+            return "";
+
+        long start = offsets[from];
+        // Leave out the newline after the last line
+        ByteBuffer bytes = ByteBuffer.allocate((int) (offsets[to] - 1 - start));
+        try {
+            while (bytes.hasRemaining()) {
+                if (channel.read(bytes, start + bytes.position()) < 0) {
+                    throw new IOException("Block store file is truncated: " + path);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new String(bytes.array(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Close and delete the backing file; content not yet built can no longer
+     * be read
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * Writes lines in order and builds the store
+     */
+    public static class Builder {
+        private final Path path;
+        private final OutputStream out;
+        private long length = 0;
+        private long[] offsets = new long[256];
+        private int[] pageNumbers = new int[256];
+        private float[] yPositions = new float[256];
+        private int size = 0;
+
+        public Builder() throws IOException {
+            path = PdfOpener.createPrivateTempFile(".txt");
+            path.toFile().deleteOnExit();
+            out = new BufferedOutputStream(Files.newOutputStream(path));
+        }
+
+        public Builder addLine(String line, int pageNumber, float yPosition) throws IOException {
+            if (size == pageNumbers.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+                pageNumbers = Arrays.copyOf(pageNumbers, size * 2);
+                yPositions = Arrays.copyOf(yPositions, size * 2);
+            }
+            offsets[size] = length;
+            pageNumbers[size] = pageNumber;
+            yPositions[size] = yPosition;
+            size++;
+
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            out.write(bytes);
+            out.write('\n');
+            length += bytes.length + 1;
+            return this;
+        }
+
+        public BlockStore build() throws IOException {
+            out.close();
+            long[] lineOffsets = Arrays.copyOf(offsets, size + 1);
+            lineOffsets[size] = length;
+            return new BlockStore(path, lineOffsets, Arrays.copyOf(pageNumbers, size),
+                    Arrays.copyOf(yPositions, size));
+        }
+    }
+}
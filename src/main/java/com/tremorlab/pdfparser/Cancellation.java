@@ -0,0 +1,23 @@
+package com.tremorlab.pdfparser;
+
+/**
+ * Lets a caller stop the extractions it started, leaving the other
+ * extractions of a shared extractor running.
+ *
+ * Pass one to {@link HierarchicalPdfExtractor#extractHierarchy(PdfOpener, PageSet, Cancellation)}
+ * or {@link HierarchicalPdfExtractor#extractCompactTree(PdfOpener, Cancellation)}
+ * and call {@link #cancel()} from any thread; the extraction then throws an
+ * {@link java.io.InterruptedIOException} at its next operator or glyph.
+ * Once cancelled, it stays cancelled.
+ */
+public class Cancellation {
+    private volatile boolean cancelled = false;
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,458 @@
+package com.tremorlab.pdfparser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only, array-backed document tree for keeping large section trees in
+ * memory, built by the extractor in place of a {@link DocumentStructure} (see
+ * {@link HierarchicalPdfExtractor#extractCompactTree}).
+ *
+ * Sections are numbered 0 to size() - 1 in the order their headings appear.
+ * Each attribute is an array indexed by section number, the links between
+ * sections are parent, first-child and next-sibling numbers (-1 for none),
+ * and titles and content are ids into one pool in which equal strings are
+ * stored once. Lazy content is a span of the tree's block store and is built
+ * on every request instead of being kept.
+ *
+ * Sections can be walked by number, or through {@link Section} views. The
+ * tree is placed, and written out, exactly like the structure the same
+ * extraction would produce.
+ */
+public class CompactDocumentTree implements DocumentTree {
+    private static final int NONE = -1;
+
+    private final String title;
+    private final Map<String, String> metadata;
+    private final String[] strings;
+    private final BlockStore blockStore;
+    private final int contentId;
+    private final boolean contentInStore;
+    private final int contentFrom;
+    private final int contentTo;
+    private final String contentDigest;
+
+    private final int size;
+    private final int[] parents;
+    private final int[] firstChildren;
+    private final int[] nextSiblings;
+    private final int[] levels;
+    private final int[] pageNumbers;
+    private final int[] endPageNumbers;
+    private final int[] titleIds;
+    private final int[] contentIds;
+    /** Lazy content spans; null when the content was set directly */
+    private final int[] contentFroms;
+    private final int[] contentTos;
+    /** Null when no digests were computed */
+    private final String[] contentDigests;
+
+    private CompactDocumentTree(Builder builder, String title, Map<String, String> metadata) {
+        this.title = title;
+        this.metadata = metadata;
+        this.strings = builder.pool.toArray(new String[0]);
+        this.blockStore = builder.blockStore;
+        this.contentId = builder.contentId;
+        this.contentInStore = builder.contentInStore;
+        this.contentFrom = builder.contentFrom;
+        this.contentTo = builder.contentTo;
+        this.contentDigest = builder.contentDigest;
+
+        this.size = builder.size;
+        this.parents = Arrays.copyOf(builder.parents, size);
+        this.firstChildren = Arrays.copyOf(builder.firstChildren, size);
+        this.nextSiblings = Arrays.copyOf(builder.nextSiblings, size);
+        this.levels = Arrays.copyOf(builder.levels, size);
+        this.pageNumbers = Arrays.copyOf(builder.pageNumbers, size);
+        this.endPageNumbers = Arrays.copyOf(builder.endPageNumbers, size);
+        this.titleIds = Arrays.copyOf(builder.titleIds, size);
+        this.contentIds = Arrays.copyOf(builder.contentIds, size);
+        this.contentFroms = blockStore != null ? Arrays.copyOf(builder.contentFroms, size) : null;
+        this.contentTos = blockStore != null ? Arrays.copyOf(builder.contentTos, size) : null;
+        this.contentDigests = builder.digests ? Arrays.copyOf(builder.contentDigests, size) : null;
+    }
+
+    /**
+     * Number of sections at all levels
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Number of the first top-level section, or -1 if there are no sections
+     */
+    public int getFirstSection() {
+        return size > 0 ? 0 : NONE;
+    }
+
+    /**
+     * Number of the enclosing section, or -1 for a top-level section
+     */
+    public int getParent(int section) {
+        return parents[section];
+    }
+
+    /**
+     * Number of the first subsection, or -1 if there are none
+     */
+    public int getFirstChild(int section) {
+        return firstChildren[section];
+    }
+
+    /**
+     * Number of the next section with the same parent, or -1 for the last
+     */
+    public int getNextSibling(int section) {
+        return nextSiblings[section];
+    }
+
+    public int getLevel(int section) {
+        return levels[section];
+    }
+
+    public int getPageNumber(int section) {
+        return pageNumbers[section];
+    }
+
+    public int getEndPageNumber(int section) {
+        return endPageNumbers[section];
+    }
+
+    public String getTitle(int section) {
+        return string(titleIds[section]);
+    }
+
+    /**
+     * Get a section's own text; lazy content is read from the block store on
+     * every call
+     */
+    public String getContent(int section) {
+        if (contentFroms != null) {
+            return blockStore.getText(contentFroms[section], contentTos[section]);
+        }
+        return string(contentIds[section]);
+    }
+
+    public String getContentDigest(int section) {
+        return contentDigests != null ? contentDigests[section] : null;
+    }
+
+    private String string(int id) {
+        return id == NONE ? null : strings[id];
+    }
+
+    /**
+     * A view of one section
+     */
+    public Section getSection(int section) {
+        if (section < 0 || section >= size) {
+            throw new IndexOutOfBoundsException("No section " + section + " in a tree of " + size);
+        }
+        return new SectionView(section);
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Get the text of a document without headings; lazy content is read from
+     * the block store on every call
+     */
+    public String getContent() {
+        if (contentInStore) {
+            return blockStore.getText(contentFrom, contentTo);
+        }
+        return string(contentId);
+    }
+
+    public String getContentDigest() {
+        return contentDigest;
+    }
+
+    /**
+     * Views of the top-level sections
+     */
+    public List<Section> getSections() {
+        return children(NONE);
+    }
+
+    private List<Section> children(int parent) {
+        List<Section> children = new ArrayList<>();
+        for (int child = parent == NONE ? getFirstSection() : firstChildren[parent]; child != NONE;
+                child = nextSiblings[child]) {
+            children.add(new SectionView(child));
+        }
+        return Collections.unmodifiableList(children);
+    }
+
+    public String getMetadata(String key) {
+        return metadata.get(key);
+    }
+
+    public Map<String, String> getAllMetadata() {
+        return new HashMap<>(metadata);
+    }
+
+    /**
+     * Nothing to release: lazy content is never kept
+     */
+    public void releaseContent() {
+    }
+
+    /**
+     * Delete the block store of lazy content
+     */
+    @Override
+    public void close() throws IOException {
+        if (blockStore != null) {
+            blockStore.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return DocumentStructure.toText(this);
+    }
+
+    /**
+     * Convert the tree to JSON format, the same as
+     * {@link DocumentStructure#toJson()}
+     */
+    public String toJson() {
+        return toJson(true);
+    }
+
+    /**
+     * Convert the tree to JSON format, optionally leaving out all content
+     */
+    public String toJson(boolean includeContent) {
+        return DocumentStructure.toJson(this, metadata, includeContent);
+    }
+
+    /**
+     * A read-only view of one section of the tree
+     */
+    private class SectionView implements Section {
+        private final int section;
+
+        SectionView(int section) {
+            this.section = section;
+        }
+
+        public String getTitle() {
+            return CompactDocumentTree.this.getTitle(section);
+        }
+
+        public String getContent() {
+            return CompactDocumentTree.this.getContent(section);
+        }
+
+        public int getLevel() {
+            return levels[section];
+        }
+
+        public int getPageNumber() {
+            return pageNumbers[section];
+        }
+
+        public int getEndPageNumber() {
+            return endPageNumbers[section];
+        }
+
+        public String getContentDigest() {
+            return CompactDocumentTree.this.getContentDigest(section);
+        }
+
+        public List<Section> getSubSections() {
+            return children(section);
+        }
+
+        public void releaseContent() {
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            DocumentSection.appendText(sb, this);
+            return sb.toString();
+        }
+
+        public String toJson(int indent, boolean includeContent) {
+            StringBuilder sb = new StringBuilder();
+            DocumentSection.appendJson(sb, this, indent, includeContent);
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Collects sections into growing arrays as the extractor finds them.
+     * Sections are placed by the rules of {@link DocumentStructure#addSection}.
+     */
+    static class Builder {
+        private final BlockStore blockStore;
+        private final List<String> pool = new ArrayList<>();
+        private final Map<String, Integer> poolIds = new HashMap<>();
+        private int contentId = NONE;
+        private boolean contentInStore = false;
+        private int contentFrom;
+        private int contentTo;
+        private String contentDigest;
+        private boolean digests = false;
+        private int lastTopLevel = NONE;
+
+        private int size = 0;
+        private int[] parents = new int[64];
+        private int[] firstChildren = new int[64];
+        private int[] lastChildren = new int[64];
+        private int[] nextSiblings = new int[64];
+        private int[] previousSiblings = new int[64];
+        private int[] levels = new int[64];
+        private int[] pageNumbers = new int[64];
+        private int[] endPageNumbers = new int[64];
+        private int[] titleIds = new int[64];
+        private int[] contentIds = new int[64];
+        private int[] contentFroms = new int[64];
+        private int[] contentTos = new int[64];
+        private String[] contentDigests = new String[64];
+
+        /**
+         * @param blockStore The store lazy content is read from, owned by the
+         *                   tree; null if content is set directly
+         */
+        Builder(BlockStore blockStore) {
+            this.blockStore = blockStore;
+        }
+
+        void setContent(String content) {
+            contentId = intern(content);
+        }
+
+        void setContentSpan(int from, int to) {
+            contentInStore = true;
+            contentFrom = from;
+            contentTo = to;
+        }
+
+        void setContentDigest(String digest) {
+            contentDigest = digest;
+        }
+
+        /**
+         * Add a section under the closest section one level up
+         *
+         * @return The section's number
+         */
+        int addSection(String title, int level, int pageNumber, int endPageNumber) {
+            if (size == parents.length) {
+                int capacity = size * 2;
+                parents = Arrays.copyOf(parents, capacity);
+                firstChildren = Arrays.copyOf(firstChildren, capacity);
+                lastChildren = Arrays.copyOf(lastChildren, capacity);
+                nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+                previousSiblings = Arrays.copyOf(previousSiblings, capacity);
+                levels = Arrays.copyOf(levels, capacity);
+                pageNumbers = Arrays.copyOf(pageNumbers, capacity);
+                endPageNumbers = Arrays.copyOf(endPageNumbers, capacity);
+                titleIds = Arrays.copyOf(titleIds, capacity);
+                contentIds = Arrays.copyOf(contentIds, capacity);
+                contentFroms = Arrays.copyOf(contentFroms, capacity);
+                contentTos = Arrays.copyOf(contentTos, capacity);
+                contentDigests = Arrays.copyOf(contentDigests, capacity);
+            }
+
+            int parent = level == 1 ? NONE : findParent(level - 1);
+            int section = size++;
+            parents[section] = parent;
+            firstChildren[section] = NONE;
+            lastChildren[section] = NONE;
+            nextSiblings[section] = NONE;
+            levels[section] = level;
+            pageNumbers[section] = pageNumber;
+            endPageNumbers[section] = endPageNumber;
+            titleIds[section] = intern(title);
+            contentIds[section] = NONE;
+            contentFroms[section] = 0;
+            contentTos[section] = 0;
+            contentDigests[section] = null;
+
+            int previous = parent == NONE ? lastTopLevel : lastChildren[parent];
+            previousSiblings[section] = previous;
+            if (previous != NONE) {
+                nextSiblings[previous] = section;
+            } else if (parent != NONE) {
+                firstChildren[parent] = section;
+            }
+            if (parent == NONE) {
+                lastTopLevel = section;
+            } else {
+                lastChildren[parent] = section;
+            }
+            return section;
+        }
+
+        void setContent(int section, String content) {
+            contentIds[section] = intern(content);
+        }
+
+        void setContentSpan(int section, int from, int to) {
+            contentFroms[section] = from;
+            contentTos[section] = to;
+        }
+
+        void setContentDigest(int section, String digest) {
+            contentDigests[section] = digest;
+            digests = true;
+        }
+
+        CompactDocumentTree build(String title, Map<String, String> metadata) {
+            return new CompactDocumentTree(this, title, metadata);
+        }
+
+        /**
+         * The section a new section of one level down goes under: searched
+         * from the last top-level section backwards, and within each from the
+         * last subsection backwards, like DocumentStructure does
+         */
+        private int findParent(int targetLevel) {
+            for (int top = lastTopLevel; top != NONE; top = previousSiblings[top]) {
+                int parent = findParent(top, targetLevel);
+                if (parent != NONE) {
+                    return parent;
+                }
+            }
+            return NONE;
+        }
+
+        private int findParent(int section, int targetLevel) {
+            if (levels[section] == targetLevel) {
+                return section;
+            }
+            for (int child = lastChildren[section]; child != NONE; child = previousSiblings[child]) {
+                int parent = findParent(child, targetLevel);
+                if (parent != NONE) {
+                    return parent;
+                }
+            }
+            return NONE;
+        }
+
+        private int intern(String text) {
+            if (text == null)
+                return NONE;
+            Integer id = poolIds.get(text);
+            if (id == null) {
+                id = pool.size();
+                pool.add(text);
+                poolIds.put(text, id);
+            }
+            return id;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.tremorlab.pdfparser;
+
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.text.TextPosition;
+
+/**
+ * The content area of a page, i.e. the crop box minus the configured margins.
+ * Coordinates use the same top-left origin as {@link TextPosition}.
+ */
+public class ContentBounds {
+    private final float minX;
+    private final float minY;
+    private final float maxX;
+    private final float maxY;
+
+    public ContentBounds(float minX, float minY, float maxX, float maxY) {
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+    }
+
+    /**
+     * Create the content bounds for a page of the given size
+     *
+     * @param pageWidth  Page (crop box) width
+     * @param pageHeight Page (crop box) height
+     * @param left       Left margin (points from left edge)
+     * @param top        Top margin (points from top edge)
+     * @param right      Right margin (points from right edge)
+     * @param bottom     Bottom margin (points from bottom edge)
+     */
+    public static ContentBounds fromMargins(float pageWidth, float pageHeight,
+            float left, float top, float right, float bottom) {
+        return new ContentBounds(left, top, pageWidth - right, pageHeight - bottom);
+    }
+
+    /**
+     * Create the content bounds for a page using its crop box
+     */
+    public static ContentBounds forPage(PDPage page, float left, float top, float right, float bottom) {
+        PDRectangle cropBox = page.getCropBox();
+        return fromMargins(cropBox.getWidth(), cropBox.getHeight(), left, top, right, bottom);
+    }
+
+    /**
+     * Check whether a point lies inside the content area
+     */
+    public boolean contains(float x, float y) {
+        return x >= minX && x <= maxX && y >= minY && y <= maxY;
+    }
+
+    /**
+     * Check whether the center point of a glyph lies inside the content area
+     */
+    public boolean contains(TextPosition text) {
+        float centerX = text.getX() + (text.getWidth() / 2);
+        float centerY = text.getY() - (text.getHeight() / 2);
+        return contains(centerX, centerY);
+    }
+
+    public float getMinX() {
+        return minX;
+    }
+
+    public float getMinY() {
+        return minY;
+    }
+
+    public float getMaxX() {
+        return maxX;
+    }
+
+    public float getMaxY() {
+        return maxY;
+    }
+}
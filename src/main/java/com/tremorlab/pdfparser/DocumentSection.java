@@ -6,12 +6,20 @@ import java.util.List;
 /**
  * Represents a section in the document (e.g., a chapter, subchapter)
  */
-public class DocumentSection {
+public class DocumentSection implements Section {
     private String title;
     private String content;
     private int level;
+    private int pageNumber;
+    private int endPageNumber;
+    private String contentDigest;
     private List<DocumentSection> subSections = new ArrayList<>();
 
+    // Lazy content: the lines it is built from
+    private BlockStore contentStore;
+    private int contentFrom;
+    private int contentTo;
+
     public String getTitle() {
         return title;
     }
@@ -20,12 +28,48 @@ public class DocumentSection {
         this.title = title;
     }
 
+    /**
+     * Get the section's own text; for lazy content it is built from the block
+     * store on first access
+     */
     public String getContent() {
+        if (content == null && contentStore != null) {
+            content = contentStore.getText(contentFrom, contentTo);
+        }
         return content;
     }
 
     public void setContent(String content) {
         this.content = content;
+        this.contentStore = null;
+    }
+
+    /**
+     * Make the content lazy: it is built from a run of lines of the block store
+     * when first requested
+     *
+     * @param store The document's lines
+     * @param from  Index of the first content line
+     * @param to    Index after the last content line
+     */
+    public void setContentSpan(BlockStore store, int from, int to) {
+        this.content = null;
+        this.contentStore = store;
+        this.contentFrom = from;
+        this.contentTo = to;
+    }
+
+    /**
+     * Discard built lazy content of this section and its subsections; it is
+     * built again if requested. Content set directly is kept.
+     */
+    public void releaseContent() {
+        if (contentStore != null) {
+            content = null;
+        }
+        for (DocumentSection subSection : subSections) {
+            subSection.releaseContent();
+        }
     }
 
     public int getLevel() {
@@ -36,6 +80,40 @@ public class DocumentSection {
         this.level = level;
     }
 
+    /**
+     * Get the 1-based page the section heading is on, or 0 if unknown
+     */
+    public int getPageNumber() {
+        return pageNumber;
+    }
+
+    public void setPageNumber(int pageNumber) {
+        this.pageNumber = pageNumber;
+    }
+
+    /**
+     * Get the 1-based page the section's own content ends on, or 0 if unknown
+     */
+    public int getEndPageNumber() {
+        return endPageNumber;
+    }
+
+    public void setEndPageNumber(int endPageNumber) {
+        this.endPageNumber = endPageNumber;
+    }
+
+    /**
+     * Get the digest of the section's own text (see
+     * {@link SectionManifest#digest}), or null if not computed
+     */
+    public String getContentDigest() {
+        return contentDigest;
+    }
+
+    public void setContentDigest(String contentDigest) {
+        this.contentDigest = contentDigest;
+    }
+
     public List<DocumentSection> getSubSections() {
         return subSections;
     }
@@ -51,40 +129,70 @@ public class DocumentSection {
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        String heading = "#".repeat(level) + " " + title;
+        appendText(sb, this);
+        return sb.toString();
+    }
+
+    /**
+     * Convert the section to JSON format
+     */
+    public String toJson(int indent) {
+        return toJson(indent, true);
+    }
+
+    /**
+     * Convert the section to JSON format, optionally leaving out the content
+     * (which then isn't built for lazy sections)
+     */
+    public String toJson(int indent, boolean includeContent) {
+        StringBuilder sb = new StringBuilder();
+        appendJson(sb, this, indent, includeContent);
+        return sb.toString();
+    }
+
+    /**
+     * Append a section and its subsections as Markdown-style text
+     */
+    static void appendText(StringBuilder sb, Section section) {
+        String heading = "#".repeat(section.getLevel()) + " " + section.getTitle();
         sb.append(heading).append("\n\n");
 
+        String content = section.getContent();
         if (content != null && !content.isEmpty()) {
             sb.append(content).append("\n\n");
         }
 
-        for (DocumentSection subSection : subSections) {
-            sb.append(subSection.toString());
+        for (Section subSection : section.getSubSections()) {
+            appendText(sb, subSection);
         }
-
-        return sb.toString();
     }
 
     /**
-     * Convert the section to JSON format
+     * Append a section and its subsections in JSON format
      */
-    public String toJson(int indent) {
+    static void appendJson(StringBuilder sb, Section section, int indent, boolean includeContent) {
         String spaces = " ".repeat(indent);
-        StringBuilder sb = new StringBuilder();
         sb.append(spaces).append("{\n");
 
         String innerSpaces = spaces + "  ";
-        sb.append(innerSpaces).append("\"title\": ").append(jsonEscape(title)).append(",\n");
-        sb.append(innerSpaces).append("\"level\": ").append(level).append(",\n");
+        sb.append(innerSpaces).append("\"title\": ").append(jsonEscape(section.getTitle())).append(",\n");
+        sb.append(innerSpaces).append("\"level\": ").append(section.getLevel()).append(",\n");
 
+        if (section.getPageNumber() > 0) {
+            sb.append(innerSpaces).append("\"page\": ").append(section.getPageNumber()).append(",\n");
+            sb.append(innerSpaces).append("\"endPage\": ").append(section.getEndPageNumber()).append(",\n");
+        }
+
+        String content = includeContent ? section.getContent() : null;
         if (content != null && !content.isEmpty()) {
             sb.append(innerSpaces).append("\"content\": ").append(jsonEscape(content)).append(",\n");
         }
 
+        List<? extends Section> subSections = section.getSubSections();
         if (!subSections.isEmpty()) {
             sb.append(innerSpaces).append("\"subSections\": [\n");
             for (int i = 0; i < subSections.size(); i++) {
-                sb.append(subSections.get(i).toJson(indent + 4));
+                appendJson(sb, subSections.get(i), indent + 4, includeContent);
                 if (i < subSections.size() - 1) {
                     sb.append(",");
                 }
@@ -97,10 +205,9 @@ public class DocumentSection {
         }
 
         sb.append("\n").append(spaces).append("}");
-        return sb.toString();
     }
 
-    private String jsonEscape(String text) {
+    static String jsonEscape(String text) {
         if (text == null)
             return "null";
 
@@ -1,5 +1,6 @@
 package com.tremorlab.pdfparser;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -7,12 +8,20 @@ import java.util.Map;
 
 /**
  * Represents the hierarchical structure of a document
+ *
+ * With lazy content the text lives in a {@link BlockStore} owned by the
+ * structure; close the structure to delete it.
  */
-public class DocumentStructure {
+public class DocumentStructure implements DocumentTree {
     private String title;
     private String content;
+    private String contentDigest;
     private List<DocumentSection> sections = new ArrayList<>();
     private Map<String, String> metadata = new HashMap<>();
+    private BlockStore blockStore;
+    private boolean contentInStore = false;
+    private int contentFrom;
+    private int contentTo;
 
     public String getTitle() {
         return title;
@@ -22,12 +31,68 @@ public class DocumentStructure {
         this.title = title;
     }
 
+    /**
+     * Get the text of a document without headings; for lazy content it is built
+     * from the block store on first access
+     */
     public String getContent() {
+        if (content == null && contentInStore) {
+            content = blockStore.getText(contentFrom, contentTo);
+        }
         return content;
     }
 
     public void setContent(String content) {
         this.content = content;
+        this.contentInStore = false;
+    }
+
+    /**
+     * Get the digest of the text of a document without headings (see
+     * {@link SectionManifest#digest}), or null if not computed
+     */
+    public String getContentDigest() {
+        return contentDigest;
+    }
+
+    public void setContentDigest(String contentDigest) {
+        this.contentDigest = contentDigest;
+    }
+
+    /**
+     * Set the store lazy content of this document and its sections is read
+     * from; it is closed with the structure
+     */
+    public void setBlockStore(BlockStore blockStore) {
+        this.blockStore = blockStore;
+    }
+
+    /**
+     * Make the content lazy: it is built from a run of lines of the block store
+     * when first requested
+     *
+     * @param from Index of the first content line
+     * @param to   Index after the last content line
+     */
+    public void setContentSpan(int from, int to) {
+        this.content = null;
+        this.contentInStore = true;
+        this.contentFrom = from;
+        this.contentTo = to;
+    }
+
+    /**
+     * Discard built lazy content of the document and all sections; it is built
+     * again if requested. A table of contents or selected sections can then be
+     * used without keeping the text of the whole document.
+     */
+    public void releaseContent() {
+        if (contentInStore) {
+            content = null;
+        }
+        for (DocumentSection section : sections) {
+            section.releaseContent();
+        }
     }
 
     public List<DocumentSection> getSections() {
@@ -89,6 +154,17 @@ public class DocumentStructure {
         return null;
     }
 
+    /**
+     * Delete the block store of lazy content. Content already built stays
+     * available; content not yet built cannot be built any more.
+     */
+    @Override
+    public void close() throws IOException {
+        if (blockStore != null) {
+            blockStore.close();
+        }
+    }
+
     /**
      * Add metadata to the document structure
      */
@@ -112,39 +188,66 @@ public class DocumentStructure {
 
     @Override
     public String toString() {
+        return toText(this);
+    }
+
+    /**
+     * Convert the document structure to JSON format
+     */
+    public String toJson() {
+        return toJson(true);
+    }
+
+    /**
+     * Convert the document structure to JSON format, optionally leaving out all
+     * content (which then isn't built for lazy sections)
+     */
+    public String toJson(boolean includeContent) {
+        return toJson(this, metadata, includeContent);
+    }
+
+    /**
+     * Write a document as Markdown-style text
+     */
+    static String toText(DocumentTree tree) {
         StringBuilder sb = new StringBuilder();
+        String title = tree.getTitle();
         if (title != null && !title.isEmpty()) {
             sb.append("# ").append(title).append("\n\n");
         }
 
+        String content = tree.getContent();
         if (content != null && !content.isEmpty()) {
             sb.append(content).append("\n\n");
         }
 
-        for (DocumentSection section : sections) {
-            sb.append(section.toString());
+        for (Section section : tree.getSections()) {
+            DocumentSection.appendText(sb, section);
         }
 
         return sb.toString();
     }
 
     /**
-     * Convert the document structure to JSON format
+     * Write a document in JSON format
+     *
+     * @param metadata The document's metadata, written in its iteration order
      */
-    public String toJson() {
+    static String toJson(DocumentTree tree, Map<String, String> metadata, boolean includeContent) {
         StringBuilder sb = new StringBuilder();
         sb.append("{\n");
 
+        String title = tree.getTitle();
         if (title != null && !title.isEmpty()) {
-            sb.append("  \"title\": ").append(jsonEscape(title)).append(",\n");
+            sb.append("  \"title\": ").append(DocumentSection.jsonEscape(title)).append(",\n");
         }
 
         if (!metadata.isEmpty()) {
             sb.append("  \"metadata\": {\n");
             int count = 0;
             for (Map.Entry<String, String> entry : metadata.entrySet()) {
-                sb.append("    ").append(jsonEscape(entry.getKey())).append(": ")
-                        .append(jsonEscape(entry.getValue()));
+                sb.append("    ").append(DocumentSection.jsonEscape(entry.getKey())).append(": ")
+                        .append(DocumentSection.jsonEscape(entry.getValue()));
                 if (++count < metadata.size()) {
                     sb.append(",");
                 }
@@ -153,14 +256,16 @@ public class DocumentStructure {
             sb.append("  },\n");
         }
 
+        String content = includeContent ? tree.getContent() : null;
         if (content != null && !content.isEmpty()) {
-            sb.append("  \"content\": ").append(jsonEscape(content)).append(",\n");
+            sb.append("  \"content\": ").append(DocumentSection.jsonEscape(content)).append(",\n");
         }
 
+        List<? extends Section> sections = tree.getSections();
         if (!sections.isEmpty()) {
             sb.append("  \"sections\": [\n");
             for (int i = 0; i < sections.size(); i++) {
-                sb.append(sections.get(i).toJson(4));
+                DocumentSection.appendJson(sb, sections.get(i), 4, includeContent);
                 if (i < sections.size() - 1) {
                     sb.append(",");
                 }
@@ -176,43 +281,4 @@ public class DocumentStructure {
         sb.append("}");
         return sb.toString();
     }
-
-    private String jsonEscape(String text) {
-        if (text == null)
-            return "null";
-
-        StringBuilder sb = new StringBuilder("\"");
-        for (char c : text.toCharArray()) {
-            switch (c) {
-                case '"':
-                    sb.append("\\\"");
-                    break;
-                case '\\':
-                    sb.append("\\\\");
-                    break;
-                case '\b':
-                    sb.append("\\b");
-                    break;
-                case '\f':
-                    sb.append("\\f");
-                    break;
-                case '\n':
-                    sb.append("\\n");
-                    break;
-                case '\r':
-                    sb.append("\\r");
-                    break;
-                case '\t':
-                    sb.append("\\t");
-                    break;
-                default:
-                    if (c < ' ') {
-                        sb.append(String.format("\\u%04x", (int) c));
-                    } else {
-                        sb.append(c);
-                    }
-            }
-        }
-        return sb.append("\"").toString();
-    }
 }
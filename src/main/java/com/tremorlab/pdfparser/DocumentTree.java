@@ -0,0 +1,47 @@
+package com.tremorlab.pdfparser;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An extracted document: title, metadata and a tree of sections. Implemented
+ * by {@link DocumentStructure} and {@link CompactDocumentTree}; closing it
+ * deletes the block store of lazy content.
+ */
+public interface DocumentTree extends Closeable {
+
+    String getTitle();
+
+    /**
+     * Get the text of a document without headings, or null if it has headings
+     */
+    String getContent();
+
+    /**
+     * Get the digest of the text of a document without headings, or null if
+     * not computed
+     */
+    String getContentDigest();
+
+    String getMetadata(String key);
+
+    Map<String, String> getAllMetadata();
+
+    List<? extends Section> getSections();
+
+    /**
+     * Discard built lazy content of the document and all sections
+     */
+    void releaseContent();
+
+    /**
+     * Convert the document to JSON format
+     */
+    String toJson();
+
+    /**
+     * Convert the document to JSON format, optionally leaving out all content
+     */
+    String toJson(boolean includeContent);
+}
@@ -0,0 +1,133 @@
+package com.tremorlab.pdfparser;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The sections added, removed and changed between two editions of a document,
+ * so that re-indexing a new edition only touches what changed.
+ *
+ * Sections are matched by their path of titles; a section whose path is in
+ * both editions has changed when its content digest differs. A section that
+ * was renamed therefore shows up as removed under its old path and added
+ * under its new one.
+ */
+public class EditionDiff {
+    private final SectionManifest older;
+    private final SectionManifest newer;
+    private final List<SectionManifest.Entry> added = new ArrayList<>();
+    private final List<SectionManifest.Entry> removed = new ArrayList<>();
+    // Changed sections of the newer edition, with their entries in the older one
+    private final Map<SectionManifest.Entry, SectionManifest.Entry> changed = new LinkedHashMap<>();
+    private int unchanged = 0;
+
+    private EditionDiff(SectionManifest older, SectionManifest newer) {
+        this.older = older;
+        this.newer = newer;
+    }
+
+    /**
+     * Compare two editions
+     *
+     * @param older Manifest of the previous edition
+     * @param newer Manifest of the new edition
+     */
+    public static EditionDiff compare(SectionManifest older, SectionManifest newer) {
+        EditionDiff diff = new EditionDiff(older, newer);
+
+        Map<String, SectionManifest.Entry> olderByKey = new LinkedHashMap<>();
+        for (SectionManifest.Entry entry : older.getEntries()) {
+            olderByKey.put(entry.getKey(), entry);
+        }
+
+        for (SectionManifest.Entry entry : newer.getEntries()) {
+            SectionManifest.Entry previous = olderByKey.remove(entry.getKey());
+            if (previous == null) {
+                diff.added.add(entry);
+            } else if (!entry.getDigest().equals(previous.getDigest())) {
+                diff.changed.put(entry, previous);
+            } else {
+                diff.unchanged++;
+            }
+        }
+        diff.removed.addAll(olderByKey.values());
+        return diff;
+    }
+
+    public List<SectionManifest.Entry> getAdded() {
+        return added;
+    }
+
+    public List<SectionManifest.Entry> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Get the changed sections as they are in the new edition
+     */
+    public List<SectionManifest.Entry> getChanged() {
+        return new ArrayList<>(changed.keySet());
+    }
+
+    public int getUnchangedCount() {
+        return unchanged;
+    }
+
+    /**
+     * Convert to JSON. Added and changed sections carry their new content when
+     * the new edition was extracted rather than read from a manifest.
+     */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"old\": ").append(DocumentSection.jsonEscape(older.getSource())).append(",\n");
+        sb.append("  \"new\": ").append(DocumentSection.jsonEscape(newer.getSource())).append(",\n");
+
+        sb.append("  \"added\": [");
+        appendEntries(sb, added, null, true);
+        sb.append("],\n");
+        sb.append("  \"removed\": [");
+        appendEntries(sb, removed, null, false);
+        sb.append("],\n");
+        sb.append("  \"changed\": [");
+        appendEntries(sb, getChanged(), changed, true);
+        sb.append("],\n");
+
+        sb.append("  \"unchanged\": ").append(unchanged).append("\n");
+        sb.append("}");
+        return sb.toString();
+    }
+
+    private static void appendEntries(StringBuilder sb, List<SectionManifest.Entry> entries,
+            Map<SectionManifest.Entry, SectionManifest.Entry> previous, boolean includeContent) {
+        if (entries.isEmpty())
+            return;
+
+        sb.append("\n");
+        for (int i = 0; i < entries.size(); i++) {
+            SectionManifest.Entry entry = entries.get(i);
+            sb.append("    {\n");
+            sb.append("      \"path\": ").append(DocumentSection.jsonEscape(entry.getPath())).append(",\n");
+            if (entry.getPage() > 0) {
+                sb.append("      \"page\": ").append(entry.getPage()).append(",\n");
+                sb.append("      \"endPage\": ").append(entry.getEndPage()).append(",\n");
+            }
+            if (previous != null) {
+                sb.append("      \"oldDigest\": \"").append(previous.get(entry).getDigest()).append("\",\n");
+            }
+            sb.append("      \"digest\": \"").append(entry.getDigest()).append("\"");
+            String content = includeContent ? entry.getContent() : null;
+            if (content != null) {
+                sb.append(",\n      \"content\": ").append(DocumentSection.jsonEscape(content));
+            }
+            sb.append("\n    }");
+            if (i < entries.size() - 1) {
+                sb.append(",");
+            }
+            sb.append("\n");
+        }
+        sb.append("  ");
+    }
+}
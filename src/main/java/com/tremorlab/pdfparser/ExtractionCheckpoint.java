@@ -0,0 +1,413 @@
+package com.tremorlab.pdfparser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Checkpoint file of a hierarchical extraction, so that an extraction that
+ * dies part way through a long document resumes from its last checkpoint
+ * instead of starting over, and a later request for more pages extends an
+ * earlier one. A request for some of the pages a checkpoint already covers
+ * takes their lines from it and leaves the file as it is.
+ *
+ * The file holds the lines assembled so far. Lines are only ever complete at
+ * a page boundary, so nothing else of the line assembly has to be kept; the
+ * style profile that headings are classified with (the body font size) is
+ * derived from the lines' font sizes again when the extraction finishes.
+ *
+ * File layout (big-endian):
+ * <pre>
+ * header    magic, version, PDF length, PDF modification time, extraction settings
+ * records   'L' line: text, font size, font name, y position, page,
+ *                     tagged heading level, page and marked content id
+ *           'P' page boundary: last page done, selected pages, skipped pages, degraded pages
+ * </pre>
+ * Records are only appended. A boundary commits the lines written before it;
+ * lines after the last boundary, e.g. from a process that was killed while
+ * writing, are ignored when the file is read. Strings are written as their
+ * UTF-8 length and bytes, with length -1 for null (a font without a name).
+ *
+ * A checkpoint file is open in one extraction at a time; opening one that
+ * another extraction in the process has open fails.
+ */
+public class ExtractionCheckpoint implements Closeable {
+    public static final String FILE_EXTENSION = ".ckpt";
+
+    private static final int MAGIC = 0x50434b50; // "PCKP"
+    private static final int VERSION = 1;
+    private static final byte LINE = 'L';
+    private static final byte PAGE_BOUNDARY = 'P';
+    private static final int MAX_STRING_BYTES = 1 << 24;
+
+    // Checkpoint files open in this process
+    private static final Set<File> openFiles = ConcurrentHashMap.newKeySet();
+
+    private final File file;
+    // Null when the checkpoint is only read from
+    private DataOutputStream out;
+    // Where each tagged heading was read from, so it can be found again on resume
+    private final Map<StructureReader.TaggedHeading, int[]> headingKeys = new IdentityHashMap<>();
+    private int writtenLines;
+
+    // The state restored from the file, until it is handed to the extraction
+    private List<HierarchicalPdfExtractor.PDFTextBlock> restoredLines = new ArrayList<>();
+    private int restoredLastPage = 0;
+    private List<Integer> restoredSkippedPages = new ArrayList<>();
+    private List<Integer> restoredDegradedPages = new ArrayList<>();
+
+    private ExtractionCheckpoint(File file) {
+        this.file = file;
+    }
+
+    /**
+     * The checkpoint file for a PDF in a checkpoint directory: the PDF's file
+     * name with the extension replaced, qualified by its location
+     */
+    public static File fileFor(File checkpointDir, File pdfFile) {
+        return new File(checkpointDir, SectionIndex.qualifiedName(pdfFile) + FILE_EXTENSION);
+    }
+
+    /**
+     * Open the checkpoint of an extraction, restoring what an earlier
+     * extraction of the same pages checkpointed. A checkpoint of another
+     * version of the PDF, of other settings or of other pages is discarded.
+     * A checkpoint that covers the extraction's pages among others is only
+     * read from (see {@link #isReadOnly()}).
+     *
+     * @param file           The checkpoint file, created if missing
+     * @param pdfFile        The PDF being extracted
+     * @param settings       Everything about the extraction that affects the lines
+     * @param selectedPages  The pages the extraction covers
+     * @param taggedHeadings The document's tagged headings by page and marked
+     *                       content id, or null
+     * @throws IOException If the file cannot be written, or another extraction
+     *                     has it open
+     */
+    static ExtractionCheckpoint open(File file, File pdfFile, String settings, PageSet selectedPages,
+            Map<Integer, Map<Integer, StructureReader.TaggedHeading>> taggedHeadings) throws IOException {
+        if (!openFiles.add(file.getAbsoluteFile())) {
+            throw new IOException("it is in use by another extraction");
+        }
+        try {
+            return openUnshared(file, pdfFile, settings, selectedPages, taggedHeadings);
+        } catch (IOException | RuntimeException e) {
+            openFiles.remove(file.getAbsoluteFile());
+            throw e;
+        }
+    }
+
+    private static ExtractionCheckpoint openUnshared(File file, File pdfFile, String settings,
+            PageSet selectedPages, Map<Integer, Map<Integer, StructureReader.TaggedHeading>> taggedHeadings)
+            throws IOException {
+        long pdfLength = pdfFile.length();
+        long pdfModified = pdfFile.lastModified();
+
+        ExtractionCheckpoint checkpoint = new ExtractionCheckpoint(file);
+        checkpoint.indexHeadings(taggedHeadings);
+        if (file.isFile() && checkpoint.restore(pdfLength, pdfModified, settings, selectedPages, taggedHeadings)) {
+            return checkpoint;
+        }
+
+        // Rewrite the file with just the state being resumed from, then append to it
+        File working = new File(file.getPath() + ".tmp");
+        checkpoint.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(working)));
+        try {
+            checkpoint.out.writeInt(MAGIC);
+            checkpoint.out.writeInt(VERSION);
+            checkpoint.out.writeLong(pdfLength);
+            checkpoint.out.writeLong(pdfModified);
+            writeString(checkpoint.out, settings);
+            if (checkpoint.restoredLastPage > 0) {
+                checkpoint.write(checkpoint.restoredLines, checkpoint.restoredLastPage, selectedPages,
+                        checkpoint.restoredSkippedPages, checkpoint.restoredDegradedPages);
+                checkpoint.writtenLines = 0;
+            } else {
+                checkpoint.out.flush();
+            }
+            Files.move(working.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            checkpoint.out.close();
+            Files.deleteIfExists(working.toPath());
+            throw e;
+        }
+        return checkpoint;
+    }
+
+    private void indexHeadings(Map<Integer, Map<Integer, StructureReader.TaggedHeading>> taggedHeadings) {
+        if (taggedHeadings == null)
+            return;
+
+        for (Map.Entry<Integer, Map<Integer, StructureReader.TaggedHeading>> page : taggedHeadings.entrySet()) {
+            for (Map.Entry<Integer, StructureReader.TaggedHeading> heading : page.getValue().entrySet()) {
+                headingKeys.putIfAbsent(heading.getValue(), new int[] { page.getKey(), heading.getKey() });
+            }
+        }
+    }
+
+    /**
+     * Whether the checkpoint covers more pages than the extraction, so that it
+     * only restored the extraction's pages and is not written to
+     */
+    boolean isReadOnly() {
+        return out == null;
+    }
+
+    /**
+     * Read the state of the last page boundary of the existing file
+     *
+     * @return Whether the file covers more pages than requested; only the
+     *         requested ones were restored and the file is to be kept as it is
+     */
+    private boolean restore(long pdfLength, long pdfModified, String settings, PageSet selectedPages,
+            Map<Integer, Map<Integer, StructureReader.TaggedHeading>> taggedHeadings) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                System.out.println("Warning: Ignoring " + file.getPath() + ": not an extraction checkpoint");
+                return false;
+            }
+            if (in.readLong() != pdfLength || in.readLong() != pdfModified || !settings.equals(readString(in))) {
+                System.out.println("Warning: Discarding checkpoint " + file.getPath()
+                        + ": it was made from another version of the PDF or with other settings");
+                return false;
+            }
+
+            // Lines are only kept once a page boundary after them has been read
+            List<HierarchicalPdfExtractor.PDFTextBlock> lines = new ArrayList<>();
+            String checkpointPages = null;
+            try {
+                while (true) {
+                    int type = in.read();
+                    if (type == LINE) {
+                        lines.add(readLine(in, taggedHeadings));
+                    } else if (type == PAGE_BOUNDARY) {
+                        int lastPage = in.readInt();
+                        String pages = readString(in);
+                        List<Integer> skippedPages = readPages(in);
+                        List<Integer> degradedPages = readPages(in);
+                        restoredLastPage = lastPage;
+                        checkpointPages = pages;
+                        restoredSkippedPages = skippedPages;
+                        restoredDegradedPages = degradedPages;
+                        restoredLines.addAll(lines);
+                        lines.clear();
+                    } else {
+                        break;
+                    }
+                }
+            } catch (EOFException e) {
+                // A record cut short; the state of the last complete boundary stands
+            }
+
+            // The pages done must be the pages this extraction would have done by then
+            if (restoredLastPage > 0 && !samePagesUpTo(checkpointPages, selectedPages, restoredLastPage)) {
+                if (coversPagesUpTo(checkpointPages, selectedPages, restoredLastPage)) {
+                    keepPages(selectedPages);
+                    return true;
+                }
+                System.out.println("Warning: Discarding checkpoint " + file.getPath()
+                        + ": it covers pages " + checkpointPages + " rather than " + selectedPages);
+                discardRestored();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Warning: Ignoring unreadable checkpoint " + file.getPath() + ": " + e.getMessage());
+            discardRestored();
+        }
+        return false;
+    }
+
+    /**
+     * Keep only the restored state of some pages
+     */
+    private void keepPages(PageSet selectedPages) {
+        List<HierarchicalPdfExtractor.PDFTextBlock> lines = new ArrayList<>();
+        for (HierarchicalPdfExtractor.PDFTextBlock line : restoredLines) {
+            if (selectedPages.contains(line.pageNumber)) {
+                lines.add(line);
+            }
+        }
+        restoredLines = lines;
+        restoredSkippedPages.removeIf(pageNumber -> !selectedPages.contains(pageNumber));
+        restoredDegradedPages.removeIf(pageNumber -> !selectedPages.contains(pageNumber));
+        restoredLastPage = Math.min(restoredLastPage, selectedPages.last());
+    }
+
+    private static HierarchicalPdfExtractor.PDFTextBlock readLine(DataInputStream in,
+            Map<Integer, Map<Integer, StructureReader.TaggedHeading>> taggedHeadings) throws IOException {
+        HierarchicalPdfExtractor.PDFTextBlock line = new HierarchicalPdfExtractor.PDFTextBlock(readString(in),
+                in.readFloat(), readString(in), in.readFloat(), in.readInt());
+        int level = in.readInt();
+        int headingPage = in.readInt();
+        int mcid = in.readInt();
+        if (level > 0) {
+            // The same heading element the lines after the checkpoint will be tagged with
+            line.taggedHeading = findHeading(taggedHeadings, headingPage, mcid);
+            if (line.taggedHeading == null) {
+                line.taggedHeading = new StructureReader.TaggedHeading(level);
+            }
+        }
+        return line;
+    }
+
+    private void discardRestored() {
+        restoredLines = new ArrayList<>();
+        restoredLastPage = 0;
+        restoredSkippedPages = new ArrayList<>();
+        restoredDegradedPages = new ArrayList<>();
+    }
+
+    private static boolean samePagesUpTo(String checkpointPages, PageSet selectedPages, int lastPage) {
+        try {
+            return PageSet.parse(checkpointPages).limitTo(lastPage).toString()
+                    .equals(selectedPages.limitTo(lastPage).toString());
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Whether the checkpoint has done every selected page up to a page
+     */
+    private static boolean coversPagesUpTo(String checkpointPages, PageSet selectedPages, int lastPage) {
+        try {
+            PageSet done = PageSet.parse(checkpointPages).limitTo(lastPage);
+            for (int pageNumber : selectedPages.limitTo(lastPage).toArray()) {
+                if (!done.contains(pageNumber)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static StructureReader.TaggedHeading findHeading(
+            Map<Integer, Map<Integer, StructureReader.TaggedHeading>> taggedHeadings, int pageNumber, int mcid) {
+        if (taggedHeadings == null || !taggedHeadings.containsKey(pageNumber))
+            return null;
+        return taggedHeadings.get(pageNumber).get(mcid);
+    }
+
+    /**
+     * Hand the restored lines and page lists to an extraction
+     *
+     * @return The last page the restored state covers, or 0 if nothing was restored
+     */
+    int restoreInto(List<HierarchicalPdfExtractor.PDFTextBlock> lines, List<Integer> skippedPages,
+            List<Integer> degradedPages) {
+        lines.addAll(restoredLines);
+        skippedPages.addAll(restoredSkippedPages);
+        degradedPages.addAll(restoredDegradedPages);
+        writtenLines = lines.size();
+
+        int lastPage = restoredLastPage;
+        discardRestored();
+        return lastPage;
+    }
+
+    /**
+     * Append the lines assembled since the last checkpoint and commit them
+     * with a page boundary
+     *
+     * @param lines         All lines of the extraction so far
+     * @param lastPage      The page the extraction has finished
+     * @param selectedPages The pages the extraction covers
+     * @param skippedPages  Pages skipped for running over budget so far
+     * @param degradedPages Pages degraded for running over budget so far
+     */
+    void write(List<HierarchicalPdfExtractor.PDFTextBlock> lines, int lastPage, PageSet selectedPages,
+            List<Integer> skippedPages, List<Integer> degradedPages) throws IOException {
+        for (int i = writtenLines; i < lines.size(); i++) {
+            HierarchicalPdfExtractor.PDFTextBlock line = lines.get(i);
+            out.write(LINE);
+            writeString(out, line.text);
+            out.writeFloat(line.fontSize);
+            writeString(out, line.fontName);
+            out.writeFloat(line.yPosition);
+            out.writeInt(line.pageNumber);
+
+            int[] headingKey = line.taggedHeading != null ? headingKeys.get(line.taggedHeading) : null;
+            out.writeInt(line.taggedHeading != null ? line.taggedHeading.getLevel() : 0);
+            out.writeInt(headingKey != null ? headingKey[0] : -1);
+            out.writeInt(headingKey != null ? headingKey[1] : -1);
+        }
+        writtenLines = lines.size();
+
+        out.write(PAGE_BOUNDARY);
+        out.writeInt(lastPage);
+        writeString(out, selectedPages.toString());
+        writePages(out, skippedPages);
+        writePages(out, degradedPages);
+        // Reaching the operating system is enough to survive the process dying
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (out != null) {
+                out.close();
+            }
+        } finally {
+            openFiles.remove(file.getAbsoluteFile());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        if (text == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > MAX_STRING_BYTES) {
+            throw new IOException("Corrupt checkpoint record");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writePages(DataOutputStream out, List<Integer> pages) throws IOException {
+        out.writeInt(pages.size());
+        for (int pageNumber : pages) {
+            out.writeInt(pageNumber);
+        }
+    }
+
+    private static List<Integer> readPages(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Corrupt checkpoint record");
+        }
+        List<Integer> pages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            pages.add(in.readInt());
+        }
+        return pages;
+    }
+}
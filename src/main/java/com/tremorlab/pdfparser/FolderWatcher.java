@@ -0,0 +1,434 @@
+package com.tremorlab.pdfparser;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches drop folders and extracts the hierarchy of each new or changed PDF
+ * in them.
+ *
+ * A PDF is extracted once it has stopped changing for the debounce interval,
+ * so a file still being copied in is not read half written. Each directory
+ * keeps a manifest ({@value #MANIFEST_NAME}) of the content fingerprint of
+ * every PDF extracted from it; a file whose content is unchanged, e.g. one
+ * that was only touched or copied over with the same bytes, is not extracted
+ * again, and neither are the files of an earlier run when watching restarts.
+ * The result of "name.pdf" is written next to it as "name.json". Results and
+ * the manifest are replaced atomically, so readers never see a partial file.
+ *
+ * Extraction runs on a fixed number of worker threads; a file that changes
+ * again while it is being extracted is extracted again afterwards.
+ * Subdirectories are not watched.
+ */
+public class FolderWatcher implements Closeable {
+    public static final String MANIFEST_NAME = ".pdfparse-manifest";
+    public static final String RESULT_EXTENSION = ".json";
+
+    private static final String MANIFEST_HEADER = "# pdfparse watch manifest 1";
+    private static final long IDLE_POLL_MILLIS = 1000;
+
+    private final HierarchicalPdfExtractor extractor;
+    private final long debounceMillis;
+    private final WatchService watchService;
+    private final ThreadPoolExecutor workers;
+    private final SharedFontCache fontCache;
+    private final Map<Path, DirectoryManifest> manifests = new ConcurrentHashMap<>();
+
+    // Files seen changing and not yet extracted; only used on the watching thread
+    private final Map<Path, Observation> pending = new HashMap<>();
+    // Files queued for or being extracted
+    private final Set<Path> queued = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed = false;
+
+    /**
+     * @param extractor      Extractor the PDFs are read with
+     * @param workers        Number of worker threads
+     * @param debounceMillis How long a file must stay unchanged before it is extracted
+     * @param fontCache      Cache of fonts shared between the documents, or null
+     */
+    public FolderWatcher(HierarchicalPdfExtractor extractor, int workers, long debounceMillis,
+            SharedFontCache fontCache) throws IOException {
+        if (workers < 1) {
+            throw new IllegalArgumentException("At least one worker is needed");
+        }
+        if (debounceMillis < 0) {
+            throw new IllegalArgumentException("Debounce interval cannot be negative");
+        }
+        this.extractor = extractor;
+        this.debounceMillis = debounceMillis;
+        this.fontCache = fontCache;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.workers = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "watch-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Start watching a directory. The PDFs already in it that are new or
+     * changed since its manifest was written are extracted too.
+     */
+    public void watch(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            throw new IOException("Not a directory: " + dir);
+        }
+        dir = dir.toAbsolutePath().normalize();
+        manifests.put(dir, DirectoryManifest.load(dir.resolve(MANIFEST_NAME)));
+        dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        scan(dir);
+    }
+
+    /**
+     * Process file events until the watcher is closed
+     */
+    public void run() throws InterruptedException {
+        try {
+            while (!closed) {
+                WatchKey key = watchService.poll(nextPollMillis(), TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    handleEvents(key);
+                }
+                submitSettled();
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Closed while waiting for events
+        }
+    }
+
+    private void handleEvents(WatchKey key) {
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events were lost; look at every file again
+                scan(dir);
+            } else {
+                Path path = dir.resolve((Path) event.context());
+                if (isPdf(path)) {
+                    observe(path);
+                }
+            }
+        }
+        if (!key.reset()) {
+            System.out.println("Warning: No longer watching " + dir + ": it is no longer accessible");
+        }
+    }
+
+    private void scan(Path dir) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path path : files) {
+                if (isPdf(path)) {
+                    observe(path);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Warning: Cannot list " + dir + ": " + e.getMessage());
+        }
+    }
+
+    private static boolean isPdf(Path path) {
+        String name = path.getFileName().toString();
+        // Hidden files are usually partial downloads or editor temporaries
+        return !name.startsWith(".") && name.toLowerCase().endsWith(".pdf");
+    }
+
+    /**
+     * Record that a file changed; its debounce interval starts again
+     */
+    private void observe(Path path) {
+        pending.put(path, new Observation(path, System.currentTimeMillis()));
+    }
+
+    private long nextPollMillis() {
+        long now = System.currentTimeMillis();
+        long next = IDLE_POLL_MILLIS;
+        for (Observation observation : pending.values()) {
+            next = Math.min(next, observation.seenAt + debounceMillis - now);
+        }
+        return Math.max(10, next);
+    }
+
+    /**
+     * Queue the files that have not changed for the debounce interval
+     */
+    private void submitSettled() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, Observation>> entries = pending.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Path, Observation> entry = entries.next();
+            Path path = entry.getKey();
+            Observation observation = entry.getValue();
+            if (now - observation.seenAt < debounceMillis)
+                continue;
+
+            if (!Files.isRegularFile(path)) {
+                entries.remove();
+                continue;
+            }
+            // Writers do not always trigger an event for every write; a file that still grows waits
+            Observation current = new Observation(path, now);
+            if (current.size != observation.size || current.modified != observation.modified) {
+                entry.setValue(current);
+                continue;
+            }
+            // A file being extracted is looked at again a debounce interval later
+            if (!queued.add(path)) {
+                entry.setValue(current);
+                continue;
+            }
+
+            entries.remove();
+            workers.execute(() -> {
+                try {
+                    process(path);
+                } finally {
+                    queued.remove(path);
+                }
+            });
+        }
+    }
+
+    /**
+     * Extract a PDF unless its content is what the manifest says was last
+     * extracted
+     */
+    private void process(Path path) {
+        if (closed)
+            return;
+
+        DirectoryManifest manifest = manifests.get(path.getParent());
+        String name = path.getFileName().toString();
+        File pdfFile = path.toFile();
+        long size = pdfFile.length();
+        long modified = pdfFile.lastModified();
+
+        DirectoryManifest.Entry previous = manifest.get(name);
+        if (previous != null && previous.size == size && previous.modified == modified)
+            return;
+
+        String fingerprint;
+        try {
+            fingerprint = fingerprint(path);
+        } catch (IOException e) {
+            System.err.println("Error reading " + path + ": " + e.getMessage());
+            return;
+        }
+        if (previous != null && previous.fingerprint.equals(fingerprint)) {
+            // Touched or copied over, but the same document
+            manifest.put(name, new DirectoryManifest.Entry(fingerprint, size, modified, previous.status));
+            saveManifest(manifest);
+            return;
+        }
+
+        long start = System.nanoTime();
+        String status;
+        Path resultPath = path.resolveSibling(resultName(name));
+        try (PdfOpener source = new PdfOpener(pdfFile)) {
+            source.setFontCache(fontCache);
+            try (DocumentStructure structure = extractor.extractHierarchy(source)) {
+                writeAtomically(resultPath, structure.toJson() + "\n");
+            }
+            status = "ok";
+            System.out.println("Extracted " + path + " -> " + resultPath.getFileName() + " ("
+                    + (System.nanoTime() - start) / 1_000_000 + " ms)");
+        } catch (Exception e) {
+            if (closed)
+                return;
+            // Recorded, so the same broken file is not retried until it changes
+            status = "error";
+            System.err.println("Error extracting " + path + ": " + e.getMessage());
+        }
+        manifest.put(name, new DirectoryManifest.Entry(fingerprint, size, modified, status));
+        saveManifest(manifest);
+    }
+
+    private static void saveManifest(DirectoryManifest manifest) {
+        try {
+            manifest.save();
+        } catch (IOException e) {
+            System.out.println("Warning: Cannot write manifest " + manifest.file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * The result file name of a PDF: its name with the extension replaced
+     */
+    static String resultName(String pdfName) {
+        int extensionIndex = pdfName.lastIndexOf('.');
+        return (extensionIndex > 0 ? pdfName.substring(0, extensionIndex) : pdfName) + RESULT_EXTENSION;
+    }
+
+    /**
+     * SHA-256 of a file's content, in hex
+     */
+    private static String fingerprint(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[65536];
+        try (InputStream in = Files.newInputStream(path)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Write a file through a temporary file in the same directory, so that it
+     * is replaced in one step
+     */
+    private static void writeAtomically(Path path, String text) throws IOException {
+        Path working = path.resolveSibling("." + path.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(working, StandardCharsets.UTF_8)) {
+            writer.write(text);
+        }
+        try {
+            Files.move(working, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(working);
+            throw e;
+        }
+    }
+
+    /**
+     * Stop watching. Queued files are dropped and running extractions are
+     * cancelled; those files are extracted on the next run.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watchService.close();
+        // Cancelled rather than interrupted: interrupting a read would close the PDF's file channel
+        workers.getQueue().clear();
+        workers.shutdown();
+        extractor.cancel();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Size and modification time of a file when it was seen changing
+     */
+    private static class Observation {
+        final long seenAt;
+        final long size;
+        final long modified;
+
+        Observation(Path path, long seenAt) {
+            File file = path.toFile();
+            this.seenAt = seenAt;
+            this.size = file.length();
+            this.modified = file.lastModified();
+        }
+    }
+
+    /**
+     * The fingerprints of the PDFs extracted from one directory, as a text
+     * file of lines "fingerprint, size, modification time, status, file name"
+     * separated by tabs
+     */
+    private static class DirectoryManifest {
+        final Path file;
+        private final Map<String, Entry> entries = new TreeMap<>();
+
+        private DirectoryManifest(Path file) {
+            this.file = file;
+        }
+
+        static DirectoryManifest load(Path file) {
+            DirectoryManifest manifest = new DirectoryManifest(file);
+            if (!Files.isRegularFile(file))
+                return manifest;
+
+            try {
+                List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+                for (String line : lines) {
+                    if (line.isEmpty() || line.startsWith("#"))
+                        continue;
+                    String[] fields = line.split("\t", 5);
+                    if (fields.length < 5) {
+                        throw new IOException("Malformed line: " + line);
+                    }
+                    manifest.entries.put(fields[4], new Entry(fields[0], Long.parseLong(fields[1]),
+                            Long.parseLong(fields[2]), fields[3]));
+                }
+            } catch (IOException | NumberFormatException e) {
+                // Everything is extracted again, and the manifest rewritten
+                System.out.println("Warning: Ignoring unreadable manifest " + file + ": " + e.getMessage());
+                manifest.entries.clear();
+            }
+            return manifest;
+        }
+
+        synchronized Entry get(String name) {
+            return entries.get(name);
+        }
+
+        synchronized void put(String name, Entry entry) {
+            entries.put(name, entry);
+        }
+
+        synchronized void save() throws IOException {
+            StringBuilder sb = new StringBuilder(MANIFEST_HEADER).append("\n");
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                Entry value = entry.getValue();
+                sb.append(value.fingerprint).append('\t').append(value.size).append('\t').append(value.modified)
+                        .append('\t').append(value.status).append('\t').append(entry.getKey()).append('\n');
+            }
+            writeAtomically(file, sb.toString());
+        }
+
+        static class Entry {
+            final String fingerprint;
+            final long size;
+            final long modified;
+            final String status;
+
+            Entry(String fingerprint, long size, long modified, String status) {
+                this.fingerprint = fingerprint;
+                this.size = size;
+                this.modified = modified;
+                this.status = status;
+            }
+        }
+    }
+}
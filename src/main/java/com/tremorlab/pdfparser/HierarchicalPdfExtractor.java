@@ -2,258 +2,350 @@ package com.tremorlab.pdfparser;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
-import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
-import org.apache.pdfbox.pdmodel.PDResources;
 import org.apache.pdfbox.text.PDFTextStripper;
 import org.apache.pdfbox.text.TextPosition;
 
-public class HierarchicalPdfExtractor extends PDFTextStripper {
-
-    private List<PDFTextBlock> textBlocks = new ArrayList<>();
-    private Map<String, Float> fontSizes = new HashMap<>();
-    private Map<String, Integer> fontWeights = new HashMap<>();
-    private StringBuilder currentLineBuilder = new StringBuilder();
-    private float currentFontSize = 0;
-    private String currentFontName = "";
-    private float lineStartY = 0;
-    private PDDocument document;
-
-    // Page range variables
-    private int pageRangeStart = -1;
-    private int pageRangeEnd = -1;
-
-    // Margin variables
-    private float marginLeft = 0;
-    private float marginTop = 0;
-    private float marginRight = 0;
-    private float marginBottom = 0;
-    private boolean useMargins = false;
-
-    public HierarchicalPdfExtractor() throws IOException {
-        super();
-    }
-
+/**
+ * Extracts the section hierarchy of a PDF with its text.
+ *
+ * Extractors are configured once through a {@link Builder} and never change
+ * afterwards. Each extraction keeps its state in a context object of its own,
+ * so one extractor can serve any number of extractions, from any number of
+ * threads, without locking.
+ */
+public class HierarchicalPdfExtractor {
     /**
-     * Set the page range to extract
-     * 
-     * @param startPage The starting page number (1-based)
-     * @param endPage   The ending page number (1-based)
+     * Where the section hierarchy is taken from
      */
-    public void setPageRange(int startPage, int endPage) {
-        if (startPage <= 0 || endPage < startPage) {
-            throw new IllegalArgumentException("Invalid page range: start must be positive and end must be >= start");
-        }
-        this.pageRangeStart = startPage;
-        this.pageRangeEnd = endPage;
+    public enum StructureSource {
+        /** The outline if the document has one, else structure tags, else font heuristics */
+        AUTO,
+        /** Bookmarks and their page destinations */
+        OUTLINE,
+        /** Heading elements (H, H1-H6) of a tagged PDF's structure tree */
+        TAGS,
+        /** Headings inferred from font sizes */
+        HEURISTIC
     }
 
     /**
-     * Set margins to define the content area of interest
-     * 
-     * @param left   Left margin (points from left edge)
-     * @param top    Top margin (points from top edge)
-     * @param right  Right margin (points from right edge)
-     * @param bottom Bottom margin (points from bottom edge)
+     * What happens to a page that runs over its time or glyph budget
      */
-    public void setMargins(float left, float top, float right, float bottom) {
-        this.marginLeft = left;
-        this.marginTop = top;
-        this.marginRight = right;
-        this.marginBottom = bottom;
-        this.useMargins = true;
+    public enum OverBudgetAction {
+        /** Drop all text of the page */
+        SKIP,
+        /** Keep the text read before the budget ran out, as plain lines in content stream order */
+        DEGRADE
     }
 
-    /**
-     * Main method to extract hierarchical document structure
-     */
-    public DocumentStructure extractHierarchy(File pdfFile) throws IOException {
-        document = Loader.loadPDF(pdfFile);
+    // Pages to extract (null for all)
+    private final PageSet pageSet;
 
-        // Validate page range
-        int totalPages = document.getNumberOfPages();
-        if (pageRangeEnd > totalPages) {
-            System.out.println("Warning: Requested end page " + pageRangeEnd +
-                    " exceeds document length. Using last page (" + totalPages + ") instead.");
-            pageRangeEnd = totalPages;
-        }
+    // Margin variables
+    private final float marginLeft;
+    private final float marginTop;
+    private final float marginRight;
+    private final float marginBottom;
+    private final boolean useMargins;
 
-        if (pageRangeStart <= 0) {
-            // Default: process all pages
-            pageRangeStart = 1;
-            pageRangeEnd = totalPages;
-        }
+    // Running header/footer detection
+    private static final int RUNNING_TEXT_SAMPLE_PAGES = 40;
+    private final boolean autoMargins;
 
-        // First, analyze the document to identify fonts and their characteristics
-        analyzeFonts(document);
+    // Layout analysis: runs of the current page are collected and split into
+    // column/block regions before being assembled into lines
+    private final boolean layoutAnalysis;
 
-        // Extract text blocks with their attributes
-        extractTextBlocks(document);
+    // Declared structure: outline entries are matched to lines by title and
+    // position, tagged headings through the marked content ids of their glyphs
+    /** Distance above an outline destination's top that a heading line may start, in points */
+    private static final float DESTINATION_TOLERANCE = 4.0f;
+    /** Maximum number of lines an outline title is matched across */
+    private static final int MAX_TITLE_LINES = 3;
+    private final StructureSource structureSource;
 
-        // Identify headings based on font attributes
-        List<PDFHeading> headings = identifyHeadings(textBlocks);
+    // Section index of an earlier run, used to find section pages without an outline
+    private final File sectionIndexFile;
 
-        // Build hierarchical structure
-        DocumentStructure docStructure = buildHierarchy(headings, textBlocks);
+    // Lazy content: sections keep spans into the extracted lines instead of strings
+    private final boolean lazyContent;
 
-        // Set document title from filename if no title found
-        if (docStructure.getTitle() == null || docStructure.getTitle().isEmpty()) {
-            String filename = pdfFile.getName();
-            // Remove extension if present
-            int extensionIndex = filename.lastIndexOf('.');
-            if (extensionIndex > 0) {
-                filename = filename.substring(0, extensionIndex);
-            }
-            docStructure.setTitle(filename);
-        }
+    // Digest section text for comparing editions; off by default, so that
+    // extractions that don't compare never hash text or load a digest provider
+    private final boolean contentDigests;
 
-        // Add metadata about page range
-        docStructure.addMetadata("pageRange", pageRangeStart + "-" + pageRangeEnd);
-        docStructure.addMetadata("totalPages", String.valueOf(totalPages));
+    // Read text with LeanTextEngine instead of PDFTextStripper
+    private final boolean leanText;
 
-        // Add margin information to metadata if used
-        if (useMargins) {
-            docStructure.addMetadata("marginLeft", String.valueOf(marginLeft));
-            docStructure.addMetadata("marginTop", String.valueOf(marginTop));
-            docStructure.addMetadata("marginRight", String.valueOf(marginRight));
-            docStructure.addMetadata("marginBottom", String.valueOf(marginBottom));
-        }
+    // Per-page budget, checked from the stripper callbacks so that a page with
+    // a pathological content stream is abandoned part way through
+    private final long pageTimeBudgetNanos;
+    private final int pageGlyphBudget;
+    private final OverBudgetAction overBudgetAction;
 
-        document.close();
-        return docStructure;
+    // Directory of the checkpoints that long extractions are resumed and extended from
+    private final File checkpointDir;
+    private final int checkpointIntervalPages;
+
+    // Incremented by cancel(); extractions stop when it changes under them
+    private final AtomicInteger cancellations = new AtomicInteger();
+
+    private HierarchicalPdfExtractor(Builder builder) {
+        this.pageSet = builder.pageSet;
+        this.marginLeft = builder.marginLeft;
+        this.marginTop = builder.marginTop;
+        this.marginRight = builder.marginRight;
+        this.marginBottom = builder.marginBottom;
+        this.useMargins = builder.useMargins;
+        this.autoMargins = builder.autoMargins;
+        this.layoutAnalysis = builder.layoutAnalysis;
+        this.structureSource = builder.structureSource;
+        this.sectionIndexFile = builder.sectionIndexFile;
+        this.lazyContent = builder.lazyContent;
+        this.contentDigests = builder.contentDigests;
+        this.leanText = builder.leanText;
+        this.pageTimeBudgetNanos = builder.pageTimeBudgetNanos;
+        this.pageGlyphBudget = builder.pageGlyphBudget;
+        this.overBudgetAction = builder.overBudgetAction;
+        this.checkpointDir = builder.checkpointDir;
+        this.checkpointIntervalPages = builder.checkpointIntervalPages;
     }
 
     /**
-     * Analyze the document to identify different fonts and their characteristics
+     * Stop every extraction currently running on this extractor. May be called
+     * from any thread; each of them throws an {@link InterruptedIOException}
+     * at its next operator or glyph, while extractions started afterwards run
+     * normally. To stop just one extraction, start it with a
+     * {@link Cancellation} and cancel that.
      */
-    private void analyzeFonts(PDDocument document) throws IOException {
-        // Implementation for font analysis
-        // This is a simplified placeholder - actual implementation would be more
-        // complex
-        for (int i = 0; i < document.getNumberOfPages(); i++) {
-            PDPage page = document.getPage(i);
-            PDResources resources = page.getResources();
-            if (resources == null)
-                continue;
+    public void cancel() {
+        cancellations.incrementAndGet();
+    }
 
-            // Analyze fonts on this page
-            // In a real implementation, we'd examine font dictionary entries
+    /**
+     * Main method to extract hierarchical document structure
+     */
+    public DocumentStructure extractHierarchy(File pdfFile) throws IOException {
+        try (PdfOpener source = new PdfOpener(pdfFile)) {
+            return extractHierarchy(source);
         }
     }
 
-    @Override
-    protected void writeString(String text, List<TextPosition> textPositions) throws IOException {
-        if (textPositions.isEmpty())
-            return;
+    /**
+     * Extract the hierarchical document structure from a PDF that may need
+     * credentials to open
+     */
+    public DocumentStructure extractHierarchy(PdfOpener source) throws IOException {
+        return extractHierarchy(source, pageSet);
+    }
 
-        TextPosition firstPos = textPositions.get(0);
-        float currentY = firstPos.getY();
-        float currentX = firstPos.getX();
+    /**
+     * Extract the hierarchical document structure of some pages of a PDF,
+     * instead of the pages the extractor was built with
+     *
+     * @param source The PDF
+     * @param pages  The pages, or null for all pages
+     */
+    public DocumentStructure extractHierarchy(PdfOpener source, PageSet pages) throws IOException {
+        return extractHierarchy(source, pages, null);
+    }
 
-        // Check if text is within margins if margins are set
-        if (useMargins) {
-            // Get current page (note: PDFTextStripper keeps track of current page)
-            PDPage currentPage = document.getPage(getCurrentPageNo() - 1); // 0-based
-            float pageWidth = currentPage.getCropBox().getWidth();
-            float pageHeight = currentPage.getCropBox().getHeight();
+    /**
+     * Extract the hierarchical document structure of some pages of a PDF,
+     * stopping when the given cancellation is cancelled
+     *
+     * @param source       The PDF
+     * @param pages        The pages, or null for all pages
+     * @param cancellation Cancels this extraction only, or null
+     */
+    public DocumentStructure extractHierarchy(PdfOpener source, PageSet pages, Cancellation cancellation)
+            throws IOException {
+        return new Extraction(pages, lazyContent, checkpointDir, cancellation).extract(source.open(),
+                source.getFile());
+    }
 
-            // Calculate content boundaries
-            float contentMinX = marginLeft;
-            float contentMinY = marginTop;
-            float contentMaxX = pageWidth - marginRight;
-            float contentMaxY = pageHeight - marginBottom;
+    /**
+     * Extract the same hierarchy as {@link #extractHierarchy(PdfOpener)} into
+     * a {@link CompactDocumentTree}, which keeps large section trees in a few
+     * arrays instead of one object per section. Close the tree when done if
+     * the extractor was built with lazy content.
+     */
+    public CompactDocumentTree extractCompactTree(PdfOpener source) throws IOException {
+        return extractCompactTree(source, null);
+    }
 
-            // Skip this text if it's outside the defined margins
-            // Using a center-point check for simplicity
-            float textWidth = 0;
-            float textHeight = 0;
+    /**
+     * Extract a {@link CompactDocumentTree}, stopping when the given
+     * cancellation is cancelled
+     *
+     * @param source       The PDF
+     * @param cancellation Cancels this extraction only, or null
+     */
+    public CompactDocumentTree extractCompactTree(PdfOpener source, Cancellation cancellation) throws IOException {
+        return new Extraction(pageSet, lazyContent, checkpointDir, cancellation).extractCompact(source.open(),
+                source.getFile());
+    }
 
-            if (textPositions.size() > 1) {
-                TextPosition lastPos = textPositions.get(textPositions.size() - 1);
-                textWidth = (lastPos.getX() + lastPos.getWidth()) - currentX;
-                textHeight = firstPos.getHeight();
-            } else {
-                textWidth = firstPos.getWidth();
-                textHeight = firstPos.getHeight();
-            }
+    /**
+     * Extract one section and its subsections by title, parsing only the pages
+     * it spans. The pages come from the document outline, or else from the
+     * section index (see {@link Builder#sectionIndex}); the pages setting is
+     * ignored. The section is the same subtree a full extraction with the same
+     * settings would produce. Its content is always built eagerly, as the
+     * document structure that would own a block store is not returned.
+     *
+     * @param source The PDF
+     * @param path   Titles of the section and (optionally) its ancestors
+     * @return The section, or null if no section matches the path
+     * @throws IOException If there's an error processing the PDF
+     */
+    public DocumentSection extractSection(PdfOpener source, SectionPath path) throws IOException {
+        File pdfFile = source.getFile();
+        PDDocument sectionDocument = source.open();
+        int[] pages;
+        try {
+            pages = findSectionPages(sectionDocument, pdfFile, path);
+        } catch (IOException | RuntimeException e) {
+            sectionDocument.close();
+            throw e;
+        }
+        if (pages == null) {
+            System.out.println("Warning: Pages of section \"" + path
+                    + "\" not found in an outline or section index. Extracting the whole document.");
+        }
 
-            float centerX = currentX + (textWidth / 2);
-            float centerY = currentY - (textHeight / 2);
+        PageSet sectionPages = pages != null ? PageSet.range(pages[0], pages[1]) : null;
+        DocumentStructure structure = new Extraction(sectionPages, false, null, null).extract(sectionDocument, pdfFile);
 
-            // Skip text outside margins
-            if (centerX < contentMinX || centerX > contentMaxX ||
-                    centerY < contentMinY || centerY > contentMaxY) {
-                return;
-            }
+        if (pages == null && sectionIndexFile != null) {
+            // Remember every section's pages for the next request
+            SectionIndex.write(structure, pdfFile.getPath(), sectionIndexFile);
         }
+        return findSection(structure, path, pages != null ? pages[0] : 0);
+    }
 
-        // If this is a new line
-        if (lineStartY == 0 || Math.abs(lineStartY - currentY) > 1) {
-            // Save the previous line if it exists
-            if (currentLineBuilder.length() > 0) {
-                saveCurrentLine();
+    /**
+     * Look up the pages a section spans, first in the outline, then in an
+     * up-to-date section index
+     *
+     * @return {start page, end page}, or null if neither knows the section
+     */
+    private int[] findSectionPages(PDDocument document, File pdfFile, SectionPath path) throws IOException {
+        List<StructureReader.OutlineEntry> outline = new StructureReader(document).readOutline();
+        List<String> titles = new ArrayList<>();
+        for (int i = 0; i < outline.size(); i++) {
+            StructureReader.OutlineEntry entry = outline.get(i);
+            while (titles.size() >= entry.getLevel()) {
+                titles.remove(titles.size() - 1);
             }
+            titles.add(entry.getTitle());
+            if (titles.size() != entry.getLevel() || !path.matches(titles))
+                continue;
 
-            // Start a new line
-            lineStartY = currentY;
-            currentLineBuilder = new StringBuilder();
-            currentFontSize = firstPos.getFontSizeInPt();
-            currentFontName = firstPos.getFont().getName();
+            // The section runs until the next entry that isn't one of its subsections
+            int endPage = document.getNumberOfPages();
+            for (int j = i + 1; j < outline.size(); j++) {
+                if (outline.get(j).getLevel() <= entry.getLevel()) {
+                    endPage = outline.get(j).getPageNumber();
+                    break;
+                }
+            }
+            return new int[] { entry.getPageNumber(), Math.max(entry.getPageNumber(), endPage) };
         }
 
-        // Add text to current line
-        currentLineBuilder.append(text);
+        if (sectionIndexFile != null && sectionIndexFile.isFile()
+                && sectionIndexFile.lastModified() >= pdfFile.lastModified()) {
+            try (SectionIndex index = SectionIndex.open(sectionIndexFile)) {
+                if (new File(index.getSource()).getCanonicalFile().equals(pdfFile.getCanonicalFile())) {
+                    int[] pages = index.findSectionPages(path);
+                    if (pages != null && pages[1] <= document.getNumberOfPages()) {
+                        return pages;
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println("Warning: Ignoring unreadable section index " + sectionIndexFile.getPath()
+                        + ": " + e.getMessage());
+            }
+        }
+        return null;
     }
 
-    private void saveCurrentLine() {
-        if (currentLineBuilder.length() == 0)
-            return;
+    /**
+     * Find the section a path addresses in an extracted tree. A tree extracted
+     * from part of the document may lack the section's ancestors, so failing a
+     * full match, a section whose own title matches is taken. Either way, one
+     * starting on the expected page is preferred.
+     */
+    private static DocumentSection findSection(DocumentStructure structure, SectionPath path, int startPage) {
+        List<DocumentSection> pathMatches = new ArrayList<>();
+        List<DocumentSection> titleMatches = new ArrayList<>();
+        collectMatches(structure.getSections(), new ArrayList<>(), path, pathMatches, titleMatches);
+        DocumentSection section = preferPage(pathMatches, startPage);
+        return section != null ? section : preferPage(titleMatches, startPage);
+    }
 
-        String line = currentLineBuilder.toString().trim();
-        if (!line.isEmpty()) {
-            PDFTextBlock block = new PDFTextBlock(
-                    line,
-                    currentFontSize,
-                    currentFontName,
-                    lineStartY,
-                    getCurrentPageNo());
-            textBlocks.add(block);
+    private static void collectMatches(List<DocumentSection> sections, List<String> titles, SectionPath path,
+            List<DocumentSection> pathMatches, List<DocumentSection> titleMatches) {
+        for (DocumentSection section : sections) {
+            titles.add(section.getTitle());
+            if (path.matches(titles)) {
+                pathMatches.add(section);
+            } else if (path.matchesLast(section.getTitle())) {
+                titleMatches.add(section);
+            }
+            collectMatches(section.getSubSections(), titles, path, pathMatches, titleMatches);
+            titles.remove(titles.size() - 1);
         }
     }
 
-    @Override
-    protected void endPage(PDPage page) throws IOException {
-        // Save any remaining text from the current line
-        saveCurrentLine();
-        currentLineBuilder = new StringBuilder();
-        lineStartY = 0;
-        super.endPage(page);
+    private static DocumentSection preferPage(List<DocumentSection> sections, int pageNumber) {
+        for (DocumentSection section : sections) {
+            if (section.getPageNumber() == pageNumber) {
+                return section;
+            }
+        }
+        return sections.isEmpty() ? null : sections.get(0);
     }
 
     /**
-     * Extract all text blocks from the document with their attributes
+     * The settings that affect the extracted lines, which a checkpoint is only
+     * resumed with if they are unchanged
      */
-    private void extractTextBlocks(PDDocument document) throws IOException {
-        textBlocks.clear();
-        setSortByPosition(true);
-
-        // Use specified page range
-        setStartPage(pageRangeStart);
-        setEndPage(pageRangeEnd);
-
-        StringWriter writer = new StringWriter();
-        writeText(document, writer); // This will call writeString for each text element
+    private String checkpointSettings() {
+        String margins = useMargins ? marginLeft + "," + marginTop + "," + marginRight + "," + marginBottom : "none";
+        return "margins=" + margins
+                + " autoMargins=" + autoMargins + " layout=" + layoutAnalysis + " lean=" + leanText
+                + " structure=" + structureSource + " budget=" + pageTimeBudgetNanos + "ns/" + pageGlyphBudget
+                + " overBudget=" + overBudgetAction;
+    }
 
-        // Sort text blocks by page and vertical position
-        Collections.sort(textBlocks);
+    private static String joinPages(List<Integer> pages) {
+        StringBuilder joined = new StringBuilder();
+        for (int pageNumber : pages) {
+            if (joined.length() > 0) {
+                joined.append(',');
+            }
+            joined.append(pageNumber);
+        }
+        return joined.toString();
     }
 
     /**
@@ -261,6 +353,9 @@ public class HierarchicalPdfExtractor extends PDFTextStripper {
      */
     private List<PDFHeading> identifyHeadings(List<PDFTextBlock> blocks) {
         List<PDFHeading> headings = new ArrayList<>();
+        // Nothing to compare font sizes with, e.g. when every page was skipped
+        if (blocks.isEmpty())
+            return headings;
 
         // Find the most common font size (body text)
         Map<Float, Integer> fontSizeCounts = new HashMap<>();
@@ -272,17 +367,159 @@ public class HierarchicalPdfExtractor extends PDFTextStripper {
         float bodyFontSize = Collections.max(fontSizeCounts.entrySet(), Map.Entry.comparingByValue()).getKey();
 
         // Identify headings (text with larger font size than body text)
-        for (PDFTextBlock block : blocks) {
+        for (int i = 0; i < blocks.size(); i++) {
+            PDFTextBlock block = blocks.get(i);
             if (block.fontSize > bodyFontSize && block.text.trim().length() > 0) {
                 // This is likely a heading
                 int level = determineHeadingLevel(block, bodyFontSize);
-                headings.add(new PDFHeading(block.text, level, block.pageNumber, block.yPosition));
+                headings.add(new PDFHeading(block.text, level, block.pageNumber, block.yPosition, i));
             }
         }
 
         return headings;
     }
 
+    /**
+     * Turn outline entries into headings by finding each one in the extracted
+     * lines: on its destination page, the line(s) spelling its title at or below
+     * the destination, or failing that the first line at or below the
+     * destination. The last entry before the page range heads the text the
+     * range starts with.
+     */
+    private List<PDFHeading> anchorOutline(List<StructureReader.OutlineEntry> outline, List<PDFTextBlock> blocks,
+            PageSet selectedPages) {
+        List<PDFHeading> headings = new ArrayList<>();
+        StructureReader.OutlineEntry carriedOver = null;
+
+        for (StructureReader.OutlineEntry entry : outline) {
+            if (entry.getPageNumber() < selectedPages.first()) {
+                if (carriedOver == null || entry.getPageNumber() > carriedOver.getPageNumber()
+                        || (entry.getPageNumber() == carriedOver.getPageNumber()
+                                && entry.getTop() >= carriedOver.getTop())) {
+                    carriedOver = entry;
+                }
+                continue;
+            }
+            if (entry.getPageNumber() > selectedPages.last())
+                continue;
+
+            int pageStart = firstBlockOnPage(blocks, entry.getPageNumber());
+            int pageEnd = firstBlockOnPage(blocks, entry.getPageNumber() + 1);
+            float top = entry.getTop() < 0 ? 0 : entry.getTop() - DESTINATION_TOLERANCE;
+            String title = normalizeTitle(entry.getTitle());
+
+            int titleBelow = -1;
+            int titleAnywhere = -1;
+            int titleLineCount = 0;
+            int firstBelow = -1;
+            for (int b = pageStart; b < pageEnd && titleBelow < 0; b++) {
+                boolean below = blocks.get(b).yPosition >= top;
+                if (below && firstBelow < 0) {
+                    firstBelow = b;
+                }
+                int lines = titleLines(blocks, b, pageEnd, title);
+                if (lines > 0 && (below || titleAnywhere < 0)) {
+                    if (below) {
+                        titleBelow = b;
+                    } else {
+                        titleAnywhere = b;
+                    }
+                    titleLineCount = lines;
+                }
+            }
+
+            int titleIndex = titleBelow >= 0 ? titleBelow : titleAnywhere;
+            int blockIndex = titleIndex >= 0 ? titleIndex : (firstBelow >= 0 ? firstBelow : pageEnd);
+            PDFHeading heading = new PDFHeading(entry.getTitle(), entry.getLevel(), entry.getPageNumber(),
+                    blockIndex < blocks.size() ? blocks.get(blockIndex).yPosition : top, blockIndex);
+            // Without the title line in the text, the section starts at the destination itself
+            heading.contentStart = titleIndex >= 0 ? titleIndex + titleLineCount : blockIndex;
+            headings.add(heading);
+        }
+
+        // Outlines are not always in reading order; sections must be
+        headings.sort(Comparator.comparingInt(h -> h.blockIndex));
+        for (int i = 1; i < headings.size(); i++) {
+            PDFHeading previous = headings.get(i - 1);
+            if (headings.get(i).blockIndex == previous.blockIndex) {
+                headings.get(i).contentStart = Math.max(headings.get(i).contentStart, previous.contentStart);
+            }
+        }
+
+        if (carriedOver != null && !blocks.isEmpty() && (headings.isEmpty() || headings.get(0).blockIndex > 0)) {
+            PDFHeading heading = new PDFHeading(carriedOver.getTitle(), carriedOver.getLevel(),
+                    carriedOver.getPageNumber(), Math.max(0, carriedOver.getTop()), 0);
+            heading.contentStart = 0;
+            headings.add(0, heading);
+        }
+        return headings;
+    }
+
+    /**
+     * Index of the first block on or after a page, or the number of blocks
+     */
+    private static int firstBlockOnPage(List<PDFTextBlock> blocks, int pageNumber) {
+        int low = 0;
+        int high = blocks.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (blocks.get(mid).pageNumber < pageNumber) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Number of consecutive lines starting at an index that together spell a
+     * (normalized) title, or 0 if they don't
+     */
+    private static int titleLines(List<PDFTextBlock> blocks, int index, int end, String title) {
+        String text = "";
+        for (int b = index; b < end && b < index + MAX_TITLE_LINES; b++) {
+            String line = normalizeTitle(blocks.get(b).text);
+            text = text.isEmpty() ? line : text + " " + line;
+            if (text.equals(title))
+                return b - index + 1;
+            if (!title.startsWith(text))
+                return 0;
+        }
+        return 0;
+    }
+
+    /**
+     * Lower case with whitespace collapsed, for comparing titles to lines
+     */
+    private static String normalizeTitle(String text) {
+        return text.trim().replaceAll("\\s+", " ").toLowerCase();
+    }
+
+    /**
+     * Turn lines tagged as headings into headings; consecutive lines of the
+     * same heading element form one multi-line title
+     */
+    private List<PDFHeading> collectTaggedHeadings(List<PDFTextBlock> blocks) {
+        List<PDFHeading> headings = new ArrayList<>();
+        PDFHeading current = null;
+        for (int i = 0; i < blocks.size(); i++) {
+            PDFTextBlock block = blocks.get(i);
+            if (current != null && block.taggedHeading != null
+                    && block.taggedHeading == blocks.get(i - 1).taggedHeading) {
+                current.text = current.text + " " + block.text;
+                current.contentStart = i + 1;
+            } else if (block.taggedHeading != null) {
+                current = new PDFHeading(block.text, block.taggedHeading.getLevel(), block.pageNumber,
+                        block.yPosition, i);
+                headings.add(current);
+            } else {
+                current = null;
+            }
+        }
+        return headings;
+    }
+
     /**
      * Determine heading level based on font size
      */
@@ -302,16 +539,23 @@ public class HierarchicalPdfExtractor extends PDFTextStripper {
     /**
      * Build hierarchical document structure from headings and text
      */
-    private DocumentStructure buildHierarchy(List<PDFHeading> headings, List<PDFTextBlock> allBlocks) {
+    private DocumentStructure buildHierarchy(List<PDFHeading> headings, List<PDFTextBlock> allBlocks,
+            boolean lazyContent) throws IOException {
         DocumentStructure docStructure = new DocumentStructure();
 
+        BlockStore store = lazyContent ? buildBlockStore(allBlocks) : null;
+        docStructure.setBlockStore(store);
+
+        if (headings.isEmpty() && contentDigests) {
+            docStructure.setContentDigest(contentDigest(allBlocks, 0, allBlocks.size()));
+        }
+        if (headings.isEmpty() && store != null) {
+            docStructure.setContentSpan(0, store.size());
+            return docStructure;
+        }
         if (headings.isEmpty()) {
             // No headings found, just add all text
-            StringBuilder contentBuilder = new StringBuilder();
-            for (PDFTextBlock block : allBlocks) {
-                contentBuilder.append(block.text).append("\n");
-            }
-            docStructure.setContent(contentBuilder.toString().trim());
+            docStructure.setContent(blockText(allBlocks, 0, allBlocks.size()));
             return docStructure;
         }
 
@@ -322,37 +566,799 @@ public class HierarchicalPdfExtractor extends PDFTextStripper {
             section.setTitle(heading.text);
             section.setLevel(heading.level);
 
-            // Find content that belongs to this section (until next heading)
-            StringBuilder contentBuilder = new StringBuilder();
-            int nextHeadingIndex = i + 1;
+            // Content is every block between this heading and the next one, in reading order
+            int endIndex = (i + 1 < headings.size()) ? headings.get(i + 1).blockIndex : allBlocks.size();
 
-            for (PDFTextBlock block : allBlocks) {
-                // Skip blocks before this heading
-                if (block.pageNumber < heading.pageNumber ||
-                        (block.pageNumber == heading.pageNumber && block.yPosition <= heading.yPosition)) {
-                    continue;
+            if (store != null) {
+                section.setContentSpan(store, heading.contentStart, endIndex);
+            } else {
+                section.setContent(blockText(allBlocks, heading.contentStart, endIndex));
+            }
+            if (contentDigests) {
+                section.setContentDigest(contentDigest(allBlocks, heading.contentStart, endIndex));
+            }
+            section.setPageNumber(heading.pageNumber);
+            section.setEndPageNumber(endPageNumber(heading, allBlocks, endIndex));
+
+            // Add section to appropriate parent based on heading level
+            docStructure.addSection(section);
+        }
+
+        return docStructure;
+    }
+
+    /**
+     * Build the same hierarchy as {@link #buildHierarchy} straight into the
+     * arrays of a compact tree, without a DocumentSection per heading
+     */
+    private CompactDocumentTree.Builder buildCompactTree(List<PDFHeading> headings, List<PDFTextBlock> allBlocks,
+            boolean lazyContent) throws IOException {
+        BlockStore store = lazyContent ? buildBlockStore(allBlocks) : null;
+        CompactDocumentTree.Builder tree = new CompactDocumentTree.Builder(store);
+
+        if (headings.isEmpty()) {
+            if (contentDigests) {
+                tree.setContentDigest(contentDigest(allBlocks, 0, allBlocks.size()));
+            }
+            if (store != null) {
+                tree.setContentSpan(0, store.size());
+            } else {
+                tree.setContent(blockText(allBlocks, 0, allBlocks.size()));
+            }
+            return tree;
+        }
+
+        for (int i = 0; i < headings.size(); i++) {
+            PDFHeading heading = headings.get(i);
+            int endIndex = (i + 1 < headings.size()) ? headings.get(i + 1).blockIndex : allBlocks.size();
+            int section = tree.addSection(heading.text, heading.level, heading.pageNumber,
+                    endPageNumber(heading, allBlocks, endIndex));
+
+            if (store != null) {
+                tree.setContentSpan(section, heading.contentStart, endIndex);
+            } else {
+                tree.setContent(section, blockText(allBlocks, heading.contentStart, endIndex));
+            }
+            if (contentDigests) {
+                tree.setContentDigest(section, contentDigest(allBlocks, heading.contentStart, endIndex));
+            }
+        }
+        return tree;
+    }
+
+    private static BlockStore buildBlockStore(List<PDFTextBlock> blocks) throws IOException {
+        BlockStore.Builder storeBuilder = new BlockStore.Builder();
+        for (PDFTextBlock block : blocks) {
+            storeBuilder.addLine(block.text, block.pageNumber, block.yPosition);
+        }
+        return storeBuilder.build();
+    }
+
+    /**
+     * Text of a range of blocks, one line per block
+     */
+    private static String blockText(List<PDFTextBlock> blocks, int from, int to) {
+        StringBuilder contentBuilder = new StringBuilder();
+        for (int b = from; b < to; b++) {
+            contentBuilder.append(blocks.get(b).text).append("\n");
+        }
+        return contentBuilder.toString().trim();
+    }
+
+    /**
+     * Page a section's own content ends on: that of its last block, or the
+     * heading's page if it has none
+     */
+    private static int endPageNumber(PDFHeading heading, List<PDFTextBlock> blocks, int endIndex) {
+        return endIndex > heading.contentStart ? blocks.get(endIndex - 1).pageNumber : heading.pageNumber;
+    }
+
+    /**
+     * Digest of the text of a range of blocks, for comparing editions
+     */
+    private static String contentDigest(List<PDFTextBlock> blocks, int from, int to) {
+        List<String> lines = new ArrayList<>(Math.max(0, to - from));
+        for (int b = from; b < to; b++) {
+            lines.add(blocks.get(b).text);
+        }
+        return SectionManifest.digest(lines);
+    }
+
+    /**
+     * One extraction: the lines of the selected pages are collected here from
+     * the text engine's callbacks, so the extractor itself is only ever read
+     */
+    private class Extraction {
+        private final PageSet requestedPages;
+        private final boolean lazyContent;
+        private final File checkpointDir;
+        private final int cancellationsAtStart = cancellations.get();
+        private final Cancellation cancellation;
+
+        // The requested pages that the document has
+        private PageSet selectedPages;
+
+        private final List<PDFTextBlock> textBlocks = new ArrayList<>();
+        private StringBuilder currentLineBuilder = new StringBuilder();
+        private float currentFontSize = 0;
+        private String currentFontName = "";
+        private float lineStartY = 0;
+
+        private ContentBounds contentBounds;
+        private RunningTextDetector.Result runningText;
+        private final List<SinglePageExtractor.PositionedText> pageRuns = new ArrayList<>();
+
+        private Map<Integer, Map<Integer, StructureReader.TaggedHeading>> taggedHeadings;
+        private Map<Integer, StructureReader.TaggedHeading> pageTaggedHeadings;
+        private final List<Integer> markedContentIds = new ArrayList<>();
+        private final Map<TextPosition, StructureReader.TaggedHeading> glyphHeadings = new IdentityHashMap<>();
+        private final Map<SinglePageExtractor.PositionedText, StructureReader.TaggedHeading> runHeadings =
+                new IdentityHashMap<>();
+        private StructureReader.TaggedHeading currentLineHeading;
+
+        private int totalPages;
+        private String headingSource;
+
+        private int pageNumber;
+        private long pageStartNanos;
+        private int pageGlyphs;
+        private boolean degradedPage;
+        private final List<Integer> skippedPages = new ArrayList<>();
+        private final List<Integer> degradedPages = new ArrayList<>();
+
+        private File checkpointFile;
+        private ExtractionCheckpoint checkpoint;
+        // The last page of the checkpoint resumed from; the pages up to it are not read again
+        private int resumedThroughPage = 0;
+        private int pagesSinceCheckpoint = 0;
+
+        /**
+         * @param pages          The pages to extract, or null for all pages
+         * @param lazyContent    Whether section content is built on request
+         * @param checkpointDir  The directory of the checkpoint to resume from and
+         *                       write, or null
+         * @param cancellation   Stops just this extraction, or null
+         */
+        Extraction(PageSet pages, boolean lazyContent, File checkpointDir, Cancellation cancellation) {
+            this.requestedPages = pages;
+            this.lazyContent = lazyContent;
+            this.checkpointDir = checkpointDir;
+            this.cancellation = cancellation;
+        }
+
+        /**
+         * Extract the structure of an open document, closing it when done
+         */
+        DocumentStructure extract(PDDocument document, File pdfFile) throws IOException {
+            List<PDFHeading> headings = extractHeadings(document, pdfFile);
+
+            // Build hierarchical structure
+            DocumentStructure docStructure = buildHierarchy(headings, textBlocks, lazyContent);
+            textBlocks.clear();
+
+            docStructure.setTitle(titleOf(pdfFile));
+            addMetadata(docStructure::addMetadata);
+            return docStructure;
+        }
+
+        /**
+         * Extract the structure of an open document into a compact tree,
+         * closing the document when done
+         */
+        CompactDocumentTree extractCompact(PDDocument document, File pdfFile) throws IOException {
+            List<PDFHeading> headings = extractHeadings(document, pdfFile);
+
+            CompactDocumentTree.Builder tree = buildCompactTree(headings, textBlocks, lazyContent);
+            textBlocks.clear();
+
+            Map<String, String> metadata = new HashMap<>();
+            addMetadata(metadata::put);
+            return tree.build(titleOf(pdfFile), metadata);
+        }
+
+        /**
+         * Extract the lines of the selected pages and find the headings among
+         * them, closing the document when done
+         */
+        private List<PDFHeading> extractHeadings(PDDocument document, File pdfFile) throws IOException {
+            // Validate page range; by default all pages are processed
+            totalPages = document.getNumberOfPages();
+            PageSet pages = requestedPages != null ? requestedPages : PageSet.range(1, Math.max(1, totalPages));
+            selectedPages = pages.limitTo(totalPages);
+            if (selectedPages.isEmpty()) {
+                document.close();
+                throw new IllegalArgumentException("Requested pages " + pages
+                        + " are beyond the end of the document (" + totalPages + " pages)");
+            }
+            if (selectedPages.last() < pages.last()) {
+                System.out.println("Warning: Requested pages " + pages + " exceed document length. Using pages "
+                        + selectedPages + " instead.");
+            }
+
+            // Find repeated header/footer bands before extracting any text
+            runningText = autoMargins ? new RunningTextDetector(RUNNING_TEXT_SAMPLE_PAGES).detect(document) : null;
+
+            // Read the hierarchy the document declares, if it is wanted and present
+            StructureReader structureReader = structureSource != StructureSource.HEURISTIC
+                    ? new StructureReader(document)
+                    : null;
+            List<StructureReader.OutlineEntry> outline = new ArrayList<>();
+            if (structureSource == StructureSource.AUTO || structureSource == StructureSource.OUTLINE) {
+                outline = structureReader.readOutline();
+            }
+            taggedHeadings = null;
+            if (structureSource == StructureSource.TAGS
+                    || (structureSource == StructureSource.AUTO && outline.isEmpty())) {
+                Map<Integer, Map<Integer, StructureReader.TaggedHeading>> tagged = structureReader.readTaggedHeadings();
+                taggedHeadings = tagged.isEmpty() ? null : tagged;
+            }
+
+            // Extract text blocks with their attributes, continuing from a checkpoint
+            try {
+                if (checkpointDir != null) {
+                    openCheckpoint(pdfFile);
                 }
+                extractTextBlocks(document);
+            } catch (IOException | RuntimeException e) {
+                document.close();
+                throw e;
+            }
+
+            // Take headings from the declared structure, falling back to font attributes
+            List<PDFHeading> headings = null;
+            headingSource = "heuristic";
+            if (!outline.isEmpty()) {
+                headings = anchorOutline(outline, textBlocks, selectedPages);
+                headingSource = "outline";
+            } else if (taggedHeadings != null) {
+                headings = collectTaggedHeadings(textBlocks);
+                headingSource = "tags";
+            }
+            if (headings == null || headings.isEmpty()) {
+                if (structureSource == StructureSource.OUTLINE || structureSource == StructureSource.TAGS) {
+                    System.out.println("Warning: No "
+                            + (structureSource == StructureSource.OUTLINE ? "outline" : "tagged") + " headings found in the page range. Inferring headings from font sizes instead.");
+                }
+                headings = identifyHeadings(textBlocks);
+                headingSource = "heuristic";
+            }
+            taggedHeadings = null;
+
+            document.close();
+            return headings;
+        }
+
+        /**
+         * Title of a document: the file name without its extension
+         */
+        private String titleOf(File pdfFile) {
+            String filename = pdfFile.getName();
+            // Remove extension if present
+            int extensionIndex = filename.lastIndexOf('.');
+            if (extensionIndex > 0) {
+                filename = filename.substring(0, extensionIndex);
+            }
+            return filename;
+        }
+
+        /**
+         * Report the metadata of the extraction, in the order it is added
+         */
+        private void addMetadata(BiConsumer<String, String> metadata) {
+            // Add metadata about page range
+            metadata.accept("pageRange", selectedPages.isContiguous()
+                    ? selectedPages.first() + "-" + selectedPages.last()
+                    : selectedPages.toString());
+            metadata.accept("totalPages", String.valueOf(totalPages));
+
+            // Add margin information to metadata if used
+            if (useMargins) {
+                metadata.accept("marginLeft", String.valueOf(marginLeft));
+                metadata.accept("marginTop", String.valueOf(marginTop));
+                metadata.accept("marginRight", String.valueOf(marginRight));
+                metadata.accept("marginBottom", String.valueOf(marginBottom));
+            }
+
+            if (structureSource != StructureSource.HEURISTIC) {
+                metadata.accept("structureSource", headingSource);
+            }
 
-                // Stop at next heading
-                if (nextHeadingIndex < headings.size()) {
-                    PDFHeading nextHeading = headings.get(nextHeadingIndex);
-                    if (block.pageNumber > nextHeading.pageNumber ||
-                            (block.pageNumber == nextHeading.pageNumber && block.yPosition >= nextHeading.yPosition)) {
-                        break;
+            if (!skippedPages.isEmpty()) {
+                metadata.accept("skippedPages", joinPages(skippedPages));
+            }
+            if (!degradedPages.isEmpty()) {
+                metadata.accept("degradedPages", joinPages(degradedPages));
+            }
+
+            if (runningText != null) {
+                metadata.accept("runningTextSampledPages", String.valueOf(runningText.getSampledPages()));
+                metadata.accept("runningHeaderMargin", String.valueOf(runningText.getTopMargin()));
+                metadata.accept("runningFooterMargin", String.valueOf(runningText.getBottomMargin()));
+                metadata.accept("runningText", String.join(" | ", runningText.getRunningText()));
+            }
+        }
+
+        /**
+         * Start a page, unless it is not selected
+         *
+         * @return Whether the page is to be interpreted
+         */
+        private boolean beginPage(int pageNumber) {
+            // Pages between the selected ranges are never interpreted
+            if (!selectedPages.contains(pageNumber))
+                return false;
+
+            pageStartNanos = System.nanoTime();
+            pageGlyphs = 0;
+            checkBudget();
+            return true;
+        }
+
+        /**
+         * Record a page whose content stream was abandoned. Its text is then
+         * written out like any other page's, but in content stream order and
+         * without layout analysis.
+         *
+         * @return Whether the text collected from the page is to be dropped
+         */
+        private boolean pageOverBudget(int pageNumber, String reason) {
+            if (overBudgetAction == OverBudgetAction.SKIP) {
+                skippedPages.add(pageNumber);
+                System.out.println("Warning: Page " + pageNumber + " exceeded its " + reason + " budget. Skipping it.");
+                return true;
+            }
+            degradedPages.add(pageNumber);
+            System.out.println("Warning: Page " + pageNumber + " exceeded its " + reason
+                    + " budget. Keeping the text read so far without layout analysis.");
+            return false;
+        }
+
+        /**
+         * Stop the current page if it is over budget, or the whole extraction if
+         * it was cancelled
+         */
+        private void checkBudget() {
+            if (cancellations.get() != cancellationsAtStart || (cancellation != null && cancellation.isCancelled())
+                    || Thread.currentThread().isInterrupted()) {
+                throw new PageStoppedException(null, true);
+            }
+            if (pageGlyphBudget > 0 && pageGlyphs > pageGlyphBudget) {
+                throw new PageStoppedException("glyph (" + pageGlyphBudget + ")", false);
+            }
+            if (pageTimeBudgetNanos > 0 && System.nanoTime() - pageStartNanos > pageTimeBudgetNanos) {
+                throw new PageStoppedException("time (" + pageTimeBudgetNanos / 1_000_000 + " ms)", false);
+            }
+        }
+
+        private void preparePage(PDPage page, int pageNumber) {
+            this.pageNumber = pageNumber;
+            if (runningText != null && (runningText.getTopMargin() > 0 || runningText.getBottomMargin() > 0)) {
+                contentBounds = ContentBounds.forPage(page, marginLeft,
+                        Math.max(marginTop, runningText.getTopMargin()), marginRight,
+                        Math.max(marginBottom, runningText.getBottomMargin()));
+            } else {
+                contentBounds = useMargins
+                        ? ContentBounds.forPage(page, marginLeft, marginTop, marginRight, marginBottom)
+                        : null;
+            }
+            pageTaggedHeadings = taggedHeadings != null ? taggedHeadings.get(pageNumber) : null;
+            markedContentIds.clear();
+        }
+
+        private void beginMarkedContent(COSDictionary properties) {
+            markedContentIds.add(properties != null ? properties.getInt(COSName.MCID) : -1);
+        }
+
+        private void endMarkedContent() {
+            if (!markedContentIds.isEmpty()) {
+                markedContentIds.remove(markedContentIds.size() - 1);
+            }
+        }
+
+        /**
+         * The tagged heading the innermost marked content sequence with an id
+         * belongs to, or null
+         */
+        private StructureReader.TaggedHeading currentTaggedHeading() {
+            for (int i = markedContentIds.size() - 1; i >= 0; i--) {
+                int mcid = markedContentIds.get(i);
+                if (mcid >= 0) {
+                    return pageTaggedHeadings.get(mcid);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Decide whether a glyph is collected. Glyphs outside the content area
+         * are dropped before the engine collects, de-duplicates and sorts them,
+         * so running headers, footers and marginalia never reach line assembly.
+         */
+        private boolean acceptGlyph(TextPosition text) {
+            pageGlyphs++;
+            checkBudget();
+            if (contentBounds != null && !contentBounds.contains(text)) {
+                return false;
+            }
+            if (pageTaggedHeadings != null) {
+                StructureReader.TaggedHeading heading = currentTaggedHeading();
+                if (heading != null) {
+                    glyphHeadings.put(text, heading);
+                }
+            }
+            return true;
+        }
+
+        private void addText(String text, List<TextPosition> textPositions) {
+            if (textPositions.isEmpty())
+                return;
+
+            TextPosition firstPos = textPositions.get(0);
+            float currentY = firstPos.getY();
+
+            if (layoutAnalysis && !degradedPage) {
+                // Defer line assembly until the whole page has been seen
+                TextPosition lastPos = textPositions.get(textPositions.size() - 1);
+                SinglePageExtractor.PositionedText run = new SinglePageExtractor.PositionedText();
+                run.setText(text);
+                run.setX(firstPos.getX());
+                run.setY(currentY - firstPos.getHeight());
+                run.setWidth(lastPos.getX() + lastPos.getWidth() - firstPos.getX());
+                run.setHeight(firstPos.getHeight());
+                run.setBaseline(currentY);
+                run.setFontSize(firstPos.getFontSizeInPt());
+                run.setFontName(firstPos.getFont().getName());
+                pageRuns.add(run);
+                StructureReader.TaggedHeading heading = glyphHeadings.get(firstPos);
+                if (heading != null) {
+                    runHeadings.put(run, heading);
+                }
+                return;
+            }
+
+            // If this is a new line
+            if (lineStartY == 0 || Math.abs(lineStartY - currentY) > 1) {
+                // Save the previous line if it exists
+                if (currentLineBuilder.length() > 0) {
+                    saveCurrentLine();
+                }
+
+                // Start a new line
+                lineStartY = currentY;
+                currentLineBuilder = new StringBuilder();
+                currentFontSize = firstPos.getFontSizeInPt();
+                currentFontName = firstPos.getFont().getName();
+                currentLineHeading = glyphHeadings.get(firstPos);
+            }
+
+            // Add text to current line
+            currentLineBuilder.append(text);
+        }
+
+        private void saveCurrentLine() {
+            if (currentLineBuilder.length() == 0)
+                return;
+
+            String line = currentLineBuilder.toString().trim();
+            if (!line.isEmpty()) {
+                PDFTextBlock block = new PDFTextBlock(
+                        line,
+                        currentFontSize,
+                        currentFontName,
+                        lineStartY,
+                        pageNumber);
+                block.taggedHeading = currentLineHeading;
+                textBlocks.add(block);
+            }
+        }
+
+        /**
+         * Assemble the collected runs of a page into lines, one column/block region
+         * at a time in reading order
+         */
+        private void assemblePageLines() {
+            for (List<SinglePageExtractor.PositionedText> region : new LayoutSegmenter().segment(pageRuns)) {
+                region.sort(Comparator.comparingDouble(SinglePageExtractor.PositionedText::getBaseline)
+                        .thenComparingDouble(SinglePageExtractor.PositionedText::getX));
+
+                float lineEndX = 0;
+                for (SinglePageExtractor.PositionedText run : region) {
+                    if (lineStartY == 0 || Math.abs(lineStartY - run.getBaseline()) > 1) {
+                        saveCurrentLine();
+
+                        lineStartY = run.getBaseline();
+                        currentLineBuilder = new StringBuilder();
+                        currentFontSize = run.getFontSize();
+                        currentFontName = run.getFontName();
+                        currentLineHeading = runHeadings.get(run);
+                    } else if (run.getX() > lineEndX + 2.0 && !run.getText().startsWith(" ")
+                            && currentLineBuilder.charAt(currentLineBuilder.length() - 1) != ' ') {
+                        // Separate runs on the same line that have a visible gap between them
+                        currentLineBuilder.append(' ');
                     }
+
+                    currentLineBuilder.append(run.getText());
+                    lineEndX = run.getX() + run.getWidth();
                 }
 
-                // Add this block's text to content
-                contentBuilder.append(block.text).append("\n");
+                // Lines never continue across regions
+                saveCurrentLine();
+                currentLineBuilder = new StringBuilder();
+                lineStartY = 0;
             }
+            pageRuns.clear();
+            runHeadings.clear();
+        }
 
-            section.setContent(contentBuilder.toString().trim());
+        private void finishPage() {
+            if (layoutAnalysis && !degradedPage) {
+                assemblePageLines();
+            }
 
-            // Add section to appropriate parent based on heading level
-            docStructure.addSection(section);
+            // Save any remaining text from the current line
+            saveCurrentLine();
+            currentLineBuilder = new StringBuilder();
+            lineStartY = 0;
+            glyphHeadings.clear();
+
+            // Lines are complete at a page boundary, so they are all a checkpoint needs
+            if (checkpoint != null && ++pagesSinceCheckpoint >= checkpointIntervalPages) {
+                writeCheckpoint(pageNumber);
+            }
         }
 
-        return docStructure;
+        /**
+         * Open the PDF's checkpoint file and take over the lines of the pages it
+         * already covers. Checkpointing problems, including another extraction
+         * of the PDF having the file open, never fail the extraction.
+         */
+        private void openCheckpoint(File pdfFile) {
+            checkpointFile = ExtractionCheckpoint.fileFor(checkpointDir, pdfFile);
+            try {
+                checkpoint = ExtractionCheckpoint.open(checkpointFile, pdfFile, checkpointSettings(), selectedPages,
+                        taggedHeadings);
+                resumedThroughPage = checkpoint.restoreInto(textBlocks, skippedPages, degradedPages);
+                if (resumedThroughPage > 0) {
+                    System.out.println("Resuming from checkpoint " + checkpointFile.getPath() + " after page "
+                            + resumedThroughPage);
+                }
+                if (checkpoint.isReadOnly()) {
+                    // A checkpoint of more pages than these is kept for the requests it serves
+                    closeCheckpoint();
+                }
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Warning: Cannot open checkpoint " + checkpointFile.getPath() + ": "
+                        + e.getMessage() + ". Continuing without checkpoints.");
+                closeCheckpoint();
+            }
+        }
+
+        private void writeCheckpoint(int lastPage) {
+            pagesSinceCheckpoint = 0;
+            try {
+                checkpoint.write(textBlocks, lastPage, selectedPages, skippedPages, degradedPages);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Warning: Cannot write checkpoint " + checkpointFile.getPath() + ": "
+                        + e.getMessage() + ". Continuing without checkpoints.");
+                closeCheckpoint();
+            }
+        }
+
+        private void closeCheckpoint() {
+            if (checkpoint == null)
+                return;
+            try {
+                checkpoint.close();
+            } catch (IOException e) {
+                System.out.println("Warning: Cannot close checkpoint " + checkpointFile.getPath() + ": "
+                        + e.getMessage());
+            }
+            checkpoint = null;
+        }
+
+        /**
+         * Extract all text blocks from the document with their attributes
+         */
+        private void extractTextBlocks(PDDocument document) throws IOException {
+            // Pages covered by the checkpoint resumed from are not read again
+            int firstPage = Math.max(selectedPages.first(), resumedThroughPage + 1);
+            try {
+                if (firstPage <= selectedPages.last()) {
+                    readPages(document, firstPage, selectedPages.last());
+
+                    // A complete checkpoint lets a later request for more pages extend this one
+                    if (checkpoint != null) {
+                        writeCheckpoint(selectedPages.last());
+                    }
+                }
+            } catch (PageStoppedException e) {
+                throw new InterruptedIOException("Extraction cancelled");
+            } finally {
+                closeCheckpoint();
+            }
+
+            // Sort text blocks by page and vertical position, unless layout analysis
+            // already put them in reading order
+            if (!layoutAnalysis) {
+                Collections.sort(textBlocks);
+            }
+        }
+
+        private void readPages(PDDocument document, int firstPage, int lastPage) throws IOException {
+            if (leanText) {
+                LeanEngine engine = new LeanEngine();
+                engine.setSortByPosition(true);
+                engine.processPages(document, firstPage, lastPage);
+            } else {
+                StripperEngine stripper = new StripperEngine();
+                stripper.setSortByPosition(true);
+                stripper.setStartPage(firstPage);
+                stripper.setEndPage(lastPage);
+                // This will call writeString for each text element
+                stripper.writeText(document, new StringWriter());
+            }
+        }
+
+        /**
+         * Feeds the extraction from PDFTextStripper
+         */
+        private class StripperEngine extends PDFTextStripper {
+            @Override
+            public void processPage(PDPage page) throws IOException {
+                if (!beginPage(getCurrentPageNo()))
+                    return;
+                try {
+                    super.processPage(page);
+                } catch (PageStoppedException e) {
+                    if (e.cancelled)
+                        throw e;
+                    // The stripper skipped writing the page along with the rest of its content stream
+                    if (pageOverBudget(getCurrentPageNo(), e.getMessage())) {
+                        for (List<TextPosition> article : getCharactersByArticle()) {
+                            article.clear();
+                        }
+                    }
+
+                    // Lines are built in content stream order, without sorting or layout analysis
+                    degradedPage = true;
+                    setSortByPosition(false);
+                    try {
+                        writePage();
+                        endPage(page);
+                    } finally {
+                        degradedPage = false;
+                        setSortByPosition(true);
+                    }
+                }
+            }
+
+            @Override
+            protected void processOperator(Operator operator, List<COSBase> operands) throws IOException {
+                checkBudget();
+                super.processOperator(operator, operands);
+            }
+
+            @Override
+            protected void startPage(PDPage page) throws IOException {
+                preparePage(page, getCurrentPageNo());
+                super.startPage(page);
+            }
+
+            @Override
+            public void beginMarkedContentSequence(COSName tag, COSDictionary properties) {
+                beginMarkedContent(properties);
+                super.beginMarkedContentSequence(tag, properties);
+            }
+
+            @Override
+            public void endMarkedContentSequence() {
+                endMarkedContent();
+                super.endMarkedContentSequence();
+            }
+
+            @Override
+            protected void processTextPosition(TextPosition text) {
+                if (acceptGlyph(text)) {
+                    super.processTextPosition(text);
+                }
+            }
+
+            @Override
+            protected void writeString(String text, List<TextPosition> textPositions) {
+                addText(text, textPositions);
+            }
+
+            @Override
+            protected void endPage(PDPage page) throws IOException {
+                finishPage();
+                super.endPage(page);
+            }
+        }
+
+        /**
+         * Feeds the extraction from the {@link LeanTextEngine}
+         */
+        private class LeanEngine extends LeanTextEngine {
+            @Override
+            public void processPage(PDPage page) throws IOException {
+                if (!beginPage(getCurrentPageNo()))
+                    return;
+                try {
+                    super.processPage(page);
+                } catch (PageStoppedException e) {
+                    if (e.cancelled)
+                        throw e;
+                    if (pageOverBudget(getCurrentPageNo(), e.getMessage())) {
+                        getPageGlyphs().clear();
+                    }
+
+                    // Lines are built in content stream order, without sorting or layout analysis
+                    degradedPage = true;
+                    setSortByPosition(false);
+                    try {
+                        writePage();
+                        endPage(page);
+                    } finally {
+                        degradedPage = false;
+                        setSortByPosition(true);
+                    }
+                }
+            }
+
+            @Override
+            protected void processOperator(Operator operator, List<COSBase> operands) throws IOException {
+                checkBudget();
+                super.processOperator(operator, operands);
+            }
+
+            @Override
+            protected void startPage(PDPage page) {
+                preparePage(page, getCurrentPageNo());
+            }
+
+            @Override
+            public void beginMarkedContentSequence(COSName tag, COSDictionary properties) {
+                beginMarkedContent(properties);
+            }
+
+            @Override
+            public void endMarkedContentSequence() {
+                endMarkedContent();
+            }
+
+            @Override
+            protected void processTextPosition(TextPosition text) {
+                if (acceptGlyph(text)) {
+                    super.processTextPosition(text);
+                }
+            }
+
+            @Override
+            protected void writeString(String text, List<TextPosition> textPositions) {
+                addText(text, textPositions);
+            }
+
+            @Override
+            protected void endPage(PDPage page) {
+                finishPage();
+            }
+        }
+    }
+
+    /**
+     * Thrown from the stripper callbacks to abandon the rest of a page's
+     * content stream, or the whole extraction when it was cancelled
+     */
+    private static class PageStoppedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final boolean cancelled;
+
+        PageStoppedException(String reason, boolean cancelled) {
+            // Thrown routinely on bad pages, so no stack trace is filled in
+            super(reason, null, false, false);
+            this.cancelled = cancelled;
+        }
     }
 
     // Inner classes to represent document structure
@@ -363,6 +1369,8 @@ public class HierarchicalPdfExtractor extends PDFTextStripper {
         String fontName;
         float yPosition;
         int pageNumber;
+        /** Heading element the line was tagged as, if any */
+        StructureReader.TaggedHeading taggedHeading;
 
         public PDFTextBlock(String text, float fontSize, String fontName, float yPosition, int pageNumber) {
             this.text = text;
@@ -387,11 +1395,215 @@ public class HierarchicalPdfExtractor extends PDFTextStripper {
         int pageNumber;
         float yPosition;
 
-        public PDFHeading(String text, int level, int pageNumber, float yPosition) {
+        int blockIndex;
+        /** Index of the first content block; past the heading line when it was found in the text */
+        int contentStart;
+
+        public PDFHeading(String text, int level, int pageNumber, float yPosition, int blockIndex) {
             this.text = text;
             this.level = level;
             this.pageNumber = pageNumber;
             this.yPosition = yPosition;
+            this.blockIndex = blockIndex;
+            this.contentStart = blockIndex + 1;
+        }
+    }
+
+    /**
+     * Settings for a {@link HierarchicalPdfExtractor}. Building copies them, so
+     * a builder can go on to make differently configured extractors.
+     */
+    public static class Builder {
+        private PageSet pageSet;
+        private float marginLeft = 0;
+        private float marginTop = 0;
+        private float marginRight = 0;
+        private float marginBottom = 0;
+        private boolean useMargins = false;
+        private boolean autoMargins = false;
+        private boolean layoutAnalysis = true;
+        private StructureSource structureSource = StructureSource.HEURISTIC;
+        private File sectionIndexFile;
+        private boolean lazyContent = false;
+        private boolean contentDigests = false;
+        private boolean leanText = false;
+        private long pageTimeBudgetNanos = 0;
+        private int pageGlyphBudget = 0;
+        private OverBudgetAction overBudgetAction = OverBudgetAction.SKIP;
+        private File checkpointDir;
+        private int checkpointIntervalPages;
+
+        /**
+         * Set the page range to extract
+         * 
+         * @param startPage The starting page number (1-based)
+         * @param endPage   The ending page number (1-based)
+         */
+        public Builder pageRange(int startPage, int endPage) {
+            this.pageSet = PageSet.range(startPage, endPage);
+            return this;
+        }
+
+        /**
+         * Set the pages to extract, which need not be contiguous. Pages outside the
+         * set are not stripped at all; outline entries on them still appear in the
+         * hierarchy, heading the text of the next selected page.
+         *
+         * @param pages The pages, or null for all pages
+         */
+        public Builder pages(PageSet pages) {
+            this.pageSet = pages;
+            return this;
+        }
+
+        /**
+         * Set margins to define the content area of interest
+         * 
+         * @param left   Left margin (points from left edge)
+         * @param top    Top margin (points from top edge)
+         * @param right  Right margin (points from right edge)
+         * @param bottom Bottom margin (points from bottom edge)
+         */
+        public Builder margins(float left, float top, float right, float bottom) {
+            this.marginLeft = left;
+            this.marginTop = top;
+            this.marginRight = right;
+            this.marginBottom = bottom;
+            this.useMargins = true;
+            return this;
+        }
+
+        /**
+         * Set whether running headers and footers are detected from a sample of
+         * pages and excluded like margins. Combined with explicit margins, the
+         * larger of the two is used at the top and bottom.
+         */
+        public Builder autoMargins(boolean autoMargins) {
+            this.autoMargins = autoMargins;
+            return this;
+        }
+
+        /**
+         * Set whether pages are segmented into column and block regions before
+         * lines are assembled. When disabled, lines are built across the full page
+         * width in position order.
+         */
+        public Builder layoutAnalysis(boolean layoutAnalysis) {
+            this.layoutAnalysis = layoutAnalysis;
+            return this;
+        }
+
+        /**
+         * Set where the section hierarchy comes from. With an outline or tags the
+         * pages are still stripped for section content, but headings are not
+         * classified from font sizes; when the chosen source is missing, the font
+         * heuristics are used instead.
+         */
+        public Builder structureSource(StructureSource structureSource) {
+            this.structureSource = structureSource;
+            return this;
+        }
+
+        /**
+         * Set whether section content is built only when it is first requested.
+         * Sections then keep a span of the document's lines ({@link BlockStore})
+         * rather than their text, and built text can be dropped again with
+         * {@link DocumentStructure#releaseContent()}.
+         */
+        public Builder lazyContent(boolean lazyContent) {
+            this.lazyContent = lazyContent;
+            return this;
+        }
+
+        /**
+         * Set whether a digest of each section's text is computed, for building
+         * a {@link SectionManifest} to compare editions with
+         */
+        public Builder contentDigests(boolean contentDigests) {
+            this.contentDigests = contentDigests;
+            return this;
+        }
+
+        /**
+         * Set whether page text is read with {@link LeanTextEngine} rather than
+         * PDFTextStripper. This is faster, but ActualText and right-to-left text
+         * are not handled and words can be split into runs differently.
+         */
+        public Builder leanText(boolean leanText) {
+            this.leanText = leanText;
+            return this;
+        }
+
+        /**
+         * Set how much work a single page may take. Once a page has been processed
+         * for longer than the time budget, or has produced more glyphs than the
+         * glyph budget, the rest of its content stream is not interpreted and the
+         * page is handled according to the over-budget action. The pages affected
+         * are listed in the document metadata ("skippedPages", "degradedPages").
+         *
+         * The budget is checked between content stream operators and glyphs, so it
+         * cannot interrupt a single operation that never returns. The first page
+         * using a font also pays for loading it, so keep time budgets well above
+         * the few hundred milliseconds that can take.
+         *
+         * @param timeMillis Time budget per page in milliseconds, or 0 for none
+         * @param glyphs     Glyph budget per page, or 0 for none
+         */
+        public Builder pageBudget(long timeMillis, int glyphs) {
+            if (timeMillis < 0 || glyphs < 0) {
+                throw new IllegalArgumentException("Page budget cannot be negative");
+            }
+            this.pageTimeBudgetNanos = timeMillis * 1_000_000L;
+            this.pageGlyphBudget = glyphs;
+            return this;
+        }
+
+        /**
+         * Set what happens to a page that runs over its budget (default
+         * {@link OverBudgetAction#SKIP})
+         */
+        public Builder overBudgetAction(OverBudgetAction overBudgetAction) {
+            this.overBudgetAction = overBudgetAction;
+            return this;
+        }
+
+        /**
+         * Set the section index file ({@link SectionIndex}) that
+         * {@link HierarchicalPdfExtractor#extractSection} looks up section
+         * pages in when the document has no outline. If the file is missing or
+         * older than the PDF, the first section request extracts the whole
+         * document and writes it, so later requests only extract the pages
+         * they need.
+         */
+        public Builder sectionIndex(File sectionIndexFile) {
+            this.sectionIndexFile = sectionIndexFile;
+            return this;
+        }
+
+        /**
+         * Set a directory that extractions write the lines extracted so far to
+         * every few pages, in a checkpoint file per PDF
+         * ({@link ExtractionCheckpoint#fileFor}). An extraction of the same PDF
+         * with the same settings resumes after the last page checkpointed, so a
+         * long extraction that died does not start over, and one for more pages
+         * than an earlier extraction only reads the pages after them. Files are
+         * kept after the extraction. While one extraction of a PDF has its file
+         * open, concurrent extractions of the same PDF run without checkpoints.
+         *
+         * @param checkpointDir The checkpoint directory, or null for none
+         * @param intervalPages Number of pages between checkpoints
+         */
+        public Builder checkpoint(File checkpointDir, int intervalPages) {
+            if (checkpointDir != null && intervalPages < 1) {
+                throw new IllegalArgumentException("Checkpoint interval must be at least one page");
+            }
+            this.checkpointDir = checkpointDir;
+            this.checkpointIntervalPages = intervalPages;
+            return this;
+        }
+
+        public HierarchicalPdfExtractor build() {
+            return new HierarchicalPdfExtractor(this);
         }
     }
 }
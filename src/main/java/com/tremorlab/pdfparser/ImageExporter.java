@@ -0,0 +1,595 @@
+package com.tremorlab.pdfparser;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSObjectKey;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Exports the image XObjects of a PDF to files, writing each underlying COS
+ * object once no matter how many pages reference it.
+ *
+ * Pages are walked on the calling thread; decoding and encoding run on a worker
+ * pool fed through a bounded queue. Where the stored image data already maps to
+ * a standard format it is streamed to disk without being decoded into memory:
+ * JPEG and JPEG 2000 data is copied as-is, and Flate or unfiltered gray/RGB
+ * samples are re-wrapped as PNG one row at a time. Everything else falls back to
+ * PDFBox decoding followed by a PNG encode.
+ *
+ * Only image XObjects are exported. Inline images, whose data is embedded in
+ * a content stream between BI and EI operators, are not objects of their own
+ * and are skipped.
+ */
+public class ImageExporter {
+    private static final byte[] PNG_SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+    private static final int IDAT_CHUNK_SIZE = 64 * 1024;
+
+    private final File outputDir;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int queueCapacity = threads * 2;
+
+    public ImageExporter(File outputDir) {
+        this.outputDir = outputDir;
+    }
+
+    /**
+     * Set the number of worker threads used for decoding and encoding
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be 1 or greater");
+        }
+        this.threads = threads;
+        this.queueCapacity = threads * 2;
+    }
+
+    /**
+     * Set how many images may wait for a worker before the page walk blocks
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be 1 or greater");
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Export every image used by the given page range
+     *
+     * @param pdfFile   The PDF file
+     * @param startPage The starting page number (1-based)
+     * @param endPage   The ending page number (1-based)
+     * @return One entry per exported image, in order of first use
+     * @throws IOException If the PDF cannot be read or an image cannot be written
+     */
+    public List<ExportedImage> exportImages(File pdfFile, int startPage, int endPage) throws IOException {
+        try (PdfOpener source = new PdfOpener(pdfFile)) {
+            return exportImages(source, startPage, endPage);
+        }
+    }
+
+    /**
+     * Export every image used by the given page range of a PDF that may need
+     * credentials to open
+     *
+     * @param source    Opener for the PDF file
+     * @param startPage The starting page number (1-based)
+     * @param endPage   The ending page number (1-based)
+     * @return One entry per exported image, in order of first use
+     * @throws IOException If the PDF cannot be read or an image cannot be written
+     */
+    public List<ExportedImage> exportImages(PdfOpener source, int startPage, int endPage) throws IOException {
+        if (startPage <= 0 && endPage <= 0) {
+            return exportImages(source, null);
+        }
+        return exportImages(source, PageSet.range(Math.max(1, startPage), endPage > 0 ? endPage : Integer.MAX_VALUE));
+    }
+
+    /**
+     * Export every image used by a set of pages of a PDF that may need
+     * credentials to open
+     *
+     * @param source Opener for the PDF file
+     * @param pages  The pages, or null for all pages; pages past the end of the
+     *               document are ignored
+     * @return One entry per exported image, in order of first use
+     * @throws IOException If the PDF cannot be read or an image cannot be written
+     */
+    public List<ExportedImage> exportImages(PdfOpener source, PageSet pages) throws IOException {
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Could not create output directory " + outputDir);
+        }
+
+        Map<COSObjectKey, ExportedImage> images = new LinkedHashMap<>();
+        List<Future<?>> pending = new ArrayList<>();
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new ThreadPoolExecutor.CallerRunsPolicy());
+
+        // The workers end with this call, so fonts they parse are not worth sharing
+        try (PDDocument document = source.open();
+                WorkerDocuments workerDocuments = new WorkerDocuments(source, false)) {
+            int totalPages = document.getNumberOfPages();
+            int[] pageNumbers = pages != null
+                    ? pages.limitTo(totalPages).toArray()
+                    : totalPages > 0 ? PageSet.range(1, totalPages).toArray() : new int[0];
+
+            try {
+                for (int pageNumber : pageNumbers) {
+                    PDPage page = document.getPage(pageNumber - 1);
+                    COSDictionary resources = page.getCOSObject().getCOSDictionary(COSName.RESOURCES);
+                    collectImages(resources, pageNumber, images, pending, executor, workerDocuments,
+                            new HashSet<>());
+                }
+
+                for (Future<?> future : pending) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Image export interrupted", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException("Image export failed", cause);
+            } finally {
+                stopWorkers(executor);
+            }
+        }
+
+        return new ArrayList<>(images.values());
+    }
+
+    /**
+     * Stop the workers and wait for them, so that no worker is still using or
+     * opening its copy of the document when the copies are closed
+     */
+    private static void stopWorkers(ThreadPoolExecutor executor) {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                // A worker that opens its copy after this is closed is refused it
+                System.out.println("Warning: Image export workers did not stop; closing their documents anyway");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Walk a resource dictionary, queueing images not seen before and descending
+     * into form XObjects
+     */
+    private void collectImages(COSDictionary resources, int pageNumber, Map<COSObjectKey, ExportedImage> images,
+            List<Future<?>> pending, ThreadPoolExecutor executor, WorkerDocuments workerDocuments,
+            Set<COSBase> visitedForms) {
+        if (resources == null)
+            return;
+
+        COSDictionary xObjects = resources.getCOSDictionary(COSName.XOBJECT);
+        if (xObjects == null)
+            return;
+
+        for (COSName name : xObjects.keySet()) {
+            COSBase item = xObjects.getItem(name);
+            COSBase object = xObjects.getDictionaryObject(name);
+            if (!(object instanceof COSStream))
+                continue;
+
+            COSStream stream = (COSStream) object;
+            COSName subtype = stream.getCOSName(COSName.SUBTYPE);
+
+            if (COSName.IMAGE.equals(subtype)) {
+                COSObjectKey key = item instanceof COSObject ? ((COSObject) item).getKey() : stream.getKey();
+                if (key == null) {
+                    System.out.println("Warning: Skipping direct image stream " + name.getName() +
+                            " on page " + pageNumber);
+                    continue;
+                }
+
+                ExportedImage image = images.get(key);
+                if (image == null) {
+                    image = new ExportedImage(key, stream.getInt(COSName.WIDTH), stream.getInt(COSName.HEIGHT));
+                    images.put(key, image);
+                    final ExportedImage target = image;
+                    pending.add(executor.submit(() -> {
+                        writeImage(workerDocuments.get(), target);
+                        return null;
+                    }));
+                }
+                image.addPage(pageNumber);
+            } else if (COSName.FORM.equals(subtype) && visitedForms.add(stream)) {
+                collectImages(stream.getCOSDictionary(COSName.RESOURCES), pageNumber, images, pending,
+                        executor, workerDocuments, visitedForms);
+            }
+        }
+    }
+
+    /**
+     * Decode (if needed) and write a single image using the calling thread's
+     * copy of the document
+     */
+    private void writeImage(PDDocument document, ExportedImage image) throws IOException {
+        COSObject reference = document.getDocument().getObjectFromPool(image.key);
+        COSBase object = reference != null ? reference.getObject() : null;
+        if (!(object instanceof COSStream)) {
+            throw new IOException("Image object " + image.key + " could not be resolved");
+        }
+        COSStream stream = (COSStream) object;
+        List<COSName> filters = getFilters(stream);
+
+        String baseName = "img-" + image.key.getNumber() + "-" + image.key.getGeneration();
+        COSName lastFilter = filters.isEmpty() ? null : filters.get(filters.size() - 1);
+
+        if (COSName.DCT_DECODE.equals(lastFilter) && hasPlainSamples(stream, false)) {
+            image.setFormat("jpg");
+            copyStoppingAt(stream, filters, COSName.DCT_DECODE, new File(outputDir, baseName + ".jpg"));
+        } else if (COSName.JPX_DECODE.equals(lastFilter)) {
+            image.setFormat("jp2");
+            copyStoppingAt(stream, filters, COSName.JPX_DECODE, new File(outputDir, baseName + ".jp2"));
+        } else if (isStreamablePng(stream, filters)) {
+            image.setFormat("png");
+            streamPng(stream, filters, new File(outputDir, baseName + ".png"));
+        } else {
+            image.setFormat("png");
+            PDImageXObject pdImage = new PDImageXObject(new PDStream(stream), null);
+            BufferedImage decoded = pdImage.getImage();
+            try (OutputStream out = new BufferedOutputStream(
+                    new FileOutputStream(new File(outputDir, baseName + ".png")))) {
+                ImageIO.write(decoded, "png", out);
+            }
+        }
+
+        image.setFileName(baseName + "." + image.getFormat());
+    }
+
+    private static List<COSName> getFilters(COSStream stream) {
+        COSBase filters = stream.getFilters();
+        if (filters instanceof COSName) {
+            return Collections.singletonList((COSName) filters);
+        }
+        List<COSName> names = new ArrayList<>();
+        if (filters instanceof COSArray) {
+            for (COSBase filter : (COSArray) filters) {
+                if (filter instanceof COSName) {
+                    names.add((COSName) filter);
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Check whether the samples can be written as-is: a device gray/RGB color
+     * space, no decode array and not a stencil mask
+     */
+    private static boolean hasPlainSamples(COSStream stream, boolean checkBitDepth) {
+        if (stream.getBoolean(COSName.IMAGE_MASK, false) || stream.getDictionaryObject(COSName.DECODE) != null) {
+            return false;
+        }
+        COSBase colorSpace = stream.getDictionaryObject(COSName.COLORSPACE);
+        int bitsPerComponent = stream.getInt(COSName.BITS_PER_COMPONENT, 8);
+        if (COSName.DEVICEGRAY.equals(colorSpace)) {
+            return !checkBitDepth || bitsPerComponent == 1 || bitsPerComponent == 2 || bitsPerComponent == 4
+                    || bitsPerComponent == 8 || bitsPerComponent == 16;
+        }
+        if (COSName.DEVICERGB.equals(colorSpace)) {
+            return !checkBitDepth || bitsPerComponent == 8 || bitsPerComponent == 16;
+        }
+        return false;
+    }
+
+    private static boolean isStreamablePng(COSStream stream, List<COSName> filters) {
+        if (!hasPlainSamples(stream, true)) {
+            return false;
+        }
+        if (filters.isEmpty()) {
+            return true;
+        }
+        if (filters.size() == 1 && COSName.FLATE_DECODE.equals(filters.get(0))) {
+            int predictor = getPredictor(stream);
+            return predictor == 1 || (predictor >= 10 && predictorParamsMatch(stream));
+        }
+        return false;
+    }
+
+    private static COSDictionary getDecodeParms(COSStream stream) {
+        COSBase parms = stream.getDictionaryObject(COSName.DECODE_PARMS);
+        if (parms instanceof COSArray && ((COSArray) parms).size() > 0) {
+            parms = ((COSArray) parms).getObject(0);
+        }
+        return parms instanceof COSDictionary ? (COSDictionary) parms : null;
+    }
+
+    private static int getPredictor(COSStream stream) {
+        COSDictionary parms = getDecodeParms(stream);
+        return parms != null ? parms.getInt(COSName.PREDICTOR, 1) : 1;
+    }
+
+    /**
+     * PNG predictors in a Flate stream are PNG row filters, so the compressed
+     * data can go straight into IDAT when the predictor row layout matches the
+     * image's own layout.
+     */
+    private static boolean predictorParamsMatch(COSStream stream) {
+        COSDictionary parms = getDecodeParms(stream);
+        int colors = COSName.DEVICERGB.equals(stream.getDictionaryObject(COSName.COLORSPACE)) ? 3 : 1;
+        return parms.getInt(COSName.COLORS, 1) == colors
+                && parms.getInt(COSName.BITS_PER_COMPONENT, 8) == stream.getInt(COSName.BITS_PER_COMPONENT, 8)
+                && parms.getInt(COSName.COLUMNS, 1) == stream.getInt(COSName.WIDTH);
+    }
+
+    /**
+     * Apply every filter before the given one and copy the remaining encoded data
+     * to a file
+     */
+    private static void copyStoppingAt(COSStream stream, List<COSName> filters, COSName stopFilter, File target)
+            throws IOException {
+        InputStream in = filters.size() == 1
+                ? stream.createRawInputStream()
+                : new PDStream(stream).createInputStream(Collections.singletonList(stopFilter.getName()));
+        try (InputStream source = in;
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(target))) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = source.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+
+    /**
+     * Write gray/RGB samples as a PNG without ever holding more than one row
+     */
+    private static void streamPng(COSStream stream, List<COSName> filters, File target) throws IOException {
+        int width = stream.getInt(COSName.WIDTH);
+        int height = stream.getInt(COSName.HEIGHT);
+        int bitsPerComponent = stream.getInt(COSName.BITS_PER_COMPONENT, 8);
+        boolean rgb = COSName.DEVICERGB.equals(stream.getDictionaryObject(COSName.COLORSPACE));
+        int components = rgb ? 3 : 1;
+        int rowBytes = (width * components * bitsPerComponent + 7) / 8;
+        boolean predicted = !filters.isEmpty() && getPredictor(stream) >= 10;
+
+        try (OutputStream file = new BufferedOutputStream(new FileOutputStream(target))) {
+            file.write(PNG_SIGNATURE);
+
+            byte[] header = new byte[13];
+            putInt(header, 0, width);
+            putInt(header, 4, height);
+            header[8] = (byte) bitsPerComponent;
+            header[9] = (byte) (rgb ? 2 : 0);
+            writeChunk(file, "IHDR", header, header.length);
+
+            try (IdatOutputStream idat = new IdatOutputStream(file);
+                    InputStream raw = stream.createRawInputStream()) {
+                if (predicted) {
+                    // Already a zlib stream of filtered PNG rows
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = raw.read(buffer)) != -1) {
+                        idat.write(buffer, 0, read);
+                    }
+                } else {
+                    DataInputStream samples = new DataInputStream(
+                            filters.isEmpty() ? raw : new InflaterInputStream(raw));
+                    DeflaterOutputStream deflated = new DeflaterOutputStream(idat, new Deflater(6), 8192);
+                    byte[] row = new byte[rowBytes];
+                    for (int y = 0; y < height; y++) {
+                        try {
+                            samples.readFully(row);
+                        } catch (EOFException e) {
+                            // Truncated image data, pad the remaining rows
+                            Arrays.fill(row, (byte) 0);
+                        }
+                        deflated.write(0); // filter type: none
+                        deflated.write(row);
+                    }
+                    deflated.finish();
+                }
+            }
+
+            writeChunk(file, "IEND", new byte[0], 0);
+        }
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        byte[] lengthBytes = new byte[4];
+        putInt(lengthBytes, 0, length);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        byte[] crcBytes = new byte[4];
+        putInt(crcBytes, 0, (int) crc.getValue());
+
+        out.write(lengthBytes);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.write(crcBytes);
+    }
+
+    /**
+     * Splits compressed image data into fixed-size IDAT chunks
+     */
+    private static class IdatOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final byte[] buffer = new byte[IDAT_CHUNK_SIZE];
+        private int count = 0;
+
+        IdatOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flushChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    flushChunk();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void flushChunk() throws IOException {
+            if (count > 0) {
+                writeChunk(out, "IDAT", buffer, count);
+                count = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            // Leave the underlying stream open for the IEND chunk
+            flushChunk();
+        }
+    }
+
+    /**
+     * Class to hold information about an exported image
+     */
+    public static class ExportedImage {
+        private final COSObjectKey key;
+        private final int width;
+        private final int height;
+        private volatile String fileName;
+        private volatile String format;
+        private final List<Integer> pages = new ArrayList<>();
+
+        ExportedImage(COSObjectKey key, int width, int height) {
+            this.key = key;
+            this.width = width;
+            this.height = height;
+        }
+
+        public String getObjectId() {
+            return key.getNumber() + " " + key.getGeneration() + " R";
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        void setFileName(String fileName) {
+            this.fileName = fileName;
+        }
+
+        public String getFormat() {
+            return format;
+        }
+
+        void setFormat(String format) {
+            this.format = format;
+        }
+
+        public List<Integer> getPages() {
+            return pages;
+        }
+
+        void addPage(int pageNumber) {
+            if (pages.isEmpty() || pages.get(pages.size() - 1) != pageNumber) {
+                pages.add(pageNumber);
+            }
+        }
+
+        /**
+         * Convert to JSON format
+         */
+        public String toJson(int indent) {
+            String spaces = " ".repeat(indent);
+            StringBuilder sb = new StringBuilder();
+            sb.append(spaces).append("{\n");
+            sb.append(spaces).append("  \"object\": \"").append(getObjectId()).append("\",\n");
+            sb.append(spaces).append("  \"file\": \"").append(fileName).append("\",\n");
+            sb.append(spaces).append("  \"format\": \"").append(format).append("\",\n");
+            sb.append(spaces).append("  \"width\": ").append(width).append(",\n");
+            sb.append(spaces).append("  \"height\": ").append(height).append(",\n");
+            sb.append(spaces).append("  \"pages\": ").append(pages).append("\n");
+            sb.append(spaces).append("}");
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Convert a list of exported images to a JSON manifest
+     */
+    public static String toJson(List<ExportedImage> images) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"images\": [\n");
+        for (int i = 0; i < images.size(); i++) {
+            sb.append(images.get(i).toJson(4));
+            if (i < images.size() - 1) {
+                sb.append(",");
+            }
+            sb.append("\n");
+        }
+        sb.append("  ]\n");
+        sb.append("}");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,230 @@
+package com.tremorlab.pdfparser;
+
+import com.tremorlab.pdfparser.SinglePageExtractor.PositionedText;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Splits the text of a page into column and block regions using a recursive
+ * XY-cut over the text boxes.
+ *
+ * At each step the projection profiles of the region onto the x and y axes are
+ * scanned for whitespace gaps, the region is cut at every gap in the direction
+ * with the most significant one, and the parts are processed recursively.
+ * Horizontal cuts produce bands read top to bottom, vertical cuts produce
+ * columns read left to right. Bands that do not lead to any column split are
+ * merged back, so a single-column page comes out as one region.
+ *
+ * The boxes are sorted by x and by y once; each cut then partitions those
+ * orders in linear time, so a page costs O(n log n) for the sort plus O(n) per
+ * level of the (depth-limited) cut tree.
+ */
+public class LayoutSegmenter {
+    /** Minimum vertical gap, relative to the median text height, for a horizontal cut */
+    private static final float MIN_ROW_GAP_RATIO = 1.0f;
+    /** Minimum horizontal gap, relative to the median text height, for a vertical cut */
+    private static final float MIN_COLUMN_GAP_RATIO = 2.0f;
+    /** Minimum vertical gap, relative to the region's median line gap, for a horizontal cut */
+    private static final float MIN_ROW_GAP_SPACING_RATIO = 1.5f;
+    private static final int MAX_DEPTH = 32;
+
+    /**
+     * Segment the text boxes of a page into regions in reading order
+     *
+     * @param items Text boxes with top-left origin coordinates
+     * @return The regions, each a list of its boxes sorted top to bottom
+     */
+    public List<List<PositionedText>> segment(List<PositionedText> items) {
+        List<List<PositionedText>> regions = new ArrayList<>();
+        if (items.isEmpty())
+            return regions;
+
+        PositionedText[] boxes = items.toArray(new PositionedText[0]);
+
+        float[] heights = new float[boxes.length];
+        for (int i = 0; i < boxes.length; i++) {
+            heights[i] = boxes[i].getHeight();
+        }
+        Arrays.sort(heights);
+        float medianHeight = Math.max(heights[heights.length / 2], 1f);
+
+        Integer[] byX = new Integer[boxes.length];
+        Integer[] byY = new Integer[boxes.length];
+        for (int i = 0; i < boxes.length; i++) {
+            byX[i] = i;
+            byY[i] = i;
+        }
+        Arrays.sort(byX, Comparator.comparingDouble(i -> boxes[i].getX()));
+        Arrays.sort(byY, Comparator.comparingDouble(i -> boxes[i].getY()));
+
+        cut(boxes, toArray(byX), toArray(byY), medianHeight * MIN_COLUMN_GAP_RATIO,
+                medianHeight * MIN_ROW_GAP_RATIO, 0, new int[boxes.length], regions);
+        return regions;
+    }
+
+    private static int[] toArray(Integer[] indices) {
+        int[] result = new int[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            result[i] = indices[i];
+        }
+        return result;
+    }
+
+    /**
+     * Recursively cut a region given its boxes in x order and in y order
+     *
+     * @param partOf Scratch array mapping box index to the part it falls in
+     * @return Whether any column split happened inside this region
+     */
+    private boolean cut(PositionedText[] boxes, int[] byX, int[] byY, float minColumnGap, float minRowGap,
+            int depth, int[] partOf, List<List<PositionedText>> regions) {
+        List<Gap> rowGaps = depth < MAX_DEPTH ? findGaps(boxes, byY, false, minRowGap) : new ArrayList<>();
+        List<Gap> columnGaps = depth < MAX_DEPTH ? findGaps(boxes, byX, true, minColumnGap) : new ArrayList<>();
+
+        if (rowGaps.isEmpty() && columnGaps.isEmpty()) {
+            regions.add(toRegion(boxes, byY));
+            return false;
+        }
+
+        // Cut in the direction whose widest gap is most significant relative to its threshold
+        boolean vertical = !columnGaps.isEmpty() && (rowGaps.isEmpty()
+                || widest(columnGaps) / minColumnGap >= widest(rowGaps) / minRowGap);
+        List<Gap> gaps = vertical ? columnGaps : rowGaps;
+        int parts = gaps.size() + 1;
+
+        // Assign each box to a part by its leading edge; boxes are visited in that order
+        int[] sizes = new int[parts];
+        int part = 0;
+        for (int index : vertical ? byX : byY) {
+            float start = vertical ? boxes[index].getX() : boxes[index].getY();
+            while (part < gaps.size() && start >= gaps.get(part).position) {
+                part++;
+            }
+            partOf[index] = part;
+            sizes[part]++;
+        }
+
+        // Stable partition of both orders keeps every part sorted without re-sorting
+        int[][] partsByX = new int[parts][];
+        int[][] partsByY = new int[parts][];
+        for (int p = 0; p < parts; p++) {
+            partsByX[p] = new int[sizes[p]];
+            partsByY[p] = new int[sizes[p]];
+        }
+        int[] fillX = new int[parts];
+        int[] fillY = new int[parts];
+        for (int index : byX) {
+            partsByX[partOf[index]][fillX[partOf[index]]++] = index;
+        }
+        for (int index : byY) {
+            partsByY[partOf[index]][fillY[partOf[index]]++] = index;
+        }
+
+        int firstRegion = regions.size();
+        boolean hasColumns = vertical;
+        for (int p = 0; p < parts; p++) {
+            if (sizes[p] > 0) {
+                hasColumns |= cut(boxes, partsByX[p], partsByY[p], minColumnGap, minRowGap, depth + 1, partOf,
+                        regions);
+            }
+        }
+
+        if (!hasColumns) {
+            // Only horizontal bands below this point: they read top to bottom anyway
+            regions.subList(firstRegion, regions.size()).clear();
+            regions.add(toRegion(boxes, byY));
+        }
+        return hasColumns;
+    }
+
+    private static List<PositionedText> toRegion(PositionedText[] boxes, int[] byY) {
+        List<PositionedText> region = new ArrayList<>(byY.length);
+        for (int index : byY) {
+            region.add(boxes[index]);
+        }
+        return region;
+    }
+
+    /**
+     * Scan the projection profile of boxes (given in order of their leading
+     * edge) for whitespace gaps at least minGap wide.
+     *
+     * Row gaps must also stand out from the region's ordinary line spacing, so
+     * that evenly spaced lines are never cut apart. A column gap only counts as
+     * a gutter if the text on both sides is wider than the gap itself, which
+     * keeps sparse table cells from being read column by column.
+     */
+    private List<Gap> findGaps(PositionedText[] boxes, int[] sorted, boolean horizontal, float minGap) {
+        List<Gap> gaps = new ArrayList<>();
+        List<Float> segmentStarts = new ArrayList<>();
+        List<Float> segmentEnds = new ArrayList<>();
+
+        float coveredFrom = Float.NaN;
+        float coveredTo = Float.NaN;
+        for (int index : sorted) {
+            float start = horizontal ? boxes[index].getX() : boxes[index].getY();
+            float end = start + (horizontal ? boxes[index].getWidth() : boxes[index].getHeight());
+            if (Float.isNaN(coveredTo)) {
+                coveredFrom = start;
+                coveredTo = end;
+            } else if (start > coveredTo) {
+                gaps.add(new Gap((coveredTo + start) / 2, start - coveredTo));
+                segmentStarts.add(coveredFrom);
+                segmentEnds.add(coveredTo);
+                coveredFrom = start;
+                coveredTo = end;
+            } else {
+                coveredTo = Math.max(coveredTo, end);
+            }
+        }
+        segmentStarts.add(coveredFrom);
+        segmentEnds.add(coveredTo);
+
+        float threshold = minGap;
+        if (!horizontal && !gaps.isEmpty()) {
+            float[] widths = new float[gaps.size()];
+            for (int i = 0; i < widths.length; i++) {
+                widths[i] = gaps.get(i).width;
+            }
+            Arrays.sort(widths);
+            threshold = Math.max(minGap, widths[widths.length / 2] * MIN_ROW_GAP_SPACING_RATIO);
+        }
+
+        List<Gap> cuts = new ArrayList<>();
+        for (int i = 0; i < gaps.size(); i++) {
+            Gap gap = gaps.get(i);
+            if (gap.width < threshold)
+                continue;
+
+            if (horizontal) {
+                float leftWidth = segmentEnds.get(i) - segmentStarts.get(i);
+                float rightWidth = segmentEnds.get(i + 1) - segmentStarts.get(i + 1);
+                if (leftWidth < gap.width || rightWidth < gap.width)
+                    continue;
+            }
+            cuts.add(gap);
+        }
+        return cuts;
+    }
+
+    private static float widest(List<Gap> gaps) {
+        float widest = 0;
+        for (Gap gap : gaps) {
+            widest = Math.max(widest, gap.width);
+        }
+        return widest;
+    }
+
+    private static class Gap {
+        final float position;
+        final float width;
+
+        Gap(float position, float width) {
+            this.position = position;
+            this.width = width;
+        }
+    }
+}
@@ -0,0 +1,475 @@
+package com.tremorlab.pdfparser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.fontbox.ttf.TrueTypeFont;
+import org.apache.fontbox.util.BoundingBox;
+import org.apache.pdfbox.contentstream.PDFStreamEngine;
+import org.apache.pdfbox.contentstream.operator.DrawObject;
+import org.apache.pdfbox.contentstream.operator.markedcontent.BeginMarkedContentSequence;
+import org.apache.pdfbox.contentstream.operator.markedcontent.BeginMarkedContentSequenceWithProperties;
+import org.apache.pdfbox.contentstream.operator.markedcontent.EndMarkedContentSequence;
+import org.apache.pdfbox.contentstream.operator.state.Concatenate;
+import org.apache.pdfbox.contentstream.operator.state.Restore;
+import org.apache.pdfbox.contentstream.operator.state.Save;
+import org.apache.pdfbox.contentstream.operator.state.SetGraphicsStateParameters;
+import org.apache.pdfbox.contentstream.operator.state.SetMatrix;
+import org.apache.pdfbox.contentstream.operator.text.BeginText;
+import org.apache.pdfbox.contentstream.operator.text.EndText;
+import org.apache.pdfbox.contentstream.operator.text.MoveText;
+import org.apache.pdfbox.contentstream.operator.text.MoveTextSetLeading;
+import org.apache.pdfbox.contentstream.operator.text.NextLine;
+import org.apache.pdfbox.contentstream.operator.text.SetCharSpacing;
+import org.apache.pdfbox.contentstream.operator.text.SetFontAndSize;
+import org.apache.pdfbox.contentstream.operator.text.SetTextHorizontalScaling;
+import org.apache.pdfbox.contentstream.operator.text.SetTextLeading;
+import org.apache.pdfbox.contentstream.operator.text.SetTextRenderingMode;
+import org.apache.pdfbox.contentstream.operator.text.SetTextRise;
+import org.apache.pdfbox.contentstream.operator.text.SetWordSpacing;
+import org.apache.pdfbox.contentstream.operator.text.ShowText;
+import org.apache.pdfbox.contentstream.operator.text.ShowTextAdjusted;
+import org.apache.pdfbox.contentstream.operator.text.ShowTextLine;
+import org.apache.pdfbox.contentstream.operator.text.ShowTextLineAndSpace;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDCIDFont;
+import org.apache.pdfbox.pdmodel.font.PDCIDFontType2;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDFontDescriptor;
+import org.apache.pdfbox.pdmodel.font.PDSimpleFont;
+import org.apache.pdfbox.pdmodel.font.PDTrueTypeFont;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+import org.apache.pdfbox.pdmodel.font.PDType3Font;
+import org.apache.pdfbox.pdmodel.font.encoding.GlyphList;
+import org.apache.pdfbox.pdmodel.graphics.state.PDGraphicsState;
+import org.apache.pdfbox.text.TextPosition;
+import org.apache.pdfbox.util.Matrix;
+import org.apache.pdfbox.util.Vector;
+
+/**
+ * A content stream engine that only collects text positions, for callers
+ * that lay text out themselves and use PDFTextStripper just for its glyphs.
+ *
+ * The same text, text state and graphics state operators are interpreted as
+ * by PDFTextStripper, plus marked content and form XObjects, and glyph
+ * positions are computed the same way, so glyphs come out exactly where the
+ * stripper puts them. Overprinted duplicates are suppressed as the stripper
+ * does. What is left out is the stripper's page writing: article beads, the
+ * sort of every glyph on the page, line and word objects, Unicode
+ * normalization and the text output itself.
+ *
+ * Instead, each page's glyphs are cut into runs in content stream order. A
+ * run ends where the next glyph is on another line, lies further right than a
+ * word gap, or goes back to the left. Runs are passed to
+ * {@link #writeString(String, List)}, the same callback through which the
+ * stripper passes words. ActualText replacements and right-to-left reordering
+ * are not applied.
+ */
+public class LeanTextEngine extends PDFStreamEngine {
+    /** Fraction of a space's width that counts as a word gap, as in PDFTextStripper */
+    private static final float SPACING_TOLERANCE = 0.5f;
+    /** Fraction of the average character width that counts as a word gap, as in PDFTextStripper */
+    private static final float AVERAGE_CHAR_TOLERANCE = 0.3f;
+    /** Side of the grid cells shown characters are filed in, in points */
+    private static final float SHOWN_CELL_SIZE = 8f;
+
+    // Unicode mapping with the additional glyph names PDFTextStripper knows
+    private static final GlyphList GLYPHLIST;
+
+    static {
+        String path = "/org/apache/pdfbox/resources/glyphlist/additional.txt";
+        try (InputStream input = GlyphList.class.getResourceAsStream(path)) {
+            GLYPHLIST = new GlyphList(GlyphList.getAdobeGlyphList(), input);
+        } catch (IOException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private int currentPageNo = 0;
+    private int pageRotation;
+    private PDRectangle pageSize;
+    private Matrix translateMatrix;
+    private boolean sortByPosition = false;
+    private final Map<COSDictionary, Float> fontHeights = new HashMap<>();
+
+    // Glyphs of the current page, and where each character was shown on it
+    private final List<TextPosition> pageGlyphs = new ArrayList<>();
+    private final Map<Long, ShownCell> shownCharacters = new HashMap<>();
+
+    public LeanTextEngine() {
+        addOperator(new BeginText(this));
+        addOperator(new Concatenate(this));
+        addOperator(new DrawObject(this));
+        addOperator(new EndText(this));
+        addOperator(new SetGraphicsStateParameters(this));
+        addOperator(new Save(this));
+        addOperator(new Restore(this));
+        addOperator(new NextLine(this));
+        addOperator(new SetCharSpacing(this));
+        addOperator(new MoveText(this));
+        addOperator(new MoveTextSetLeading(this));
+        addOperator(new SetFontAndSize(this));
+        addOperator(new ShowText(this));
+        addOperator(new ShowTextAdjusted(this));
+        addOperator(new SetTextLeading(this));
+        addOperator(new SetMatrix(this));
+        addOperator(new SetTextRenderingMode(this));
+        addOperator(new SetTextRise(this));
+        addOperator(new SetWordSpacing(this));
+        addOperator(new SetTextHorizontalScaling(this));
+        addOperator(new ShowTextLine(this));
+        addOperator(new ShowTextLineAndSpace(this));
+        addOperator(new BeginMarkedContentSequenceWithProperties(this));
+        addOperator(new BeginMarkedContentSequence(this));
+        addOperator(new EndMarkedContentSequence(this));
+    }
+
+    /**
+     * Set whether the runs of a page are written top to bottom and left to
+     * right instead of in content stream order
+     */
+    public void setSortByPosition(boolean sortByPosition) {
+        this.sortByPosition = sortByPosition;
+    }
+
+    public boolean getSortByPosition() {
+        return sortByPosition;
+    }
+
+    /**
+     * The 1-based number of the page being processed
+     */
+    public int getCurrentPageNo() {
+        return currentPageNo;
+    }
+
+    /**
+     * Process a range of pages of a document; pages without content are
+     * skipped, as by PDFTextStripper
+     *
+     * @param startPage First page (1-based)
+     * @param endPage   Last page (1-based, inclusive)
+     */
+    public void processPages(PDDocument document, int startPage, int endPage) throws IOException {
+        for (int pageNumber = startPage; pageNumber <= endPage; pageNumber++) {
+            PDPage page = document.getPage(pageNumber - 1);
+            currentPageNo = pageNumber;
+            if (page.hasContents()) {
+                processPage(page);
+            }
+        }
+    }
+
+    @Override
+    public void processPage(PDPage page) throws IOException {
+        pageRotation = page.getRotation();
+        pageSize = page.getCropBox();
+        if (Float.compare(pageSize.getLowerLeftX(), 0) == 0 && Float.compare(pageSize.getLowerLeftY(), 0) == 0) {
+            translateMatrix = null;
+        } else {
+            translateMatrix = Matrix.getTranslateInstance(-pageSize.getLowerLeftX(), -pageSize.getLowerLeftY());
+        }
+        pageGlyphs.clear();
+        shownCharacters.clear();
+
+        startPage(page);
+        super.processPage(page);
+        writePage();
+        endPage(page);
+    }
+
+    /**
+     * Called before a page's content stream is processed
+     */
+    protected void startPage(PDPage page) throws IOException {
+    }
+
+    /**
+     * Called after a page's runs have been written
+     */
+    protected void endPage(PDPage page) throws IOException {
+    }
+
+    /**
+     * The glyphs collected from the current page so far
+     */
+    protected List<TextPosition> getPageGlyphs() {
+        return pageGlyphs;
+    }
+
+    /**
+     * Called for every glyph shown. Keeps the glyph unless the same character
+     * was already shown at (nearly) the same place, as faux bold text is;
+     * override to filter glyphs before they are kept.
+     */
+    protected void processTextPosition(TextPosition text) {
+        String character = text.getUnicode();
+        float x = text.getX();
+        float y = text.getY();
+        // Same tolerance and half-open bounds as PDFTextStripper's duplicate check
+        float tolerance = text.getWidth() / character.length() / 3.0f;
+
+        int cellX0 = cell(x - tolerance);
+        int cellX1 = cell(x + tolerance);
+        int cellY0 = cell(y - tolerance);
+        int cellY1 = cell(y + tolerance);
+        for (int cellX = cellX0; cellX <= cellX1; cellX++) {
+            for (int cellY = cellY0; cellY <= cellY1; cellY++) {
+                ShownCell cell = shownCharacters.get(cellKey(cellX, cellY));
+                if (cell != null && cell.contains(character, x - tolerance, x + tolerance, y - tolerance,
+                        y + tolerance))
+                    return;
+            }
+        }
+        shownCharacters.computeIfAbsent(cellKey(cell(x), cell(y)), k -> new ShownCell()).add(character, x, y);
+        pageGlyphs.add(text);
+    }
+
+    private static int cell(float coordinate) {
+        return (int) Math.floor(coordinate / SHOWN_CELL_SIZE);
+    }
+
+    private static long cellKey(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xffffffffL);
+    }
+
+    /**
+     * Called with the text and glyphs of each run on the page
+     */
+    protected void writeString(String text, List<TextPosition> textPositions) throws IOException {
+    }
+
+    /**
+     * Cut the page's glyphs into runs and write them out
+     */
+    protected void writePage() throws IOException {
+        List<List<TextPosition>> runs = cutRuns(pageGlyphs);
+        if (sortByPosition) {
+            runs.sort(Comparator.comparingDouble((List<TextPosition> run) -> run.get(0).getY())
+                    .thenComparingDouble(run -> run.get(0).getX()));
+        }
+        for (List<TextPosition> run : runs) {
+            StringBuilder text = new StringBuilder();
+            for (TextPosition glyph : run) {
+                text.append(glyph.getUnicode());
+            }
+            writeString(text.toString(), run);
+        }
+        pageGlyphs.clear();
+        shownCharacters.clear();
+    }
+
+    /**
+     * Split glyphs in content stream order into runs, using the line overlap
+     * and word gap rules of PDFTextStripper
+     */
+    private static List<List<TextPosition>> cutRuns(List<TextPosition> glyphs) {
+        List<List<TextPosition>> runs = new ArrayList<>();
+        int runStart = 0;
+        float maxY = -Float.MAX_VALUE;
+        float maxHeight = -1;
+        float averageCharWidth = -1;
+        TextPosition last = null;
+
+        for (int i = 0; i < glyphs.size(); i++) {
+            TextPosition glyph = glyphs.get(i);
+            float x = glyph.getX();
+            float y = glyph.getY();
+            float height = glyph.getHeight();
+            float charWidth = glyph.getWidth() / glyph.getIndividualWidths().length;
+
+            if (last != null && (glyph.getFont() != last.getFont()
+                    || Float.compare(glyph.getFontSize(), last.getFontSize()) != 0)) {
+                averageCharWidth = -1;
+            }
+            averageCharWidth = averageCharWidth < 0 ? charWidth : (averageCharWidth + charWidth) / 2f;
+
+            if (last != null) {
+                float spaceWidth = glyph.getWidthOfSpace();
+                float deltaSpace = Float.compare(spaceWidth, 0) == 0 || Float.isNaN(spaceWidth)
+                        ? Float.MAX_VALUE
+                        : spaceWidth * SPACING_TOLERANCE;
+                float gap = x - (last.getX() + last.getWidth());
+                boolean sameLine = overlap(y, height, maxY, maxHeight);
+                boolean wordGap = gap > Math.min(deltaSpace, averageCharWidth * AVERAGE_CHAR_TOLERANCE)
+                        && !last.getUnicode().endsWith(" ");
+                if (!sameLine || wordGap || x < last.getX()) {
+                    runs.add(glyphs.subList(runStart, i));
+                    runStart = i;
+                    maxY = -Float.MAX_VALUE;
+                    maxHeight = -1;
+                }
+            }
+            maxY = Math.max(maxY, y);
+            maxHeight = Math.max(maxHeight, height);
+            last = glyph;
+        }
+        if (runStart < glyphs.size()) {
+            runs.add(glyphs.subList(runStart, glyphs.size()));
+        }
+        return runs;
+    }
+
+    private static boolean overlap(float y1, float height1, float y2, float height2) {
+        return (y2 < y1 + .1f && y2 > y1 - .1f) || (y2 <= y1 && y2 >= y1 - height1)
+                || (y1 <= y2 && y1 >= y2 - height2);
+    }
+
+    /**
+     * Turn a shown glyph into a TextPosition with the positions and sizes
+     * PDFTextStripper would give it
+     */
+    @Override
+    protected void showGlyph(Matrix textRenderingMatrix, PDFont font, int code, Vector displacement)
+            throws IOException {
+        PDGraphicsState state = getGraphicsState();
+        Matrix ctm = state.getCurrentTransformationMatrix();
+        float fontSize = state.getTextState().getFontSize();
+        float horizontalScaling = state.getTextState().getHorizontalScaling() / 100f;
+        Matrix textMatrix = getTextMatrix();
+
+        // Vertical fonts give no usable horizontal displacement, so use the glyph width
+        float displacementX = displacement.getX();
+        if (font.isVertical()) {
+            displacementX = font.getWidth(code) / 1000;
+            TrueTypeFont ttf = null;
+            if (font instanceof PDTrueTypeFont) {
+                ttf = ((PDTrueTypeFont) font).getTrueTypeFont();
+            } else if (font instanceof PDType0Font) {
+                PDCIDFont cidFont = ((PDType0Font) font).getDescendantFont();
+                if (cidFont instanceof PDCIDFontType2) {
+                    ttf = ((PDCIDFontType2) cidFont).getTrueTypeFont();
+                }
+            }
+            if (ttf != null && ttf.getUnitsPerEm() != 1000) {
+                displacementX *= 1000f / ttf.getUnitsPerEm();
+            }
+        }
+
+        // Like the stripper, the advance leaves out character and word spacing
+        float tx = displacementX * fontSize * horizontalScaling;
+        float ty = displacement.getY() * fontSize;
+
+        // Translation of translate(tx, ty) x text matrix x CTM, summed in the
+        // order Matrix.multiply uses but without allocating the products
+        float advancedX = tx * textMatrix.getValue(0, 0) + ty * textMatrix.getValue(1, 0) + textMatrix.getValue(2, 0);
+        float advancedY = tx * textMatrix.getValue(0, 1) + ty * textMatrix.getValue(1, 1) + textMatrix.getValue(2, 1);
+        float nextX = advancedX * ctm.getValue(0, 0) + advancedY * ctm.getValue(1, 0) + ctm.getValue(2, 0);
+        float nextY = advancedX * ctm.getValue(0, 1) + advancedY * ctm.getValue(1, 1) + ctm.getValue(2, 1);
+
+        float dxDisplay = nextX - textRenderingMatrix.getTranslateX();
+        Float fontHeight = fontHeights.get(font.getCOSObject());
+        if (fontHeight == null) {
+            fontHeight = computeFontHeight(font);
+            fontHeights.put(font.getCOSObject(), fontHeight);
+        }
+        float dyDisplay = fontHeight * textRenderingMatrix.getScalingFactorY();
+
+        float glyphSpaceToTextSpaceFactor = font instanceof PDType3Font ? font.getFontMatrix().getScaleX() : 1 / 1000f;
+        float spaceWidthText = 0;
+        try {
+            spaceWidthText = font.getSpaceWidth() * glyphSpaceToTextSpaceFactor;
+        } catch (Exception e) {
+            // Broken width tables are common; fall back to the average width below
+        }
+        if (Float.compare(spaceWidthText, 0) == 0) {
+            spaceWidthText = font.getAverageFontWidth() * glyphSpaceToTextSpaceFactor * .80f;
+        }
+        if (Float.compare(spaceWidthText, 0) == 0) {
+            spaceWidthText = 1.0f;
+        }
+        float spaceWidthDisplay = spaceWidthText * textRenderingMatrix.getScalingFactorX();
+
+        String unicode = font.toUnicode(code, GLYPHLIST);
+        if (unicode == null) {
+            // Simple fonts' codes are taken as characters; unmapped composite font codes are dropped
+            if (!(font instanceof PDSimpleFont))
+                return;
+            unicode = String.valueOf((char) code);
+        }
+
+        Matrix translatedTextRenderingMatrix = textRenderingMatrix;
+        if (translateMatrix != null) {
+            translatedTextRenderingMatrix = Matrix.concatenate(translateMatrix, textRenderingMatrix);
+            nextX -= pageSize.getLowerLeftX();
+            nextY -= pageSize.getLowerLeftY();
+        }
+
+        processTextPosition(new TextPosition(pageRotation, pageSize.getWidth(), pageSize.getHeight(),
+                translatedTextRenderingMatrix, nextX, nextY, Math.abs(dyDisplay), dxDisplay,
+                Math.abs(spaceWidthDisplay), unicode, new int[] { code }, font, fontSize,
+                (int) (fontSize * textMatrix.getScalingFactorX())));
+    }
+
+    /**
+     * Font height in text space as PDFTextStripper estimates it: half the
+     * bounding box, or less if the cap height or ascent and descent say so
+     */
+    private static float computeFontHeight(PDFont font) throws IOException {
+        BoundingBox bbox = font.getBoundingBox();
+        if (bbox.getLowerLeftY() < Short.MIN_VALUE) {
+            bbox.setLowerLeftY(-(bbox.getLowerLeftY() + 65536));
+        }
+        float glyphHeight = bbox.getHeight() / 2;
+
+        PDFontDescriptor fontDescriptor = font.getFontDescriptor();
+        if (fontDescriptor != null) {
+            float capHeight = fontDescriptor.getCapHeight();
+            if (Float.compare(capHeight, 0) != 0
+                    && (capHeight < glyphHeight || Float.compare(glyphHeight, 0) == 0)) {
+                glyphHeight = capHeight;
+            }
+            float ascent = fontDescriptor.getAscent();
+            float descent = fontDescriptor.getDescent();
+            if (capHeight > ascent && ascent > 0 && descent < 0
+                    && ((ascent - descent) / 2 < glyphHeight || Float.compare(glyphHeight, 0) == 0)) {
+                glyphHeight = (ascent - descent) / 2;
+            }
+        }
+
+        if (font instanceof PDType3Font) {
+            return font.getFontMatrix().transformPoint(0, glyphHeight).y;
+        }
+        return glyphHeight / 1000;
+    }
+
+    /**
+     * The characters shown in one grid cell of a page and where
+     */
+    private static class ShownCell {
+        private String[] characters = new String[4];
+        private float[] xs = new float[4];
+        private float[] ys = new float[4];
+        private int size = 0;
+
+        void add(String character, float x, float y) {
+            if (size == xs.length) {
+                characters = Arrays.copyOf(characters, size * 2);
+                xs = Arrays.copyOf(xs, size * 2);
+                ys = Arrays.copyOf(ys, size * 2);
+            }
+            characters[size] = character;
+            xs[size] = x;
+            ys[size] = y;
+            size++;
+        }
+
+        boolean contains(String character, float minX, float maxX, float minY, float maxY) {
+            for (int i = 0; i < size; i++) {
+                if (xs[i] >= minX && xs[i] < maxX && ys[i] >= minY && ys[i] < maxY
+                        && characters[i].equals(character))
+                    return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,533 @@
+package com.tremorlab.pdfparser;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Local load generator for the extraction entry points, for sizing the hosts
+ * that run them.
+ *
+ * A plan file lists the jobs to mix, one per line; blank lines and lines
+ * starting with '#' are ignored:
+ *
+ * <pre>
+ * # mode     weight  pages  margins      file
+ * page       3       1-20   50,50,50,50  manuals/engine.pdf
+ * hierarchy  1       -      -            manuals/airframe.pdf
+ * </pre>
+ *
+ * A "page" job runs {@link SinglePageExtractor#extractPage} on the next page
+ * of its range in turn; a "hierarchy" job runs
+ * {@link HierarchicalPdfExtractor#extractHierarchy} over the whole range. "-"
+ * means all pages or no margins. The file is the rest of the line, relative
+ * to the plan file. Every request opens the document and creates its own
+ * extractor, as a server handling independent requests would.
+ *
+ * Requests are issued either by a fixed number of workers that each start a
+ * new request as soon as the last one finishes (fixed concurrency), or at a
+ * fixed arrival rate regardless of how quickly they complete. At a fixed rate,
+ * latency is measured from the time a request was due rather than when a
+ * worker picked it up, so time spent queued behind a saturated pool counts.
+ */
+public class LoadTest {
+    private static final long HEAP_SAMPLE_MILLIS = 50;
+    private static final double[] PERCENTILES = { 50, 95, 99 };
+
+    /**
+     * Extraction entry point a job drives
+     */
+    public enum Mode {
+        /** SinglePageExtractor.extractPage, one page per request */
+        PAGE,
+        /** HierarchicalPdfExtractor.extractHierarchy over the job's page range */
+        HIERARCHY
+    }
+
+    private final List<Job> jobs;
+    private final int totalWeight;
+    private int concurrency = 1;
+    private double arrivalRate = 0;
+    private long durationMillis = 30_000;
+    private long warmupMillis = 5_000;
+    private Random random = new Random(1);
+
+    public LoadTest(List<Job> jobs) {
+        if (jobs.isEmpty()) {
+            throw new IllegalArgumentException("Load test plan has no jobs");
+        }
+        this.jobs = jobs;
+        int weight = 0;
+        for (Job job : jobs) {
+            weight += job.weight;
+        }
+        this.totalWeight = weight;
+    }
+
+    /**
+     * Set the number of requests in flight, or with an arrival rate, the
+     * number of worker threads serving them
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be 1 or greater");
+        }
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Set the rate requests are issued at, per second, or 0 to issue them as
+     * fast as the workers finish them
+     */
+    public void setArrivalRate(double arrivalRate) {
+        if (arrivalRate < 0) {
+            throw new IllegalArgumentException("Arrival rate cannot be negative");
+        }
+        this.arrivalRate = arrivalRate;
+    }
+
+    /**
+     * Set how long requests are issued and measured, and how long the same
+     * load runs beforehand, unmeasured, to warm up the JIT and caches
+     */
+    public void setDuration(long durationMillis, long warmupMillis) {
+        if (durationMillis <= 0 || warmupMillis < 0) {
+            throw new IllegalArgumentException("Invalid load test duration");
+        }
+        this.durationMillis = durationMillis;
+        this.warmupMillis = warmupMillis;
+    }
+
+    /**
+     * Set the seed of the job mix, so runs with the same plan issue the same
+     * sequence of jobs
+     */
+    public void setSeed(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Read a plan file and check that its documents open and its page ranges
+     * exist
+     *
+     * @throws IOException              If the plan or one of its documents cannot be read
+     * @throws IllegalArgumentException If a line of the plan is malformed
+     */
+    public static List<Job> readPlan(File planFile) throws IOException {
+        List<Job> jobs = new ArrayList<>();
+        File baseDir = planFile.getAbsoluteFile().getParentFile();
+        List<String> lines = Files.readAllLines(planFile.toPath(), StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            String[] fields = line.split("\\s+", 5);
+            if (fields.length < 5) {
+                throw new IllegalArgumentException("Plan line " + (i + 1)
+                        + ": expected mode, weight, pages, margins and file");
+            }
+            try {
+                Mode mode = Mode.valueOf(fields[0].toUpperCase());
+                int weight = Integer.parseInt(fields[1]);
+                if (weight < 1) {
+                    throw new IllegalArgumentException("weight must be 1 or greater");
+                }
+                File pdfFile = new File(fields[4]);
+                if (!pdfFile.isAbsolute()) {
+                    pdfFile = new File(baseDir, fields[4]);
+                }
+                jobs.add(new Job(mode, weight, fields[2], parseMargins(fields[3]), pdfFile));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Plan line " + (i + 1) + ": " + e.getMessage(), e);
+            }
+        }
+        return jobs;
+    }
+
+    private static float[] parseMargins(String field) {
+        if ("-".equals(field))
+            return null;
+        String[] parts = field.split(",");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("margins must be left,top,right,bottom");
+        }
+        float[] margins = new float[4];
+        for (int i = 0; i < 4; i++) {
+            margins[i] = Float.parseFloat(parts[i].trim());
+        }
+        return margins;
+    }
+
+    /**
+     * Warm up, then run the measured load
+     *
+     * @return Throughput, latency and memory figures of the measured run
+     */
+    public Report run() throws InterruptedException {
+        if (warmupMillis > 0) {
+            runPhase(warmupMillis, null);
+        }
+
+        // Start the measured run from a collected heap
+        System.gc();
+        List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+        long[] gcCounts = new long[collectors.size()];
+        long[] gcTimes = new long[collectors.size()];
+        for (int i = 0; i < collectors.size(); i++) {
+            gcCounts[i] = collectors.get(i).getCollectionCount();
+            gcTimes[i] = collectors.get(i).getCollectionTime();
+        }
+
+        AtomicLong peakHeapUsed = new AtomicLong();
+        ScheduledExecutorService heapSampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "load-test-heap-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heapSampler.scheduleAtFixedRate(() -> peakHeapUsed.accumulateAndGet(
+                ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed(), Math::max),
+                0, HEAP_SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+
+        Report report = new Report(this);
+        long start = System.nanoTime();
+        try {
+            runPhase(durationMillis, report);
+        } finally {
+            heapSampler.shutdownNow();
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+
+        report.peakHeapUsed = peakHeapUsed.get();
+        report.maxHeap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MemoryUsage afterGc = pool.getCollectionUsage();
+            if (pool.getType() == MemoryType.HEAP && afterGc != null) {
+                report.heapUsedAfterGc += afterGc.getUsed();
+            }
+        }
+        for (int i = 0; i < collectors.size(); i++) {
+            report.gcNames.add(collectors.get(i).getName());
+            report.gcCounts.add(collectors.get(i).getCollectionCount() - gcCounts[i]);
+            report.gcTimes.add(collectors.get(i).getCollectionTime() - gcTimes[i]);
+        }
+        return report;
+    }
+
+    /**
+     * Issue requests for the given time and wait for them to finish
+     *
+     * @param report Where to record the requests, or null during warmup
+     */
+    private void runPhase(long phaseMillis, Report report) throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(phaseMillis);
+        try {
+            if (arrivalRate > 0) {
+                // Open loop: requests are due at fixed intervals, whether or not earlier ones have finished
+                double intervalNanos = 1_000_000_000.0 / arrivalRate;
+                for (long n = 0;; n++) {
+                    long due = start + (long) (n * intervalNanos);
+                    if (due - end >= 0)
+                        break;
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    Job job = nextJob();
+                    workers.execute(() -> execute(job, due, report));
+                }
+            } else {
+                // Closed loop: each worker starts its next request when the last one finishes
+                for (int i = 0; i < concurrency; i++) {
+                    workers.execute(() -> {
+                        while (System.nanoTime() - end < 0) {
+                            execute(nextJob(), System.nanoTime(), report);
+                        }
+                    });
+                }
+            }
+        } finally {
+            workers.shutdown();
+        }
+        while (!workers.awaitTermination(1, TimeUnit.SECONDS)) {
+            // Requests still queued or running after the issuing period
+        }
+    }
+
+    private Job nextJob() {
+        int pick;
+        synchronized (random) {
+            pick = random.nextInt(totalWeight);
+        }
+        for (Job job : jobs) {
+            pick -= job.weight;
+            if (pick < 0) {
+                return job;
+            }
+        }
+        return jobs.get(jobs.size() - 1);
+    }
+
+    private static void execute(Job job, long startNanos, Report report) {
+        int pages;
+        try {
+            pages = job.run();
+        } catch (Exception e) {
+            if (report != null) {
+                report.recordError(job, e);
+            }
+            return;
+        }
+        if (report != null) {
+            report.record(job, System.nanoTime() - startNanos, pages);
+        }
+    }
+
+    /**
+     * One line of the plan: an entry point, a document and what to extract
+     * from it
+     */
+    public static class Job {
+        private final Mode mode;
+        private final int weight;
+        private final int startPage;
+        private final int endPage;
+        private final File pdfFile;
+        private final String description;
+        // Built once and shared by all worker threads
+        private final SinglePageExtractor pageExtractor;
+        private final HierarchicalPdfExtractor hierarchyExtractor;
+        private final AtomicInteger nextPage = new AtomicInteger();
+
+        public Job(Mode mode, int weight, String pages, float[] margins, File pdfFile) throws IOException {
+            int pageCount;
+            try (PDDocument document = new PdfOpener(pdfFile).open()) {
+                pageCount = document.getNumberOfPages();
+            }
+
+            int start = 1;
+            int end = pageCount;
+            if (!"-".equals(pages)) {
+                String[] range = pages.split("-");
+                start = Integer.parseInt(range[0].trim());
+                end = range.length > 1 ? Integer.parseInt(range[1].trim()) : start;
+            }
+            if (start < 1 || end < start || end > pageCount) {
+                throw new IllegalArgumentException("page range " + pages + " is not within 1-" + pageCount
+                        + " of " + pdfFile.getPath());
+            }
+
+            this.mode = mode;
+            this.weight = weight;
+            this.startPage = start;
+            this.endPage = end;
+            this.pdfFile = pdfFile;
+            this.description = mode.name().toLowerCase() + " " + pdfFile.getName() + " " + start + "-" + end
+                    + (margins != null ? " margins " + margins[0] + "," + margins[1] + "," + margins[2] + ","
+                            + margins[3] : "");
+
+            SinglePageExtractor.Builder pageBuilder = new SinglePageExtractor.Builder();
+            HierarchicalPdfExtractor.Builder hierarchyBuilder = new HierarchicalPdfExtractor.Builder()
+                    .pageRange(start, end);
+            if (margins != null) {
+                pageBuilder.margins(margins[0], margins[1], margins[2], margins[3]);
+                hierarchyBuilder.margins(margins[0], margins[1], margins[2], margins[3]);
+            }
+            this.pageExtractor = pageBuilder.build();
+            this.hierarchyExtractor = hierarchyBuilder.build();
+        }
+
+        /**
+         * Run one request
+         *
+         * @return The number of pages extracted
+         */
+        int run() throws IOException {
+            if (mode == Mode.PAGE) {
+                int page = startPage + Math.floorMod(nextPage.getAndIncrement(), endPage - startPage + 1);
+                pageExtractor.extractPage(pdfFile, page);
+                return 1;
+            }
+
+            hierarchyExtractor.extractHierarchy(pdfFile).close();
+            return endPage - startPage + 1;
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+    /**
+     * Latencies of one job, or of all jobs together
+     */
+    private static class Latencies {
+        private long[] nanos = new long[1024];
+        private int count = 0;
+        private int errors = 0;
+        private String firstError;
+
+        synchronized void add(long latencyNanos) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = latencyNanos;
+        }
+
+        synchronized void addError(Exception e) {
+            if (errors++ == 0) {
+                firstError = e.getClass().getSimpleName() + ": " + e.getMessage();
+            }
+        }
+
+        synchronized String toJson(int indent) {
+            String spaces = " ".repeat(indent);
+            long[] sorted = Arrays.copyOf(nanos, count);
+            Arrays.sort(sorted);
+            long total = 0;
+            for (long latency : sorted) {
+                total += latency;
+            }
+
+            StringBuilder sb = new StringBuilder();
+            sb.append(spaces).append("\"requests\": ").append(count).append(",\n");
+            sb.append(spaces).append("\"errors\": ").append(errors).append(",\n");
+            if (firstError != null) {
+                sb.append(spaces).append("\"firstError\": \"").append(escape(firstError)).append("\",\n");
+            }
+            sb.append(spaces).append("\"latencyMs\": {");
+            if (count > 0) {
+                sb.append("\"mean\": ").append(millis(total / count));
+                for (double percentile : PERCENTILES) {
+                    // Nearest rank
+                    int rank = (int) Math.ceil(percentile / 100 * count);
+                    sb.append(", \"p").append((int) percentile).append("\": ")
+                            .append(millis(sorted[Math.max(0, rank - 1)]));
+                }
+                sb.append(", \"max\": ").append(millis(sorted[count - 1]));
+            }
+            sb.append("}");
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Results of a measured run
+     */
+    public static class Report {
+        private final LoadTest loadTest;
+        private final Latencies overall = new Latencies();
+        private final Latencies[] perJob;
+        private final AtomicLong pages = new AtomicLong();
+        private long elapsedNanos;
+        private long peakHeapUsed;
+        private long maxHeap;
+        private long heapUsedAfterGc;
+        private final List<String> gcNames = new ArrayList<>();
+        private final List<Long> gcCounts = new ArrayList<>();
+        private final List<Long> gcTimes = new ArrayList<>();
+
+        private Report(LoadTest loadTest) {
+            this.loadTest = loadTest;
+            this.perJob = new Latencies[loadTest.jobs.size()];
+            for (int i = 0; i < perJob.length; i++) {
+                perJob[i] = new Latencies();
+            }
+        }
+
+        private void record(Job job, long latencyNanos, int jobPages) {
+            overall.add(latencyNanos);
+            perJob[loadTest.jobs.indexOf(job)].add(latencyNanos);
+            pages.addAndGet(jobPages);
+        }
+
+        private void recordError(Job job, Exception e) {
+            overall.addError(e);
+            perJob[loadTest.jobs.indexOf(job)].addError(e);
+        }
+
+        public String toJson() {
+            double seconds = elapsedNanos / 1e9;
+            long gcTotal = 0;
+            for (long time : gcTimes) {
+                gcTotal += time;
+            }
+
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\n");
+            if (loadTest.arrivalRate > 0) {
+                sb.append("  \"arrivalRate\": ").append(loadTest.arrivalRate).append(",\n");
+                sb.append("  \"workers\": ").append(loadTest.concurrency).append(",\n");
+            } else {
+                sb.append("  \"concurrency\": ").append(loadTest.concurrency).append(",\n");
+            }
+            sb.append("  \"durationMs\": ").append(loadTest.durationMillis).append(",\n");
+            sb.append("  \"warmupMs\": ").append(loadTest.warmupMillis).append(",\n");
+            sb.append("  \"elapsedMs\": ").append(millis(elapsedNanos)).append(",\n");
+            sb.append(overall.toJson(2)).append(",\n");
+            sb.append("  \"requestsPerSecond\": ").append(round(overall.count / seconds)).append(",\n");
+            sb.append("  \"pagesPerSecond\": ").append(round(pages.get() / seconds)).append(",\n");
+            sb.append("  \"heapMb\": {\"max\": ").append(megabytes(maxHeap))
+                    .append(", \"peakUsed\": ").append(megabytes(peakHeapUsed))
+                    .append(", \"usedAfterLastGc\": ").append(megabytes(heapUsedAfterGc)).append("},\n");
+            sb.append("  \"gcTimePercent\": ").append(round(gcTotal * 100 / (elapsedNanos / 1e6)))
+                    .append(",\n");
+            sb.append("  \"gc\": [\n");
+            for (int i = 0; i < gcNames.size(); i++) {
+                sb.append("    {\"name\": \"").append(escape(gcNames.get(i))).append("\", \"collections\": ")
+                        .append(gcCounts.get(i)).append(", \"timeMs\": ").append(gcTimes.get(i)).append("}");
+                sb.append(i < gcNames.size() - 1 ? ",\n" : "\n");
+            }
+            sb.append("  ],\n");
+            sb.append("  \"jobs\": [\n");
+            for (int i = 0; i < perJob.length; i++) {
+                sb.append("    {\n");
+                sb.append("      \"job\": \"").append(escape(loadTest.jobs.get(i).toString())).append("\",\n");
+                sb.append("      \"weight\": ").append(loadTest.jobs.get(i).weight).append(",\n");
+                sb.append(perJob[i].toJson(6)).append("\n");
+                sb.append("    }").append(i < perJob.length - 1 ? ",\n" : "\n");
+            }
+            sb.append("  ]\n");
+            sb.append("}");
+            return sb.toString();
+        }
+    }
+
+    private static double millis(long nanos) {
+        return round(nanos / 1e6);
+    }
+
+    private static double megabytes(long bytes) {
+        return round(bytes / (1024.0 * 1024.0));
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
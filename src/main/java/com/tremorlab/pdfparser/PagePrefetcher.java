@@ -0,0 +1,319 @@
+package com.tremorlab.pdfparser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Speculative page extraction for the annotator's page-by-page workflow.
+ *
+ * Once a page has been served, the pages after it (and the one before it) are
+ * extracted with {@link SinglePageExtractor} on low-priority worker threads
+ * and kept in a small LRU cache, so that turning the page usually finds its
+ * data ready. Moving to another page cancels the prefetches that are still
+ * queued for pages no longer around it. A prefetch that has already started
+ * is left to finish: interrupting a thread that is reading the PDF would close
+ * the file channel its copy of the document depends on.
+ *
+ * Pages can be requested with other margins than the extractor's; the cache
+ * keeps each page once per set of margins it was extracted with.
+ */
+public class PagePrefetcher implements Closeable {
+    private final SinglePageExtractor extractor;
+    private final WorkerDocuments documents;
+    private final ThreadLocal<ResourceMetadataCache> resourceCaches =
+            ThreadLocal.withInitial(ResourceMetadataCache::new);
+    private final PageCache cache;
+    private final ThreadPoolExecutor prefetchExecutor;
+    private final Map<PageKey, Extraction> inFlight = new ConcurrentHashMap<>();
+    private final int pageCount;
+
+    /**
+     * @param source      Opener for the PDF file
+     * @param extractor   Extractor the pages are read with
+     * @param cachedPages Maximum number of extracted pages kept
+     * @param threads     Number of prefetch worker threads
+     */
+    public PagePrefetcher(PdfOpener source, SinglePageExtractor extractor, int cachedPages, int threads)
+            throws IOException {
+        if (cachedPages < 1) {
+            throw new IllegalArgumentException("At least one page must be cached");
+        }
+        this.extractor = extractor;
+        this.documents = new WorkerDocuments(source);
+        this.cache = new PageCache(cachedPages);
+        this.pageCount = documents.get().getNumberOfPages();
+
+        // Prefetching is speculative: when the queue is full, the oldest request is dropped
+        this.prefetchExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 4), runnable -> {
+                    Thread thread = new Thread(runnable, "page-prefetch");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }, this::discardOldest);
+    }
+
+    /**
+     * Drop the oldest queued prefetch to make room for a new one. The dropped
+     * prefetch is no longer in flight, so the page can be scheduled again.
+     */
+    private void discardOldest(Runnable rejected, ThreadPoolExecutor executor) {
+        if (executor.isShutdown())
+            return;
+
+        Runnable oldest = executor.getQueue().poll();
+        if (oldest instanceof Extraction) {
+            Extraction dropped = (Extraction) oldest;
+            inFlight.remove(dropped.pageKey, dropped);
+        }
+        executor.execute(rejected);
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Get the data of a page, extracting it on the calling thread unless it is
+     * cached or already being extracted
+     *
+     * @param pageNumber The 1-based page number
+     */
+    public SinglePageExtractor.PageData getPage(int pageNumber) throws IOException {
+        return getPage(pageNumber, null);
+    }
+
+    /**
+     * Get the data of a page extracted with the given margins
+     *
+     * @param pageNumber The 1-based page number
+     * @param margins    Left, top, right and bottom margin, or null for the
+     *                   extractor's own
+     */
+    public SinglePageExtractor.PageData getPage(int pageNumber, float[] margins) throws IOException {
+        checkPage(pageNumber);
+        PageKey pageKey = new PageKey(pageNumber, margins);
+        while (true) {
+            SinglePageExtractor.PageData pageData = cache.get(pageKey);
+            if (pageData != null) {
+                return pageData;
+            }
+
+            Extraction extraction = schedule(pageKey, false);
+            try {
+                return extraction.get();
+            } catch (CancellationException e) {
+                // A queued prefetch was cancelled before it could be taken over; extract afresh
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while extracting page " + pageNumber, e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IOException("Page extraction failed", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Queue background extractions of the pages following (and the one
+     * preceding) the given page, and cancel the queued ones for pages outside
+     * that window
+     *
+     * @param pageNumber The page the user is currently viewing
+     * @param ahead      How many following pages to extract
+     */
+    public void prefetch(int pageNumber, int ahead) {
+        prefetch(pageNumber, null, ahead);
+    }
+
+    /**
+     * Queue background extractions with the given margins of the pages
+     * around a page, and cancel the queued ones for pages outside that window
+     * or with other margins
+     *
+     * @param pageNumber The page the user is currently viewing
+     * @param margins    Left, top, right and bottom margin, or null for the
+     *                   extractor's own
+     * @param ahead      How many following pages to extract
+     */
+    public void prefetch(int pageNumber, float[] margins, int ahead) {
+        checkPage(pageNumber);
+        int first = Math.max(1, pageNumber - 1);
+        int last = Math.min(pageCount, pageNumber + ahead);
+        PageKey current = new PageKey(pageNumber, margins);
+
+        boolean cancelled = false;
+        for (Extraction extraction : inFlight.values()) {
+            PageKey pageKey = extraction.pageKey;
+            if (extraction.background && (pageKey.pageNumber < first || pageKey.pageNumber > last
+                    || !current.sameMargins(pageKey))) {
+                cancelled |= extraction.cancel(false);
+            }
+        }
+        if (cancelled) {
+            // Drop the cancelled tasks from the queue so they don't hold back the new ones
+            prefetchExecutor.purge();
+        }
+
+        for (int next = pageNumber + 1; next <= last; next++) {
+            prefetchInBackground(new PageKey(next, margins));
+        }
+        if (pageNumber > 1) {
+            prefetchInBackground(new PageKey(pageNumber - 1, margins));
+        }
+    }
+
+    private void prefetchInBackground(PageKey pageKey) {
+        if (!cache.contains(pageKey)) {
+            schedule(pageKey, true);
+        }
+    }
+
+    /**
+     * Register an extraction of the page, or join one already in flight.
+     * Foreground callers run the task on their own thread; if it is still
+     * queued for prefetching, running it here just takes it over.
+     */
+    private Extraction schedule(PageKey pageKey, boolean background) {
+        Extraction extraction = new Extraction(pageKey, background);
+        Extraction existing = inFlight.putIfAbsent(pageKey, extraction);
+        if (existing != null) {
+            extraction = existing;
+        } else if (background) {
+            prefetchExecutor.execute(extraction);
+            return extraction;
+        }
+
+        if (!background) {
+            extraction.run();
+        }
+        return extraction;
+    }
+
+    private SinglePageExtractor.PageData extract(PageKey pageKey) throws IOException {
+        float[] margins = pageKey.margins;
+        SinglePageExtractor pageExtractor = margins == null
+                ? extractor
+                : extractor.withMargins(margins[0], margins[1], margins[2], margins[3]);
+        SinglePageExtractor.PageData pageData = pageExtractor.extractPage(documents.get(), pageKey.pageNumber,
+                resourceCaches.get());
+        cache.put(pageKey, pageData);
+        return pageData;
+    }
+
+    private void checkPage(int pageNumber) {
+        if (pageNumber < 1 || pageNumber > pageCount) {
+            throw new IllegalArgumentException("Page " + pageNumber + " is outside the document (1-" +
+                    pageCount + ")");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        prefetchExecutor.shutdownNow();
+        try {
+            prefetchExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        documents.close();
+    }
+
+    /**
+     * Extraction of one page, removed from the in-flight map once it completes
+     * or is cancelled
+     */
+    private class Extraction extends FutureTask<SinglePageExtractor.PageData> {
+        final PageKey pageKey;
+        final boolean background;
+
+        Extraction(PageKey pageKey, boolean background) {
+            super(() -> extract(pageKey));
+            this.pageKey = pageKey;
+            this.background = background;
+        }
+
+        @Override
+        protected void done() {
+            inFlight.remove(pageKey, this);
+        }
+    }
+
+    /**
+     * A page and the margins it is extracted with
+     */
+    private static class PageKey {
+        final int pageNumber;
+        // Null for the extractor's own margins
+        final float[] margins;
+
+        PageKey(int pageNumber, float[] margins) {
+            if (margins != null && margins.length != 4) {
+                throw new IllegalArgumentException("Margins must be four values: left,top,right,bottom");
+            }
+            this.pageNumber = pageNumber;
+            this.margins = margins != null ? margins.clone() : null;
+        }
+
+        boolean sameMargins(PageKey other) {
+            return Arrays.equals(margins, other.margins);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PageKey))
+                return false;
+            PageKey other = (PageKey) o;
+            return pageNumber == other.pageNumber && sameMargins(other);
+        }
+
+        @Override
+        public int hashCode() {
+            return pageNumber * 31 + Arrays.hashCode(margins);
+        }
+    }
+
+    /**
+     * LRU cache of extracted pages bounded by their number
+     */
+    private static class PageCache {
+        private final int maxPages;
+        private final LinkedHashMap<PageKey, SinglePageExtractor.PageData> pages =
+                new LinkedHashMap<>(16, 0.75f, true);
+
+        PageCache(int maxPages) {
+            this.maxPages = maxPages;
+        }
+
+        synchronized SinglePageExtractor.PageData get(PageKey pageKey) {
+            return pages.get(pageKey);
+        }
+
+        synchronized boolean contains(PageKey pageKey) {
+            return pages.containsKey(pageKey);
+        }
+
+        synchronized void put(PageKey pageKey, SinglePageExtractor.PageData pageData) {
+            pages.put(pageKey, pageData);
+            if (pages.size() > maxPages) {
+                PageKey eldest = pages.keySet().iterator().next();
+                pages.remove(eldest);
+            }
+        }
+    }
+}
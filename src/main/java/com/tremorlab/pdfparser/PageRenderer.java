@@ -0,0 +1,475 @@
+package com.tremorlab.pdfparser;
+
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server-side page rasterizer for the annotator, built on PDFBox's PDFRenderer.
+ *
+ * Pages are rendered at a requested scale and cut into square PNG tiles, which
+ * are kept in an LRU cache bounded by their encoded size. Tiles are addressed
+ * by (page, scale, column, row). Neighbouring pages can be rendered ahead on a
+ * worker pool so that page flips hit the cache. Each rendering thread uses its
+ * own copy of the document.
+ *
+ * Scales range from 0.001 to {@link #MAX_SCALE}. Pages too large to render
+ * whole are rendered one requested tile at a time, and never ahead.
+ */
+public class PageRenderer implements Closeable {
+    /** Pages with more pixels than this are rendered one tile at a time */
+    private static final long MAX_FULL_PAGE_PIXELS = 32L * 1024 * 1024;
+    /** Largest scale factor accepted, 576 DPI */
+    public static final float MAX_SCALE = 8;
+
+    private final WorkerDocuments documents;
+    private final int tileSize;
+    private final TileCache cache;
+    private final ThreadPoolExecutor renderAheadExecutor;
+    private final Map<PageKey, RenderTask> inFlight = new ConcurrentHashMap<>();
+    private final int pageCount;
+
+    /**
+     * @param pdfFile    The PDF file to render
+     * @param tileSize   Tile edge length in pixels
+     * @param cacheBytes Maximum total size of cached encoded tiles
+     * @param threads    Number of render-ahead worker threads
+     */
+    public PageRenderer(File pdfFile, int tileSize, long cacheBytes, int threads) throws IOException {
+        this(new PdfOpener(pdfFile), tileSize, cacheBytes, threads);
+    }
+
+    /**
+     * @param source     Opener for the PDF file to render
+     * @param tileSize   Tile edge length in pixels
+     * @param cacheBytes Maximum total size of cached encoded tiles
+     * @param threads    Number of render-ahead worker threads
+     */
+    public PageRenderer(PdfOpener source, int tileSize, long cacheBytes, int threads) throws IOException {
+        if (tileSize < 16) {
+            throw new IllegalArgumentException("Tile size must be at least 16 pixels");
+        }
+        this.documents = new WorkerDocuments(source);
+        this.tileSize = tileSize;
+        this.cache = new TileCache(cacheBytes);
+        this.pageCount = documents.get().getNumberOfPages();
+
+        // Render-ahead is speculative: when the queue is full, the oldest request is dropped
+        this.renderAheadExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 4), runnable -> {
+                    Thread thread = new Thread(runnable, "page-render-ahead");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }, this::discardOldest);
+    }
+
+    /**
+     * Drop the oldest queued render to make room for a new one. The dropped
+     * render is no longer in flight, so the page can be scheduled again.
+     */
+    private void discardOldest(Runnable rejected, ThreadPoolExecutor executor) {
+        if (executor.isShutdown())
+            return;
+
+        Runnable oldest = executor.getQueue().poll();
+        if (oldest instanceof RenderTask) {
+            RenderTask dropped = (RenderTask) oldest;
+            inFlight.remove(dropped.pageKey, dropped);
+        }
+        executor.execute(rejected);
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Get the pixel size and tile layout of a page at the given scale
+     *
+     * @param pageNumber The 1-based page number
+     * @param scale      Scale factor, 1 = 72 DPI
+     */
+    public TileGrid getTileGrid(int pageNumber, float scale) throws IOException {
+        checkPage(pageNumber);
+        return getTileGrid(new PageKey(pageNumber, scale));
+    }
+
+    /**
+     * Get the tile layout of a page at the scale it is actually rendered at,
+     * the requested scale rounded to the page key's precision
+     */
+    private TileGrid getTileGrid(PageKey pageKey) throws IOException {
+        float scale = pageKey.getScale();
+        PDPage page = documents.get().getPage(pageKey.pageNumber - 1);
+        PDRectangle cropBox = page.getCropBox();
+
+        // Same pixel size computation as PDFRenderer.renderImage
+        int widthPx = (int) Math.max(Math.floor(cropBox.getWidth() * scale), 1);
+        int heightPx = (int) Math.max(Math.floor(cropBox.getHeight() * scale), 1);
+        int rotation = page.getRotation();
+        if (rotation == 90 || rotation == 270) {
+            int swap = widthPx;
+            widthPx = heightPx;
+            heightPx = swap;
+        }
+        return new TileGrid(widthPx, heightPx, tileSize);
+    }
+
+    /**
+     * Get one encoded PNG tile, rendering the page if it is not cached
+     *
+     * @param pageNumber The 1-based page number
+     * @param scale      Scale factor, 1 = 72 DPI
+     * @param column     Tile column, 0-based from the left
+     * @param row        Tile row, 0-based from the top
+     */
+    public byte[] getTile(int pageNumber, float scale, int column, int row) throws IOException {
+        checkPage(pageNumber);
+        PageKey pageKey = new PageKey(pageNumber, scale);
+        TileGrid grid = getTileGrid(pageKey);
+        if (column < 0 || row < 0 || column >= grid.getColumns() || row >= grid.getRows()) {
+            throw new IllegalArgumentException("Tile " + column + "," + row + " is outside the page grid " +
+                    grid.getColumns() + "x" + grid.getRows());
+        }
+
+        TileKey tileKey = new TileKey(pageKey, column, row);
+        byte[] tile = cache.get(tileKey);
+        if (tile != null) {
+            return tile;
+        }
+
+        if (!isWholePage(grid)) {
+            // Too large to hold at once: render only the requested tile
+            tile = renderTile(pageKey, grid, column, row);
+            cache.put(tileKey, tile);
+            return tile;
+        }
+
+        byte[][] tiles = awaitRender(scheduleRender(pageKey, grid, false));
+        return tiles[row * grid.getColumns() + column];
+    }
+
+    /**
+     * Queue background renders of the pages following (and the one preceding)
+     * the given page
+     *
+     * @param pageNumber The page the user is currently viewing
+     * @param scale      Scale factor, 1 = 72 DPI
+     * @param ahead      How many following pages to render
+     */
+    public void renderAhead(int pageNumber, float scale, int ahead) throws IOException {
+        for (int next = pageNumber + 1; next <= Math.min(pageCount, pageNumber + ahead); next++) {
+            renderInBackground(next, scale);
+        }
+        if (pageNumber > 1) {
+            renderInBackground(pageNumber - 1, scale);
+        }
+    }
+
+    private void renderInBackground(int pageNumber, float scale) throws IOException {
+        PageKey pageKey = new PageKey(pageNumber, scale);
+        if (cache.containsAnyTile(pageKey)) {
+            return;
+        }
+        TileGrid grid = getTileGrid(pageKey);
+        if (isWholePage(grid)) {
+            scheduleRender(pageKey, grid, true);
+        }
+    }
+
+    /**
+     * Register a render for the page, or join one already in flight. Foreground
+     * callers run the task on their own thread; if it is still queued for
+     * render-ahead, running it here just takes it over.
+     */
+    private RenderTask scheduleRender(PageKey pageKey, TileGrid grid, boolean background) {
+        RenderTask task = new RenderTask(pageKey, grid);
+        RenderTask existing = inFlight.putIfAbsent(pageKey, task);
+        if (existing != null) {
+            task = existing;
+        } else if (background) {
+            renderAheadExecutor.execute(task);
+            return task;
+        }
+
+        if (!background) {
+            task.run();
+        }
+        return task;
+    }
+
+    private byte[][] awaitRender(RenderTask task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rendering", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Page rendering failed", e.getCause());
+        }
+    }
+
+    private static boolean isWholePage(TileGrid grid) {
+        return (long) grid.getWidth() * grid.getHeight() <= MAX_FULL_PAGE_PIXELS;
+    }
+
+    /**
+     * Render a page and encode it as tiles in row-major order
+     */
+    private byte[][] renderTiles(PageKey pageKey, TileGrid grid) throws IOException {
+        PDFRenderer renderer = new PDFRenderer(documents.get());
+        BufferedImage pageImage = renderer.renderImage(pageKey.pageNumber - 1, pageKey.getScale(), ImageType.RGB);
+        byte[][] tiles = new byte[grid.getColumns() * grid.getRows()][];
+
+        for (int row = 0; row < grid.getRows(); row++) {
+            for (int column = 0; column < grid.getColumns(); column++) {
+                int x = column * tileSize;
+                int y = row * tileSize;
+                int width = Math.min(tileSize, grid.getWidth() - x);
+                int height = Math.min(tileSize, grid.getHeight() - y);
+                tiles[row * grid.getColumns() + column] = encodePng(pageImage.getSubimage(x, y, width, height));
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Render only what falls inside one tile of a page and encode it
+     */
+    private byte[] renderTile(PageKey pageKey, TileGrid grid, int column, int row) throws IOException {
+        PDFRenderer renderer = new PDFRenderer(documents.get());
+        int x = column * tileSize;
+        int y = row * tileSize;
+        int width = Math.min(tileSize, grid.getWidth() - x);
+        int height = Math.min(tileSize, grid.getHeight() - y);
+
+        BufferedImage tileImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = tileImage.createGraphics();
+        try {
+            graphics.setBackground(Color.WHITE);
+            graphics.clearRect(0, 0, width, height);
+            graphics.translate(-x, -y);
+            renderer.renderPageToGraphics(pageKey.pageNumber - 1, graphics, pageKey.getScale());
+        } finally {
+            graphics.dispose();
+        }
+        return encodePng(tileImage);
+    }
+
+    private static byte[] encodePng(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private void checkPage(int pageNumber) {
+        if (pageNumber < 1 || pageNumber > pageCount) {
+            throw new IllegalArgumentException("Page " + pageNumber + " is outside the document (1-" +
+                    pageCount + ")");
+        }
+    }
+
+    /**
+     * Get the total size of the tiles currently cached
+     */
+    public long getCachedBytes() {
+        return cache.getBytes();
+    }
+
+    @Override
+    public void close() throws IOException {
+        renderAheadExecutor.shutdownNow();
+        try {
+            renderAheadExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        documents.close();
+    }
+
+    /**
+     * Render of one page into the tile cache, removed from the in-flight map
+     * once it completes
+     */
+    private class RenderTask extends FutureTask<byte[][]> {
+        final PageKey pageKey;
+
+        RenderTask(PageKey pageKey, TileGrid grid) {
+            super(() -> {
+                byte[][] tiles = renderTiles(pageKey, grid);
+                for (int row = 0; row < grid.getRows(); row++) {
+                    for (int column = 0; column < grid.getColumns(); column++) {
+                        cache.put(new TileKey(pageKey, column, row), tiles[row * grid.getColumns() + column]);
+                    }
+                }
+                return tiles;
+            });
+            this.pageKey = pageKey;
+        }
+
+        @Override
+        protected void done() {
+            inFlight.remove(pageKey, this);
+        }
+    }
+
+    /**
+     * Pixel size and tile layout of a rendered page
+     */
+    public static class TileGrid {
+        private final int width;
+        private final int height;
+        private final int columns;
+        private final int rows;
+
+        TileGrid(int width, int height, int tileSize) {
+            this.width = width;
+            this.height = height;
+            this.columns = (width + tileSize - 1) / tileSize;
+            this.rows = (height + tileSize - 1) / tileSize;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getColumns() {
+            return columns;
+        }
+
+        public int getRows() {
+            return rows;
+        }
+    }
+
+    private static class PageKey {
+        final int pageNumber;
+        // Scale in thousandths so that equal requests hash equally
+        final int milliScale;
+
+        PageKey(int pageNumber, float scale) {
+            // NaN rounds to 0 and infinity to Integer.MAX_VALUE, both rejected
+            int milliScale = Math.round(scale * 1000);
+            if (milliScale < 1 || milliScale > MAX_SCALE * 1000) {
+                throw new IllegalArgumentException("Scale must be between 0.001 and " + MAX_SCALE);
+            }
+            this.pageNumber = pageNumber;
+            this.milliScale = milliScale;
+        }
+
+        float getScale() {
+            return milliScale / 1000f;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PageKey))
+                return false;
+            PageKey other = (PageKey) o;
+            return pageNumber == other.pageNumber && milliScale == other.milliScale;
+        }
+
+        @Override
+        public int hashCode() {
+            return pageNumber * 31 + milliScale;
+        }
+    }
+
+    private static class TileKey {
+        final PageKey page;
+        final int column;
+        final int row;
+
+        TileKey(PageKey page, int column, int row) {
+            this.page = page;
+            this.column = column;
+            this.row = row;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TileKey))
+                return false;
+            TileKey other = (TileKey) o;
+            return page.equals(other.page) && column == other.column && row == other.row;
+        }
+
+        @Override
+        public int hashCode() {
+            return (page.hashCode() * 31 + column) * 31 + row;
+        }
+    }
+
+    /**
+     * LRU cache of encoded tiles bounded by total byte size
+     */
+    private static class TileCache {
+        private final long maxBytes;
+        private final LinkedHashMap<TileKey, byte[]> tiles = new LinkedHashMap<>(64, 0.75f, true);
+        private long bytes = 0;
+
+        TileCache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized byte[] get(TileKey key) {
+            return tiles.get(key);
+        }
+
+        synchronized boolean containsAnyTile(PageKey page) {
+            return tiles.containsKey(new TileKey(page, 0, 0));
+        }
+
+        synchronized void put(TileKey key, byte[] tile) {
+            if (tile.length > maxBytes) {
+                return;
+            }
+            byte[] previous = tiles.put(key, tile);
+            if (previous != null) {
+                bytes -= previous.length;
+            }
+            bytes += tile.length;
+
+            Iterator<byte[]> eldest = tiles.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+
+        synchronized long getBytes() {
+            return bytes;
+        }
+    }
+}
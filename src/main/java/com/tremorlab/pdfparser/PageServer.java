@@ -0,0 +1,174 @@
+package com.tremorlab.pdfparser;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * Minimal local HTTP server that lets the annotator fetch ready-made page
+ * tiles instead of rasterizing pages in the browser, and the extracted data
+ * of each page.
+ *
+ * Endpoints (all GET, bound to the loopback interface):
+ * <ul>
+ * <li>{@code /info} - page count and tile size</li>
+ * <li>{@code /grid?page=N&scale=S} - pixel size and tile layout of a page</li>
+ * <li>{@code /tile?page=N&scale=S&col=C&row=R} - one PNG tile</li>
+ * <li>{@code /page?page=N&margins=L,T,R,B} - text, fonts, images and tables of
+ * a page ({@link SinglePageExtractor.PageData}); margins are optional and
+ * default to those the server was started with</li>
+ * </ul>
+ *
+ * Browsers only let pages of the configured annotator origin read the
+ * responses; pages of any other site get no cross-origin access.
+ */
+public class PageServer {
+    private static final int RENDER_AHEAD_PAGES = 2;
+    private static final int PREFETCH_AHEAD_PAGES = 3;
+
+    private final HttpServer server;
+    private final String allowedOrigin;
+
+    /**
+     * @param allowedOrigin Origin of the annotator, e.g. http://localhost:3000,
+     *                      allowed to read responses; null allows none
+     */
+    public PageServer(PageRenderer renderer, PagePrefetcher pages, int port, String allowedOrigin)
+            throws IOException {
+        this.allowedOrigin = allowedOrigin;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.setExecutor(Executors.newFixedThreadPool(4));
+
+        server.createContext("/info", exchange -> handle(exchange, params -> {
+            String json = "{\"pageCount\": " + renderer.getPageCount() +
+                    ", \"tileSize\": " + renderer.getTileSize() + "}";
+            sendJson(exchange, json);
+        }));
+
+        server.createContext("/grid", exchange -> handle(exchange, params -> {
+            int page = Integer.parseInt(required(params, "page"));
+            float scale = Float.parseFloat(params.getOrDefault("scale", "1"));
+            PageRenderer.TileGrid grid = renderer.getTileGrid(page, scale);
+            String json = "{\"page\": " + page + ", \"scale\": " + scale +
+                    ", \"width\": " + grid.getWidth() + ", \"height\": " + grid.getHeight() +
+                    ", \"columns\": " + grid.getColumns() + ", \"rows\": " + grid.getRows() +
+                    ", \"tileSize\": " + renderer.getTileSize() + "}";
+            sendJson(exchange, json);
+        }));
+
+        server.createContext("/tile", exchange -> handle(exchange, params -> {
+            int page = Integer.parseInt(required(params, "page"));
+            float scale = Float.parseFloat(params.getOrDefault("scale", "1"));
+            int column = Integer.parseInt(required(params, "col"));
+            int row = Integer.parseInt(required(params, "row"));
+
+            byte[] tile = renderer.getTile(page, scale, column, row);
+            renderer.renderAhead(page, scale, RENDER_AHEAD_PAGES);
+
+            exchange.getResponseHeaders().set("Content-Type", "image/png");
+            exchange.getResponseHeaders().set("Cache-Control", "max-age=3600");
+            send(exchange, 200, tile);
+        }));
+
+        server.createContext("/page", exchange -> handle(exchange, params -> {
+            int page = Integer.parseInt(required(params, "page"));
+            float[] margins = null;
+            if (params.containsKey("margins")) {
+                margins = new float[4];
+                App.parseMargins(params.get("margins"), margins);
+            }
+            String json = pages.getPage(page, margins).toJson();
+            pages.prefetch(page, margins, PREFETCH_AHEAD_PAGES);
+            sendJson(exchange, json);
+        }));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private interface RequestHandler {
+        void handle(Map<String, String> params) throws IOException;
+    }
+
+    private void handle(HttpExchange exchange, RequestHandler handler) throws IOException {
+        try {
+            String origin = exchange.getRequestHeaders().getFirst("Origin");
+            if (allowedOrigin != null && allowedOrigin.equals(origin)) {
+                exchange.getResponseHeaders().set("Access-Control-Allow-Origin", origin);
+            }
+            exchange.getResponseHeaders().set("Vary", "Origin");
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Method not allowed");
+                return;
+            }
+            handler.handle(parseQuery(exchange.getRequestURI().getRawQuery()));
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (Exception e) {
+            System.err.println("Error serving " + exchange.getRequestURI() + ": " + e.getMessage());
+            sendError(exchange, 500, e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String required(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing parameter: " + name);
+        }
+        return value;
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null || query.isEmpty())
+            return params;
+
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                try {
+                    params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                            URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+                } catch (UnsupportedEncodingException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        return params;
+    }
+
+    private static void sendJson(HttpExchange exchange, String json) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        send(exchange, 200, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        String escaped = message == null ? "" : message.replace("\\", "\\\\").replace("\"", "\\\"");
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        send(exchange, status, ("{\"error\": \"" + escaped + "\"}").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.tremorlab.pdfparser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A set of 1-based page numbers written as comma-separated pages and ranges,
+ * e.g. "1-3,17,40-55".
+ *
+ * Ranges are kept sorted with overlapping and adjacent ones merged, so
+ * "5-8,1-2,3" and "1-3,5-8" are the same set.
+ */
+public class PageSet {
+    private final int[] starts;
+    private final int[] ends;
+
+    private PageSet(int[] starts, int[] ends) {
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    /**
+     * Parse a page set expression
+     *
+     * @throws IllegalArgumentException If a part is not a page or a range of
+     *                                  pages, or a page is not positive
+     */
+    public static PageSet parse(String expression) {
+        List<int[]> ranges = new ArrayList<>();
+        for (String part : expression.split(",")) {
+            String trimmed = part.trim();
+            if (trimmed.isEmpty())
+                continue;
+
+            int dash = trimmed.indexOf('-');
+            try {
+                int start = Integer.parseInt((dash < 0 ? trimmed : trimmed.substring(0, dash)).trim());
+                int end = dash < 0 ? start : Integer.parseInt(trimmed.substring(dash + 1).trim());
+                if (start <= 0 || end < start) {
+                    throw new IllegalArgumentException("Invalid page range: " + trimmed
+                            + " (pages must be positive and end must be >= start)");
+                }
+                ranges.add(new int[] { start, end });
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid page range: " + trimmed, e);
+            }
+        }
+        if (ranges.isEmpty()) {
+            throw new IllegalArgumentException("Empty page set: " + expression);
+        }
+        return of(ranges);
+    }
+
+    /**
+     * The pages from start to end, inclusive
+     */
+    public static PageSet range(int start, int end) {
+        if (start <= 0 || end < start) {
+            throw new IllegalArgumentException("Invalid page range: start must be positive and end must be >= start");
+        }
+        return new PageSet(new int[] { start }, new int[] { end });
+    }
+
+    private static PageSet of(List<int[]> ranges) {
+        ranges.sort((a, b) -> Integer.compare(a[0], b[0]));
+        int[] starts = new int[ranges.size()];
+        int[] ends = new int[ranges.size()];
+        int count = 0;
+        for (int[] range : ranges) {
+            if (count > 0 && range[0] <= ends[count - 1] + 1) {
+                ends[count - 1] = Math.max(ends[count - 1], range[1]);
+            } else {
+                starts[count] = range[0];
+                ends[count] = range[1];
+                count++;
+            }
+        }
+        return new PageSet(Arrays.copyOf(starts, count), Arrays.copyOf(ends, count));
+    }
+
+    public boolean contains(int pageNumber) {
+        // Index of the last range starting at or before the page
+        int index = Arrays.binarySearch(starts, pageNumber);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        return index >= 0 && pageNumber <= ends[index];
+    }
+
+    public boolean isEmpty() {
+        return starts.length == 0;
+    }
+
+    /**
+     * Whether the set is a single run of consecutive pages
+     */
+    public boolean isContiguous() {
+        return starts.length == 1;
+    }
+
+    public int first() {
+        return starts[0];
+    }
+
+    public int last() {
+        return ends[ends.length - 1];
+    }
+
+    /**
+     * Number of pages in the set
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < starts.length; i++) {
+            size += ends[i] - starts[i] + 1;
+        }
+        return size;
+    }
+
+    /**
+     * The pages of this set that a document with the given number of pages has
+     */
+    public PageSet limitTo(int pageCount) {
+        List<int[]> ranges = new ArrayList<>();
+        for (int i = 0; i < starts.length && starts[i] <= pageCount; i++) {
+            ranges.add(new int[] { starts[i], Math.min(ends[i], pageCount) });
+        }
+        return of(ranges);
+    }
+
+    /**
+     * The page numbers in ascending order
+     */
+    public int[] toArray() {
+        int[] pages = new int[size()];
+        int n = 0;
+        for (int i = 0; i < starts.length; i++) {
+            for (int page = starts[i]; page <= ends[i]; page++) {
+                pages[n++] = page;
+            }
+        }
+        return pages;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < starts.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(starts[i]);
+            if (ends[i] > starts[i]) {
+                sb.append('-').append(ends[i]);
+            }
+        }
+        return sb.toString();
+    }
+}
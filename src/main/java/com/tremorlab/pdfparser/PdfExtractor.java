@@ -1,6 +1,5 @@
 package com.tremorlab.pdfparser;
 
-import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.text.PDFTextStripper;
 
@@ -10,8 +9,14 @@ import java.io.IOException;
 public class PdfExtractor {
 
     public String extractText(File pdfFile) throws IOException {
+        try (PdfOpener source = new PdfOpener(pdfFile)) {
+            return extractText(source);
+        }
+    }
+
+    public String extractText(PdfOpener source) throws IOException {
         String extractedText = "";
-        try (PDDocument document = Loader.loadPDF(pdfFile)) {
+        try (PDDocument document = source.open()) {
             PDFTextStripper pdfStripper = new PDFTextStripper();
             extractedText = pdfStripper.getText(document);
         }
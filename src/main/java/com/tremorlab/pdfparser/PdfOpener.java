@@ -0,0 +1,221 @@
+package com.tremorlab.pdfparser;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.io.RandomAccessStreamCache.StreamCacheCreateFunction;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/**
+ * Opens a PDF with the credentials it needs, optionally decrypting it only
+ * once.
+ *
+ * Loading an encrypted PDF repeats the key derivation every time, and every
+ * object read from it is decrypted again. When a decrypt cache is enabled the
+ * first open saves a decrypted copy of the document, either to a temporary
+ * working file readable only by the current user or to memory, and every later
+ * open loads that copy instead. Unencrypted files are always opened directly.
+ *
+ * An opener is safe to share between threads; each call to {@link #open()}
+ * returns a new document. Closing the opener deletes the working copy.
+ */
+public class PdfOpener implements Closeable {
+    /**
+     * Where the decrypted copy of an encrypted document is kept
+     */
+    public enum DecryptCache {
+        /** Decrypt on every open */
+        NONE,
+        /** Temporary file with owner-only permissions, deleted on close */
+        FILE,
+        /** Byte array on the heap */
+        MEMORY
+    }
+
+    private final File pdfFile;
+    private String password = "";
+    private File keyStoreFile;
+    private String keyAlias;
+    private DecryptCache decryptCache = DecryptCache.NONE;
+    private SharedFontCache fontCache;
+
+    private volatile File decryptedFile;
+    private volatile byte[] decryptedBytes;
+
+    public PdfOpener(File pdfFile) {
+        this.pdfFile = pdfFile;
+    }
+
+    /**
+     * Set the user or owner password, or the keystore password when a
+     * certificate is used
+     */
+    public void setPassword(String password) {
+        this.password = password == null ? "" : password;
+    }
+
+    /**
+     * Set the PKCS#12 keystore holding the certificate and private key for a
+     * document encrypted with public key security
+     *
+     * @param keyStoreFile The keystore file
+     * @param keyAlias     Alias of the key to use, or null for the first one
+     */
+    public void setKeyStore(File keyStoreFile, String keyAlias) {
+        this.keyStoreFile = keyStoreFile;
+        this.keyAlias = keyAlias;
+    }
+
+    /**
+     * Set where a decrypted copy of an encrypted document is kept between opens
+     */
+    public void setDecryptCache(DecryptCache decryptCache) {
+        this.decryptCache = decryptCache;
+    }
+
+    /**
+     * Set a font cache that the documents opened share parsed fonts through,
+     * or null for none
+     */
+    public void setFontCache(SharedFontCache fontCache) {
+        this.fontCache = fontCache;
+    }
+
+    public File getFile() {
+        return pdfFile;
+    }
+
+    /**
+     * Open a new instance of the document with an in-memory stream cache
+     */
+    public PDDocument open() throws IOException {
+        return open(IOUtils.createMemoryOnlyStreamCache());
+    }
+
+    /**
+     * Open a new instance of the document
+     *
+     * @param streamCache Creates the scratch buffers used while decoding streams
+     * @throws IOException If the file cannot be read or the credentials are wrong
+     */
+    public PDDocument open(StreamCacheCreateFunction streamCache) throws IOException {
+        return open(streamCache, true);
+    }
+
+    /**
+     * Open a new instance of the document, optionally without the font cache
+     *
+     * @param streamCache Creates the scratch buffers used while decoding streams
+     * @param shareFonts  Whether the document uses the font cache, if one is set
+     * @throws IOException If the file cannot be read or the credentials are wrong
+     */
+    public PDDocument open(StreamCacheCreateFunction streamCache, boolean shareFonts) throws IOException {
+        PDDocument document = loadDocument(streamCache);
+        if (fontCache != null && shareFonts) {
+            fontCache.attach(document);
+        }
+        return document;
+    }
+
+    private PDDocument loadDocument(StreamCacheCreateFunction streamCache) throws IOException {
+        byte[] bytes = decryptedBytes;
+        if (bytes != null) {
+            return Loader.loadPDF(bytes, "", null, null, streamCache);
+        }
+        File file = decryptedFile;
+        if (file != null) {
+            return Loader.loadPDF(file, streamCache);
+        }
+
+        PDDocument document = load(streamCache);
+        if (decryptCache == DecryptCache.NONE || !document.isEncrypted()) {
+            return document;
+        }
+
+        // Decrypt once, then hand out instances of the decrypted copy
+        synchronized (this) {
+            if (decryptedBytes == null && decryptedFile == null) {
+                try {
+                    saveDecryptedCopy(document);
+                } finally {
+                    document.close();
+                }
+            } else {
+                document.close();
+            }
+        }
+        return loadDocument(streamCache);
+    }
+
+    private PDDocument load(StreamCacheCreateFunction streamCache) throws IOException {
+        if (keyStoreFile == null) {
+            return Loader.loadPDF(pdfFile, password, null, null, streamCache);
+        }
+        try (InputStream keyStore = new FileInputStream(keyStoreFile)) {
+            return Loader.loadPDF(pdfFile, password, keyStore, keyAlias, streamCache);
+        }
+    }
+
+    private void saveDecryptedCopy(PDDocument document) throws IOException {
+        document.setAllSecurityToBeRemoved(true);
+
+        if (decryptCache == DecryptCache.MEMORY) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            document.save(out);
+            decryptedBytes = out.toByteArray();
+            return;
+        }
+
+        Path workingCopy = createPrivateTempFile(".pdf");
+        try {
+            document.save(workingCopy.toFile());
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(workingCopy);
+            throw e;
+        }
+        workingCopy.toFile().deleteOnExit();
+        decryptedFile = workingCopy.toFile();
+    }
+
+    /**
+     * Create a temporary file that only the current user can read or write
+     */
+    static Path createPrivateTempFile(String suffix) throws IOException {
+        try {
+            return Files.createTempFile("pdfparse-", suffix,
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system: restrict the file through the basic permission bits
+            Path path = Files.createTempFile("pdfparse-", suffix);
+            File file = path.toFile();
+            if (!file.setReadable(false, false) || !file.setReadable(true, true)
+                    || !file.setWritable(false, false) || !file.setWritable(true, true)) {
+                Files.deleteIfExists(path);
+                throw new IOException("Cannot restrict access to temporary file " + path);
+            }
+            return path;
+        }
+    }
+
+    /**
+     * Drop the decrypted copy; the working file, if any, is deleted
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        decryptedBytes = null;
+        File file = decryptedFile;
+        decryptedFile = null;
+        if (file != null) {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+}
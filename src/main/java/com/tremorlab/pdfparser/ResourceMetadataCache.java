@@ -0,0 +1,144 @@
+package com.tremorlab.pdfparser;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Document-scoped cache of font and XObject metadata, keyed by COS object
+ * identity.
+ *
+ * Most pages of a document share the same font and XObject dictionaries, so the
+ * metadata is computed once and then copied under each page's resource name.
+ * Everything is read straight from the COS dictionaries: fonts are never
+ * instantiated and image data is never decoded or parsed for color space
+ * information.
+ *
+ * A cache belongs to one open PDDocument and, like the document, is not
+ * thread-safe.
+ */
+public class ResourceMetadataCache {
+    private final Map<COSBase, SinglePageExtractor.FontInfo> fonts = new IdentityHashMap<>();
+    private final Map<COSBase, SinglePageExtractor.ImageInfo> xObjects = new IdentityHashMap<>();
+
+    /**
+     * Get the metadata for a font resource
+     *
+     * @param resourceName The name of the font in the page's resource dictionary
+     * @param font         The font dictionary
+     */
+    public SinglePageExtractor.FontInfo getFontInfo(COSName resourceName, COSDictionary font) {
+        SinglePageExtractor.FontInfo cached = fonts.computeIfAbsent(font, ResourceMetadataCache::describeFont);
+
+        SinglePageExtractor.FontInfo fontInfo = new SinglePageExtractor.FontInfo();
+        fontInfo.setName(cached.getName());
+        fontInfo.setId(resourceName.getName());
+        fontInfo.setEmbedded(cached.isEmbedded());
+        return fontInfo;
+    }
+
+    /**
+     * Get the metadata for an image or form XObject resource
+     *
+     * @param resourceName The name of the XObject in the page's resource dictionary
+     * @param xObject      The XObject stream
+     * @return The metadata, or null if the XObject is neither an image nor a form
+     */
+    public SinglePageExtractor.ImageInfo getImageInfo(COSName resourceName, COSStream xObject) {
+        SinglePageExtractor.ImageInfo cached = xObjects.computeIfAbsent(xObject,
+                ResourceMetadataCache::describeXObject);
+        if (cached.getColorSpace() == null) {
+            return null;
+        }
+
+        boolean isForm = "form".equals(cached.getColorSpace());
+        SinglePageExtractor.ImageInfo imageInfo = new SinglePageExtractor.ImageInfo();
+        imageInfo.setName(isForm ? resourceName.getName() + " (Form)" : resourceName.getName());
+        imageInfo.setWidth(cached.getWidth());
+        imageInfo.setHeight(cached.getHeight());
+        imageInfo.setColorSpace(cached.getColorSpace());
+        imageInfo.setBitsPerComponent(cached.getBitsPerComponent());
+        return imageInfo;
+    }
+
+    private static SinglePageExtractor.FontInfo describeFont(COSBase object) {
+        COSDictionary font = (COSDictionary) object;
+        SinglePageExtractor.FontInfo fontInfo = new SinglePageExtractor.FontInfo();
+
+        String name = font.getNameAsString(COSName.BASE_FONT);
+        if (name == null) {
+            // Type 3 fonts carry an optional /Name instead of /BaseFont
+            name = font.getNameAsString(COSName.NAME);
+        }
+        fontInfo.setName(name);
+
+        COSName subtype = font.getCOSName(COSName.SUBTYPE);
+        if (COSName.TYPE3.equals(subtype)) {
+            // Type 3 glyphs are always defined inside the document
+            fontInfo.setEmbedded(true);
+        } else if (COSName.TYPE0.equals(subtype)) {
+            COSArray descendants = font.getCOSArray(COSName.DESCENDANT_FONTS);
+            COSBase descendant = descendants != null && descendants.size() > 0 ? descendants.getObject(0) : null;
+            fontInfo.setEmbedded(descendant instanceof COSDictionary
+                    && hasEmbeddedProgram((COSDictionary) descendant));
+        } else {
+            fontInfo.setEmbedded(hasEmbeddedProgram(font));
+        }
+        return fontInfo;
+    }
+
+    private static boolean hasEmbeddedProgram(COSDictionary font) {
+        COSDictionary descriptor = font.getCOSDictionary(COSName.FONT_DESC);
+        return descriptor != null && (descriptor.containsKey(COSName.FONT_FILE)
+                || descriptor.containsKey(COSName.FONT_FILE2)
+                || descriptor.containsKey(COSName.FONT_FILE3));
+    }
+
+    private static SinglePageExtractor.ImageInfo describeXObject(COSBase object) {
+        COSStream stream = (COSStream) object;
+        SinglePageExtractor.ImageInfo imageInfo = new SinglePageExtractor.ImageInfo();
+        COSName subtype = stream.getCOSName(COSName.SUBTYPE);
+
+        if (COSName.IMAGE.equals(subtype)) {
+            boolean isMask = stream.getBoolean(COSName.IMAGE_MASK, false);
+            imageInfo.setWidth(stream.getInt(COSName.WIDTH));
+            imageInfo.setHeight(stream.getInt(COSName.HEIGHT));
+            imageInfo.setBitsPerComponent(isMask ? 1 : stream.getInt(COSName.BITS_PER_COMPONENT));
+            imageInfo.setColorSpace(isMask ? "DeviceGray" : getColorSpaceName(stream));
+        } else if (COSName.FORM.equals(subtype)) {
+            COSArray bbox = stream.getCOSArray(COSName.BBOX);
+            if (bbox != null) {
+                PDRectangle rect = new PDRectangle(bbox);
+                imageInfo.setWidth((int) rect.getWidth());
+                imageInfo.setHeight((int) rect.getHeight());
+            }
+            imageInfo.setColorSpace("form");
+        }
+        // Anything else (e.g. PostScript XObjects) keeps a null color space and is ignored
+        return imageInfo;
+    }
+
+    /**
+     * Read the color space family from the image dictionary, e.g. "DeviceRGB"
+     * or "ICCBased", without loading the color space itself
+     */
+    private static String getColorSpaceName(COSStream stream) {
+        COSBase colorSpace = stream.getDictionaryObject(COSName.COLORSPACE, COSName.CS);
+        if (colorSpace instanceof COSName) {
+            return ((COSName) colorSpace).getName();
+        }
+        if (colorSpace instanceof COSArray && ((COSArray) colorSpace).size() > 0) {
+            COSBase family = ((COSArray) colorSpace).getObject(0);
+            if (family instanceof COSName) {
+                return ((COSName) family).getName();
+            }
+        }
+        return "unknown";
+    }
+}
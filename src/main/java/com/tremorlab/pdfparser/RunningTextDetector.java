@@ -0,0 +1,277 @@
+package com.tremorlab.pdfparser;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.text.TextPosition;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Detects running headers and footers (page numbers, running titles, document
+ * classification lines) by looking for text that repeats at the same position
+ * across pages, and turns them into top and bottom margins.
+ *
+ * Only a sample of pages spread evenly over the document is parsed, so the
+ * cost stays bounded on very long documents. Lines in the top and bottom zones
+ * of each sampled page are keyed by their distance from the page edge (in
+ * bands) and by their normalized text, with numbers folded together so that
+ * "Page 3 of 40" and "Page 17 of 40" match. A band counts as running when one of
+ * its texts recurs on enough of the sampled pages.
+ */
+public class RunningTextDetector {
+    /** Fraction of the page height, from either edge, that is searched for running text */
+    private static final float EDGE_ZONE = 0.10f;
+    /** Height of the position bands used to match lines across pages, in points */
+    private static final float BAND_HEIGHT = 4.0f;
+    /** Fraction of the sampled pages a running line must appear on */
+    private static final float MIN_PAGE_FRACTION = 0.3f;
+    private static final int MIN_PAGES = 3;
+    /** Space left between the running text and the computed margin, in points */
+    private static final float PADDING = 2.0f;
+
+    private final int maxSamplePages;
+
+    /**
+     * @param maxSamplePages Maximum number of pages to parse for detection
+     */
+    public RunningTextDetector(int maxSamplePages) {
+        if (maxSamplePages < 1) {
+            throw new IllegalArgumentException("Sample size must be at least 1");
+        }
+        this.maxSamplePages = maxSamplePages;
+    }
+
+    /**
+     * Detect the running header and footer margins of a document
+     *
+     * @param document The open PDF document
+     * @return The detected margins; zero where no running text was found
+     * @throws IOException If there's an error processing the PDF
+     */
+    public Result detect(PDDocument document) throws IOException {
+        int totalPages = document.getNumberOfPages();
+        int samples = Math.min(totalPages, maxSamplePages);
+
+        LineCollector collector = new LineCollector();
+        collector.setSortByPosition(true);
+        int lastPage = 0;
+        for (int i = 0; i < samples; i++) {
+            // Spread the sample evenly from the first to the last page
+            int pageNumber = samples == 1 ? 1 : 1 + (int) ((long) i * (totalPages - 1) / (samples - 1));
+            if (pageNumber == lastPage)
+                continue;
+            lastPage = pageNumber;
+
+            collector.setStartPage(pageNumber);
+            collector.setEndPage(pageNumber);
+            collector.writeText(document, new StringWriter());
+        }
+
+        return analyze(collector.lines, collector.sampledPages);
+    }
+
+    private Result analyze(List<EdgeLine> lines, int sampledPages) {
+        Result result = new Result(sampledPages);
+        int minPages = Math.max(MIN_PAGES, (int) Math.ceil(sampledPages * MIN_PAGE_FRACTION));
+        if (sampledPages < minPages)
+            return result;
+
+        // Pages each (band, text) key occurs on
+        Map<String, Set<Integer>> keyPages = new HashMap<>();
+        for (EdgeLine line : lines) {
+            keyPages.computeIfAbsent(line.key(), k -> new HashSet<>()).add(line.page);
+        }
+
+        // A band is running if at least one text recurs in it on enough of the sample;
+        // other recurring texts in the same band (e.g. alternating chapter titles) go with it
+        Set<String> runningBands = new HashSet<>();
+        for (EdgeLine line : lines) {
+            if (keyPages.get(line.key()).size() >= minPages) {
+                runningBands.add(line.band());
+            }
+        }
+
+        Set<String> runningTexts = new HashSet<>();
+        for (EdgeLine line : lines) {
+            if (!runningBands.contains(line.band()) || keyPages.get(line.key()).size() < 2)
+                continue;
+
+            if (line.top) {
+                result.topMargin = Math.max(result.topMargin, line.maxEdgeDistance + PADDING);
+            } else {
+                result.bottomMargin = Math.max(result.bottomMargin, line.maxEdgeDistance + PADDING);
+            }
+            if (runningTexts.add(line.normalizedText)) {
+                result.runningText.add(line.text);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Normalize line text for matching: lower case, each run of digits folded
+     * to a single '#' and whitespace collapsed
+     */
+    private static String normalize(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+                continue;
+            }
+            if (space) {
+                sb.append(' ');
+                space = false;
+            }
+            if (!Character.isDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+            } else if (i == 0 || !Character.isDigit(text.charAt(i - 1))) {
+                sb.append('#');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Margins derived from the running headers and footers of a document
+     */
+    public static class Result {
+        private final int sampledPages;
+        private float topMargin = 0;
+        private float bottomMargin = 0;
+        private final List<String> runningText = new ArrayList<>();
+
+        Result(int sampledPages) {
+            this.sampledPages = sampledPages;
+        }
+
+        public int getSampledPages() {
+            return sampledPages;
+        }
+
+        /**
+         * Top margin (points from top edge) that excludes the running headers
+         */
+        public float getTopMargin() {
+            return topMargin;
+        }
+
+        /**
+         * Bottom margin (points from bottom edge) that excludes the running footers
+         */
+        public float getBottomMargin() {
+            return bottomMargin;
+        }
+
+        /**
+         * One example of each distinct running header or footer line
+         */
+        public List<String> getRunningText() {
+            return runningText;
+        }
+    }
+
+    /**
+     * A text line near the top or bottom edge of a sampled page
+     */
+    private static class EdgeLine {
+        final int page;
+        final boolean top;
+        /** Distance from the nearest page edge to the near side of the line */
+        final float minEdgeDistance;
+        /** Distance from the nearest page edge to the far side of the line */
+        final float maxEdgeDistance;
+        final String text;
+        final String normalizedText;
+
+        EdgeLine(int page, boolean top, float minEdgeDistance, float maxEdgeDistance, String text) {
+            this.page = page;
+            this.top = top;
+            this.minEdgeDistance = minEdgeDistance;
+            this.maxEdgeDistance = maxEdgeDistance;
+            this.text = text;
+            this.normalizedText = normalize(text);
+        }
+
+        String band() {
+            return (top ? "T" : "B") + Math.round(minEdgeDistance / BAND_HEIGHT);
+        }
+
+        String key() {
+            return band() + "|" + normalizedText;
+        }
+    }
+
+    /**
+     * Collects the lines in the edge zones of each processed page
+     */
+    private static class LineCollector extends PDFTextStripper {
+        final List<EdgeLine> lines = new ArrayList<>();
+        int sampledPages = 0;
+
+        private float pageHeight;
+        private StringBuilder lineText = new StringBuilder();
+        private float lineBaseline = -1;
+        private float lineTop;
+
+        LineCollector() throws IOException {
+            super();
+        }
+
+        @Override
+        protected void startPage(PDPage page) throws IOException {
+            pageHeight = page.getCropBox().getHeight();
+            sampledPages++;
+            super.startPage(page);
+        }
+
+        @Override
+        protected void writeString(String text, List<TextPosition> textPositions) {
+            if (textPositions.isEmpty())
+                return;
+
+            TextPosition first = textPositions.get(0);
+            float baseline = first.getY();
+            if (lineBaseline < 0 || Math.abs(baseline - lineBaseline) > 1) {
+                finishLine();
+                lineBaseline = baseline;
+                lineTop = baseline - first.getHeight();
+            } else {
+                lineText.append(' ');
+                lineTop = Math.min(lineTop, baseline - first.getHeight());
+            }
+            lineText.append(text);
+        }
+
+        @Override
+        protected void endPage(PDPage page) throws IOException {
+            finishLine();
+            super.endPage(page);
+        }
+
+        private void finishLine() {
+            String text = lineText.toString().trim();
+            if (!text.isEmpty()) {
+                float zone = pageHeight * EDGE_ZONE;
+                if (lineBaseline <= zone) {
+                    lines.add(new EdgeLine(getCurrentPageNo(), true, lineTop, lineBaseline, text));
+                } else if (pageHeight - lineTop <= zone) {
+                    lines.add(new EdgeLine(getCurrentPageNo(), false, pageHeight - lineBaseline,
+                            pageHeight - lineTop, text));
+                }
+            }
+            lineText = new StringBuilder();
+            lineBaseline = -1;
+        }
+    }
+}
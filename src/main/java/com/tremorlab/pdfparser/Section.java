@@ -0,0 +1,47 @@
+package com.tremorlab.pdfparser;
+
+import java.util.List;
+
+/**
+ * A section of an extracted document, as read by the JSON output, the section
+ * index and the section manifest. Implemented by {@link DocumentSection} and
+ * by the sections of a {@link CompactDocumentTree}.
+ */
+public interface Section {
+
+    String getTitle();
+
+    /**
+     * Get the section's own text, or null if it has none
+     */
+    String getContent();
+
+    int getLevel();
+
+    /**
+     * Get the 1-based page the section heading is on, or 0 if unknown
+     */
+    int getPageNumber();
+
+    /**
+     * Get the 1-based page the section's own content ends on, or 0 if unknown
+     */
+    int getEndPageNumber();
+
+    /**
+     * Get the digest of the section's own text, or null if not computed
+     */
+    String getContentDigest();
+
+    List<? extends Section> getSubSections();
+
+    /**
+     * Discard built lazy content of this section and its subsections
+     */
+    void releaseContent();
+
+    /**
+     * Convert the section to JSON format, optionally leaving out the content
+     */
+    String toJson(int indent, boolean includeContent);
+}
@@ -0,0 +1,483 @@
+package com.tremorlab.pdfparser;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Full-text inverted index over the sections of one extracted document, stored
+ * in a file that is memory-mapped for queries.
+ *
+ * File layout (big-endian):
+ * <pre>
+ * header    magic, version, section count, term count,
+ *           source offset/length, title offset/length,
+ *           section table offset, term table offset, postings offset, string pool offset
+ * sections  per section: path offset, path length, start page, end page, token count
+ * terms     per term, sorted: term offset, term length, first posting, posting count
+ * postings  per posting, grouped by term and sorted by section: section index, term frequency
+ * strings   UTF-8 bytes of the source path, title, section paths and terms
+ * </pre>
+ * All offsets into the string pool are relative to its start. Every table has
+ * fixed-width entries, so a term is found by binary search over the mapped
+ * term table without reading anything else.
+ */
+public class SectionIndex implements Closeable {
+    public static final String FILE_EXTENSION = ".sidx";
+
+    private static final int MAGIC = 0x53494458; // "SIDX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 56;
+    private static final int SECTION_ENTRY_SIZE = 20;
+    private static final int TERM_ENTRY_SIZE = 16;
+    private static final int POSTING_ENTRY_SIZE = 8;
+    private static final String PATH_SEPARATOR = " > ";
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int sectionCount;
+    private final int termCount;
+    private final String source;
+    private final String title;
+    private final int sectionsOffset;
+    private final int termsOffset;
+    private final int postingsOffset;
+    private final int stringsOffset;
+
+    private SectionIndex(RandomAccessFile file, MappedByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a section index file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported section index version: " + buffer.getInt(4));
+        }
+        this.sectionCount = buffer.getInt(8);
+        this.termCount = buffer.getInt(12);
+        this.sectionsOffset = buffer.getInt(32);
+        this.termsOffset = buffer.getInt(36);
+        this.postingsOffset = buffer.getInt(40);
+        this.stringsOffset = buffer.getInt(44);
+        this.source = readString(buffer.getInt(16), buffer.getInt(20));
+        this.title = readString(buffer.getInt(24), buffer.getInt(28));
+    }
+
+    /**
+     * The index file for a PDF in an index directory: the PDF's file name with
+     * the extension replaced, qualified by its location
+     */
+    public static File fileFor(File indexDir, File pdfFile) {
+        return new File(indexDir, qualifiedName(pdfFile) + FILE_EXTENSION);
+    }
+
+    /**
+     * Name for a file kept per PDF in a shared directory: the PDF's name
+     * without its extension, followed by a hash of its canonical path so that
+     * PDFs of the same name in different directories get different files
+     */
+    static String qualifiedName(File pdfFile) {
+        String name = pdfFile.getName();
+        int extensionIndex = name.lastIndexOf('.');
+        if (extensionIndex > 0) {
+            name = name.substring(0, extensionIndex);
+        }
+
+        String path;
+        try {
+            path = pdfFile.getCanonicalPath();
+        } catch (IOException e) {
+            path = pdfFile.getAbsolutePath();
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] hash = digest.digest(path.getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder(name).append('-');
+        for (int i = 0; i < 4; i++) {
+            sb.append(String.format("%02x", hash[i]));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Open an index file for querying
+     *
+     * @param indexFile The index file written by {@link #write}
+     * @return The mapped index; close it to release the file
+     * @throws IOException If the file cannot be read or is not an index
+     */
+    public static SectionIndex open(File indexFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+        try {
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            return new SectionIndex(file, buffer);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Build the index for an extracted document and write it to a file. Lazy
+     * section content is released again once it has been indexed.
+     *
+     * @param structure The extracted document structure
+     * @param source    Path of the PDF the structure was extracted from
+     * @param indexFile The file to write
+     * @throws IOException If the file cannot be written
+     */
+    public static void write(DocumentTree structure, String source, File indexFile) throws IOException {
+        List<String> paths = new ArrayList<>();
+        List<int[]> pages = new ArrayList<>();
+        List<Integer> tokenCounts = new ArrayList<>();
+        // term -> (section index -> frequency), sorted by term
+        TreeMap<String, TreeMap<Integer, Integer>> postings = new TreeMap<>();
+
+        if (structure.getSections().isEmpty()) {
+            // Without headings the whole text is indexed as a single section
+            addSection(structure.getTitle(), structure.getContent(), 0, 0, paths, pages, tokenCounts, postings);
+        }
+        for (Section section : structure.getSections()) {
+            collectSections(section, "", paths, pages, tokenCounts, postings);
+        }
+
+        // String pool: source, title, section paths, terms
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        int[] sourceRef = appendString(strings, source);
+        int[] titleRef = appendString(strings, structure.getTitle());
+        List<int[]> pathRefs = new ArrayList<>();
+        for (String path : paths) {
+            pathRefs.add(appendString(strings, path));
+        }
+        List<int[]> termRefs = new ArrayList<>();
+        for (String term : postings.keySet()) {
+            termRefs.add(appendString(strings, term));
+        }
+
+        int postingCount = 0;
+        for (TreeMap<Integer, Integer> termPostings : postings.values()) {
+            postingCount += termPostings.size();
+        }
+
+        int sectionsOffset = HEADER_SIZE;
+        int termsOffset = sectionsOffset + paths.size() * SECTION_ENTRY_SIZE;
+        int postingsOffset = termsOffset + postings.size() * TERM_ENTRY_SIZE;
+        int stringsOffset = postingsOffset + postingCount * POSTING_ENTRY_SIZE;
+
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(paths.size());
+            out.writeInt(postings.size());
+            out.writeInt(sourceRef[0]);
+            out.writeInt(sourceRef[1]);
+            out.writeInt(titleRef[0]);
+            out.writeInt(titleRef[1]);
+            out.writeInt(sectionsOffset);
+            out.writeInt(termsOffset);
+            out.writeInt(postingsOffset);
+            out.writeInt(stringsOffset);
+            out.writeLong(0); // Reserved
+
+            for (int i = 0; i < paths.size(); i++) {
+                out.writeInt(pathRefs.get(i)[0]);
+                out.writeInt(pathRefs.get(i)[1]);
+                out.writeInt(pages.get(i)[0]);
+                out.writeInt(pages.get(i)[1]);
+                out.writeInt(tokenCounts.get(i));
+            }
+
+            int firstPosting = 0;
+            int t = 0;
+            for (TreeMap<Integer, Integer> termPostings : postings.values()) {
+                out.writeInt(termRefs.get(t)[0]);
+                out.writeInt(termRefs.get(t)[1]);
+                out.writeInt(firstPosting);
+                out.writeInt(termPostings.size());
+                firstPosting += termPostings.size();
+                t++;
+            }
+
+            for (TreeMap<Integer, Integer> termPostings : postings.values()) {
+                for (Map.Entry<Integer, Integer> posting : termPostings.entrySet()) {
+                    out.writeInt(posting.getKey());
+                    out.writeInt(posting.getValue());
+                }
+            }
+
+            strings.writeTo(out);
+        }
+
+        // Replace the old index only once the new one is complete
+        if (indexFile.exists() && !indexFile.delete()) {
+            throw new IOException("Cannot replace index file " + indexFile.getPath());
+        }
+        if (!tempFile.renameTo(indexFile)) {
+            throw new IOException("Cannot write index file " + indexFile.getPath());
+        }
+    }
+
+    private static void collectSections(Section section, String parentPath, List<String> paths,
+            List<int[]> pages, List<Integer> tokenCounts, TreeMap<String, TreeMap<Integer, Integer>> postings) {
+        String path = parentPath.isEmpty() ? section.getTitle() : parentPath + PATH_SEPARATOR + section.getTitle();
+        String content = section.getContent();
+        addSection(path, section.getTitle() + "\n" + (content == null ? "" : content),
+                section.getPageNumber(), section.getEndPageNumber(), paths, pages, tokenCounts, postings);
+        section.releaseContent();
+
+        for (Section subSection : section.getSubSections()) {
+            collectSections(subSection, path, paths, pages, tokenCounts, postings);
+        }
+    }
+
+    private static void addSection(String path, String text, int startPage, int endPage, List<String> paths,
+            List<int[]> pages, List<Integer> tokenCounts, TreeMap<String, TreeMap<Integer, Integer>> postings) {
+        int sectionIndex = paths.size();
+        paths.add(path == null ? "" : path);
+        pages.add(new int[] { startPage, endPage });
+
+        List<String> tokens = tokenize(text);
+        tokenCounts.add(tokens.size());
+        for (String token : tokens) {
+            postings.computeIfAbsent(token, k -> new TreeMap<>()).merge(sectionIndex, 1, Integer::sum);
+        }
+    }
+
+    private static int[] appendString(ByteArrayOutputStream strings, String value) {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        int[] ref = { strings.size(), bytes.length };
+        strings.write(bytes, 0, bytes.length);
+        return ref;
+    }
+
+    /**
+     * Split text into lower-case terms of letters and digits
+     */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null)
+            return tokens;
+
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                token.append(Character.toLowerCase(c));
+            } else if (token.length() > 0) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        if (token.length() > 0) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public int getSectionCount() {
+        return sectionCount;
+    }
+
+    /**
+     * Find the sections containing every term of a query, best matches first.
+     * Sections are scored by the sum of tf-idf over the query terms.
+     *
+     * @param query Free text query; split into terms like the indexed text
+     * @return The matching sections
+     */
+    public List<Hit> search(String query) {
+        Set<String> terms = new LinkedHashSet<>(tokenize(query));
+        List<Hit> hits = new ArrayList<>();
+        if (terms.isEmpty())
+            return hits;
+
+        // Section index -> accumulated score; only sections matching all terms so far survive
+        Map<Integer, Double> scores = null;
+        for (String term : terms) {
+            int termIndex = findTerm(term);
+            if (termIndex < 0)
+                return hits;
+
+            int entry = termsOffset + termIndex * TERM_ENTRY_SIZE;
+            int firstPosting = buffer.getInt(entry + 8);
+            int postingCount = buffer.getInt(entry + 12);
+            double idf = Math.log(1.0 + (double) sectionCount / postingCount);
+
+            Map<Integer, Double> termScores = new HashMap<>();
+            for (int p = 0; p < postingCount; p++) {
+                int posting = postingsOffset + (firstPosting + p) * POSTING_ENTRY_SIZE;
+                int section = buffer.getInt(posting);
+                if (scores == null || scores.containsKey(section)) {
+                    double previous = scores == null ? 0 : scores.get(section);
+                    termScores.put(section, previous + buffer.getInt(posting + 4) * idf);
+                }
+            }
+            scores = termScores;
+            if (scores.isEmpty())
+                return hits;
+        }
+
+        for (Map.Entry<Integer, Double> score : scores.entrySet()) {
+            int entry = sectionsOffset + score.getKey() * SECTION_ENTRY_SIZE;
+            hits.add(new Hit(source, readString(buffer.getInt(entry), buffer.getInt(entry + 4)),
+                    buffer.getInt(entry + 8), buffer.getInt(entry + 12), score.getValue()));
+        }
+        hits.sort((a, b) -> Double.compare(b.getScore(), a.getScore()));
+        return hits;
+    }
+
+    /**
+     * Find the pages a section and its subsections span, so it can be extracted
+     * without the rest of the document
+     *
+     * @param path The titles of the section
+     * @return {start page, end page}, or null if no section matches or its
+     *         pages are unknown
+     */
+    public int[] findSectionPages(SectionPath path) {
+        for (int i = 0; i < sectionCount; i++) {
+            int entry = sectionsOffset + i * SECTION_ENTRY_SIZE;
+            String sectionPath = readString(buffer.getInt(entry), buffer.getInt(entry + 4));
+            if (!path.matchesJoined(sectionPath))
+                continue;
+
+            int startPage = buffer.getInt(entry + 8);
+            int endPage = buffer.getInt(entry + 12);
+            // Subsections are stored right after their parent
+            String subSectionPrefix = sectionPath + PATH_SEPARATOR;
+            for (int j = i + 1; j < sectionCount; j++) {
+                int subEntry = sectionsOffset + j * SECTION_ENTRY_SIZE;
+                if (!readString(buffer.getInt(subEntry), buffer.getInt(subEntry + 4)).startsWith(subSectionPrefix))
+                    break;
+                endPage = Math.max(endPage, buffer.getInt(subEntry + 12));
+            }
+            return startPage > 0 && endPage >= startPage ? new int[] { startPage, endPage } : null;
+        }
+        return null;
+    }
+
+    /**
+     * Binary search for a term in the sorted term table
+     *
+     * @return The term's index, or -1 if it is not in the index
+     */
+    private int findTerm(String term) {
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = termsOffset + mid * TERM_ENTRY_SIZE;
+            int cmp = readString(buffer.getInt(entry), buffer.getInt(entry + 4)).compareTo(term);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private String readString(int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(stringsOffset + offset);
+        slice.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * A section matching a query
+     */
+    public static class Hit {
+        private final String source;
+        private final String sectionPath;
+        private final int startPage;
+        private final int endPage;
+        private final double score;
+
+        public Hit(String source, String sectionPath, int startPage, int endPage, double score) {
+            this.source = source;
+            this.sectionPath = sectionPath;
+            this.startPage = startPage;
+            this.endPage = endPage;
+            this.score = score;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public String getSectionPath() {
+            return sectionPath;
+        }
+
+        public int getStartPage() {
+            return startPage;
+        }
+
+        public int getEndPage() {
+            return endPage;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        /**
+         * Convert to JSON format
+         */
+        public String toJson(int indent) {
+            String spaces = " ".repeat(indent);
+            StringBuilder sb = new StringBuilder();
+            sb.append(spaces).append("{\n");
+            sb.append(spaces).append("  \"source\": ").append(DocumentSection.jsonEscape(source)).append(",\n");
+            sb.append(spaces).append("  \"section\": ").append(DocumentSection.jsonEscape(sectionPath)).append(",\n");
+            sb.append(spaces).append("  \"startPage\": ").append(startPage).append(",\n");
+            sb.append(spaces).append("  \"endPage\": ").append(endPage).append(",\n");
+            sb.append(spaces).append("  \"score\": ").append(String.format(Locale.ROOT, "%.4f", score)).append("\n");
+            sb.append(spaces).append("}");
+            return sb.toString();
+        }
+    }
+}
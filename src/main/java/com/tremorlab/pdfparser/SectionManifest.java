@@ -0,0 +1,281 @@
+package com.tremorlab.pdfparser;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Content digests of the sections of one edition of a document, to find the
+ * sections that changed in the next edition (see {@link EditionDiff}).
+ *
+ * A manifest file is UTF-8 text: a header line, then one line per section in
+ * document order with its digest, start page, end page and path of titles
+ * ("Chapter 7 &gt; 7.3 Limits"), separated by tabs. Tabs, line breaks and
+ * backslashes in titles are escaped with a backslash. A document without
+ * headings has a single entry with an empty path.
+ */
+public class SectionManifest {
+    public static final String FILE_EXTENSION = ".smf";
+
+    private static final String HEADER = "# section manifest 1";
+    private static final String PATH_SEPARATOR = " > ";
+
+    private final String source;
+    private final List<Entry> entries;
+
+    private SectionManifest(String source, List<Entry> entries) {
+        this.source = source;
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Digest of a section's text. Runs of whitespace, line breaks included,
+     * count as a single space, so text reflowed into different lines keeps its
+     * digest.
+     *
+     * @param lines The lines of the text
+     * @return The first 64 bits of the SHA-256 of the normalized text, in hex
+     */
+    public static String digest(List<String> lines) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        StringBuilder normalized = new StringBuilder();
+        boolean pendingSpace = false;
+        for (String line : lines) {
+            normalized.setLength(0);
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    pendingSpace = true;
+                } else {
+                    if (pendingSpace) {
+                        normalized.append(' ');
+                        pendingSpace = false;
+                    }
+                    normalized.append(c);
+                }
+            }
+            // A line break separates words unless the text has not started yet
+            pendingSpace = normalized.length() > 0 || pendingSpace;
+            digest.update(normalized.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        byte[] hash = digest.digest();
+        StringBuilder hex = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            hex.append(String.format("%02x", hash[i]));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Build the manifest of an extracted document from the digests computed
+     * during extraction
+     *
+     * @param structure The extracted document structure
+     * @param source    Path of the PDF the structure was extracted from
+     * @throws IllegalArgumentException If the structure was extracted without
+     *                                  content digests
+     */
+    public static SectionManifest of(DocumentTree structure, String source) {
+        List<Entry> entries = new ArrayList<>();
+        if (structure.getSections().isEmpty()) {
+            if (structure.getContentDigest() == null) {
+                throw new IllegalArgumentException("Document was extracted without content digests");
+            }
+            entries.add(new Entry("", structure.getContentDigest(), 0, 0, structure, null));
+        }
+        for (Section section : structure.getSections()) {
+            collectEntries(section, "", entries);
+        }
+        return new SectionManifest(source, numberRepeatedPaths(entries));
+    }
+
+    private static void collectEntries(Section section, String parentPath, List<Entry> entries) {
+        String path = parentPath.isEmpty() ? section.getTitle() : parentPath + PATH_SEPARATOR + section.getTitle();
+        if (section.getContentDigest() == null) {
+            throw new IllegalArgumentException("Document was extracted without content digests");
+        }
+        entries.add(new Entry(path, section.getContentDigest(), section.getPageNumber(),
+                section.getEndPageNumber(), null, section));
+        for (Section subSection : section.getSubSections()) {
+            collectEntries(subSection, path, entries);
+        }
+    }
+
+    /**
+     * Key sections by path, with the second and later sections of the same
+     * path numbered in document order
+     */
+    private static List<Entry> numberRepeatedPaths(List<Entry> entries) {
+        Map<String, Integer> occurrences = new HashMap<>();
+        for (Entry entry : entries) {
+            int occurrence = occurrences.merge(entry.path, 1, Integer::sum);
+            entry.key = occurrence == 1 ? entry.path : entry.path + " #" + occurrence;
+        }
+        return entries;
+    }
+
+    /**
+     * Check whether a file is a manifest rather than a PDF
+     */
+    public static boolean isManifest(File file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            return header != null && header.startsWith(HEADER);
+        } catch (java.nio.charset.MalformedInputException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Read a manifest file
+     *
+     * @throws IOException If the file cannot be read or is not a manifest
+     */
+    public static SectionManifest read(File manifestFile) throws IOException {
+        List<String> lines = Files.readAllLines(manifestFile.toPath(), StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).startsWith(HEADER)) {
+            throw new IOException("Not a section manifest: " + manifestFile.getPath());
+        }
+        String source = unescape(lines.get(0).substring(HEADER.length()).trim());
+
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 1; i < lines.size(); i++) {
+            if (lines.get(i).isEmpty())
+                continue;
+
+            String[] fields = lines.get(i).split("\t", 4);
+            if (fields.length < 4) {
+                throw new IOException("Manifest line " + (i + 1) + ": expected digest, pages and path");
+            }
+            try {
+                entries.add(new Entry(unescape(fields[3]), fields[0], Integer.parseInt(fields[1]),
+                        Integer.parseInt(fields[2]), null, null));
+            } catch (NumberFormatException e) {
+                throw new IOException("Manifest line " + (i + 1) + ": invalid page number", e);
+            }
+        }
+        return new SectionManifest(source, numberRepeatedPaths(entries));
+    }
+
+    /**
+     * Write the manifest to a file
+     */
+    public void write(File manifestFile) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(manifestFile.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(HEADER + " " + escape(source) + "\n");
+            for (Entry entry : entries) {
+                writer.write(entry.digest + "\t" + entry.page + "\t" + entry.endPage + "\t" + escape(entry.path)
+                        + "\n");
+            }
+        }
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String text) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                char next = text.charAt(++i);
+                sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get the path of the PDF the manifest was built from
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Get the sections in document order
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * One section of the manifest
+     */
+    public static class Entry {
+        private final String path;
+        private final String digest;
+        private final int page;
+        private final int endPage;
+        private String key;
+
+        // What the content comes from, for a manifest built from an extraction
+        private final DocumentTree structure;
+        private final Section section;
+
+        Entry(String path, String digest, int page, int endPage, DocumentTree structure, Section section) {
+            this.path = path;
+            this.digest = digest;
+            this.page = page;
+            this.endPage = endPage;
+            this.structure = structure;
+            this.section = section;
+        }
+
+        /**
+         * Get the titles from the outermost section down, joined with " &gt; "
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Get the path, followed by " #n" for the n-th section with the same path
+         */
+        public String getKey() {
+            return key;
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+
+        public int getPage() {
+            return page;
+        }
+
+        public int getEndPage() {
+            return endPage;
+        }
+
+        /**
+         * Get the section's text, or null for a manifest read from a file
+         */
+        public String getContent() {
+            if (section != null) {
+                return section.getContent();
+            }
+            return structure != null ? structure.getContent() : null;
+        }
+    }
+}
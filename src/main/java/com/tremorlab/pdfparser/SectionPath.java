@@ -0,0 +1,98 @@
+package com.tremorlab.pdfparser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A section addressed by its titles, e.g. "Chapter 7 &gt; 7.3 Limits".
+ *
+ * Titles are compared case-insensitively with whitespace collapsed, and a
+ * segment also matches a title it is the leading word(s) of, so "7.3" finds
+ * "7.3 Limits". The last segment names the section itself; earlier segments
+ * must match its ancestors in order but may skip levels, so "Chapter 7 &gt;
+ * Limits" finds a "Limits" section anywhere under "Chapter 7".
+ */
+public class SectionPath {
+    public static final String SEPARATOR = ">";
+
+    private final String text;
+    private final List<String> segments;
+
+    private SectionPath(String text, List<String> segments) {
+        this.text = text;
+        this.segments = segments;
+    }
+
+    /**
+     * Parse a path of titles separated by '&gt;'
+     *
+     * @throws IllegalArgumentException If the path has no titles
+     */
+    public static SectionPath parse(String path) {
+        List<String> segments = new ArrayList<>();
+        for (String segment : path.split(SEPARATOR)) {
+            String normalized = normalize(segment);
+            if (!normalized.isEmpty()) {
+                segments.add(normalized);
+            }
+        }
+        if (segments.isEmpty()) {
+            throw new IllegalArgumentException("Empty section path: " + path);
+        }
+        return new SectionPath(path.trim(), Collections.unmodifiableList(segments));
+    }
+
+    /**
+     * Check whether a section with the given titles, outermost first, is the
+     * one this path addresses
+     */
+    public boolean matches(List<String> titles) {
+        if (titles.isEmpty() || !matchesTitle(segments.get(segments.size() - 1), titles.get(titles.size() - 1)))
+            return false;
+
+        // Ancestor segments, innermost first, against ancestor titles
+        int t = titles.size() - 2;
+        for (int s = segments.size() - 2; s >= 0; s--) {
+            while (t >= 0 && !matchesTitle(segments.get(s), titles.get(t))) {
+                t--;
+            }
+            if (t < 0)
+                return false;
+            t--;
+        }
+        return true;
+    }
+
+    /**
+     * Check whether a path as stored in a {@link SectionIndex} ("A &gt; B &gt; C")
+     * is the one this path addresses
+     */
+    public boolean matchesJoined(String joinedTitles) {
+        return matches(Arrays.asList(joinedTitles.split(" " + SEPARATOR + " ")));
+    }
+
+    /**
+     * Check whether a section title matches the last segment
+     */
+    public boolean matchesLast(String title) {
+        return matchesTitle(segments.get(segments.size() - 1), title);
+    }
+
+    private static boolean matchesTitle(String segment, String title) {
+        if (title == null)
+            return false;
+        String normalized = normalize(title);
+        return normalized.equals(segment) || normalized.startsWith(segment + " ");
+    }
+
+    private static String normalize(String text) {
+        return text.trim().replaceAll("\\s+", " ").toLowerCase();
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,334 @@
+package com.tremorlab.pdfparser;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.DefaultResourceCache;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of parsed fonts shared by every document it is attached to, so that
+ * a batch run over volumes embedding the same fonts parses each font program
+ * only once.
+ *
+ * A font is identified by a SHA-256 digest of its dictionary and everything
+ * the dictionary refers to, including the raw bytes of the embedded program
+ * and of its ToUnicode and encoding streams. Two documents therefore share a
+ * font only when it would be read identically from both. Only fonts with an
+ * embedded program are cached; substitutes for non-embedded fonts are already
+ * shared by PDFBox's font mapper. Fonts are evicted least recently used first
+ * once the total size of their streams exceeds the cache's bound. The bound
+ * is approximate: it counts the raw, still encoded stream bytes a font was
+ * read from, not the heap its parsed tables take.
+ *
+ * PDFont builds some of its glyph tables lazily without synchronization, so a
+ * cached font is only handed to the thread that parsed it. A sequential batch
+ * run, or each thread of a long-lived worker pool, reuses fonts across the
+ * documents it opens. Fonts of threads that have ended are dropped, and pools
+ * whose threads end with a single job should open their documents without the
+ * cache (see {@link WorkerDocuments#WorkerDocuments(PdfOpener, boolean)}).
+ */
+public class SharedFontCache {
+    private static final COSName[] FONT_FILES = { COSName.FONT_FILE, COSName.FONT_FILE2, COSName.FONT_FILE3 };
+
+    private final long maxBytes;
+    private final LinkedHashMap<FontKey, CachedFont> fonts = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes = 0;
+    private long hits = 0;
+
+    /**
+     * @param maxBytes Maximum total size of the streams of cached fonts
+     */
+    public SharedFontCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Font cache size must be positive");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Make a document look up its embedded fonts in this cache, and add the
+     * ones it parses. Call before any page of the document is read.
+     */
+    public void attach(PDDocument document) {
+        document.setResourceCache(new DocumentFonts());
+    }
+
+    /**
+     * Get the total size of the streams of the fonts currently cached
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Get how many times a document was given a font parsed for another one
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    private synchronized PDFont get(FontKey key) {
+        CachedFont cached = fonts.get(key);
+        if (cached == null) {
+            return null;
+        }
+        hits++;
+        return cached.font;
+    }
+
+    private synchronized void put(FontKey key, CachedFont font) {
+        if (font.size > maxBytes) {
+            return;
+        }
+
+        // Fonts of threads that have ended can never be handed out again
+        Iterator<CachedFont> cached = fonts.values().iterator();
+        while (cached.hasNext()) {
+            CachedFont other = cached.next();
+            if (!other.owner.isAlive()) {
+                bytes -= other.size;
+                cached.remove();
+            }
+        }
+
+        CachedFont previous = fonts.put(key, font);
+        if (previous != null) {
+            bytes -= previous.size;
+        }
+        bytes += font.size;
+
+        Iterator<CachedFont> eldest = fonts.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().size;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Whether a font dictionary, or its descendant font, has an embedded program
+     */
+    private static boolean hasEmbeddedProgram(COSDictionary font) {
+        COSDictionary descriptorOwner = font;
+        if (COSName.TYPE0.equals(font.getCOSName(COSName.SUBTYPE))) {
+            COSArray descendants = font.getCOSArray(COSName.DESCENDANT_FONTS);
+            if (descendants == null || descendants.size() == 0
+                    || !(descendants.getObject(0) instanceof COSDictionary)) {
+                return false;
+            }
+            descriptorOwner = (COSDictionary) descendants.getObject(0);
+        }
+        COSDictionary descriptor = descriptorOwner.getCOSDictionary(COSName.FONT_DESC);
+        if (descriptor == null) {
+            return false;
+        }
+        for (COSName fontFile : FONT_FILES) {
+            if (descriptor.getDictionaryObject(fontFile) instanceof COSStream) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Digest a font dictionary and everything it refers to. Reading the whole
+     * graph also loads every object of it, so a cached font never goes back to
+     * the document it was parsed from.
+     */
+    private static FontKey digest(COSDictionary font) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        long[] size = { 0 };
+        update(digest, font, new IdentityHashMap<>(), size);
+        return new FontKey(digest.digest(), Thread.currentThread().getId(), size[0]);
+    }
+
+    private static void update(MessageDigest digest, COSBase base, Map<COSBase, Integer> visited, long[] size)
+            throws IOException {
+        if (base instanceof COSObject) {
+            base = ((COSObject) base).getObject();
+        }
+        if (base == null) {
+            digest.update((byte) 'n');
+            return;
+        }
+
+        // Objects reached again are written as a back reference, which also breaks cycles
+        Integer seen = visited.get(base);
+        if (seen != null) {
+            digest.update((byte) 'r');
+            updateLong(digest, seen);
+            return;
+        }
+
+        if (base instanceof COSDictionary) {
+            visited.put(base, visited.size());
+            COSDictionary dictionary = (COSDictionary) base;
+            List<COSName> keys = new ArrayList<>(dictionary.keySet());
+            keys.sort((a, b) -> a.getName().compareTo(b.getName()));
+            digest.update((byte) (base instanceof COSStream ? 's' : 'd'));
+            updateLong(digest, keys.size());
+            for (COSName key : keys) {
+                updateBytes(digest, key.getName().getBytes(StandardCharsets.UTF_8));
+                update(digest, dictionary.getItem(key), visited, size);
+            }
+            if (base instanceof COSStream) {
+                byte[] buffer = new byte[8192];
+                long length = 0;
+                try (InputStream in = ((COSStream) base).createRawInputStream()) {
+                    int n;
+                    while ((n = in.read(buffer)) > 0) {
+                        digest.update(buffer, 0, n);
+                        length += n;
+                    }
+                }
+                updateLong(digest, length);
+                size[0] += length;
+            }
+        } else if (base instanceof COSArray) {
+            visited.put(base, visited.size());
+            COSArray array = (COSArray) base;
+            digest.update((byte) 'a');
+            updateLong(digest, array.size());
+            for (int i = 0; i < array.size(); i++) {
+                update(digest, array.get(i), visited, size);
+            }
+        } else if (base instanceof COSName) {
+            digest.update((byte) '/');
+            updateBytes(digest, ((COSName) base).getName().getBytes(StandardCharsets.UTF_8));
+        } else if (base instanceof COSString) {
+            digest.update((byte) '(');
+            updateBytes(digest, ((COSString) base).getBytes());
+        } else if (base instanceof COSInteger) {
+            digest.update((byte) 'i');
+            updateLong(digest, ((COSInteger) base).longValue());
+        } else if (base instanceof COSFloat) {
+            digest.update((byte) 'f');
+            updateLong(digest, Float.floatToIntBits(((COSFloat) base).floatValue()));
+        } else if (base instanceof COSBoolean) {
+            digest.update((byte) (((COSBoolean) base).getValue() ? 't' : 'b'));
+        } else {
+            digest.update((byte) 'n');
+        }
+    }
+
+    private static void updateBytes(MessageDigest digest, byte[] bytes) {
+        updateLong(digest, bytes.length);
+        digest.update(bytes);
+    }
+
+    private static void updateLong(MessageDigest digest, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            digest.update((byte) (value >>> shift));
+        }
+    }
+
+    /**
+     * A document's resource cache that falls back to the shared fonts
+     */
+    private class DocumentFonts extends DefaultResourceCache {
+        // Keys of fonts looked up but not found, for when PDFBox puts the parsed font
+        private final Map<COSObject, FontKey> pendingKeys = new IdentityHashMap<>();
+
+        @Override
+        public PDFont getFont(COSObject indirect) {
+            PDFont font = super.getFont(indirect);
+            if (font != null) {
+                return font;
+            }
+
+            COSBase base = indirect.getObject();
+            if (!(base instanceof COSDictionary) || !hasEmbeddedProgram((COSDictionary) base)) {
+                return null;
+            }
+            FontKey key;
+            try {
+                key = digest((COSDictionary) base);
+            } catch (IOException e) {
+                // Let PDFBox read the font and report the problem
+                return null;
+            }
+
+            font = get(key);
+            if (font != null) {
+                super.put(indirect, font);
+            } else {
+                pendingKeys.put(indirect, key);
+            }
+            return font;
+        }
+
+        @Override
+        public void put(COSObject indirect, PDFont font) {
+            super.put(indirect, font);
+            FontKey key = pendingKeys.remove(indirect);
+            if (key != null && font != null && font.isEmbedded() && !font.isDamaged()) {
+                SharedFontCache.this.put(key, new CachedFont(font, key.size, Thread.currentThread()));
+            }
+        }
+    }
+
+    private static class FontKey {
+        final byte[] digest;
+        // PDFont is not thread-safe, so each thread has its own fonts
+        final long threadId;
+        final long size;
+
+        FontKey(byte[] digest, long threadId, long size) {
+            this.digest = digest;
+            this.threadId = threadId;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FontKey))
+                return false;
+            FontKey other = (FontKey) o;
+            return threadId == other.threadId && Arrays.equals(digest, other.digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(digest) * 31 + Long.hashCode(threadId);
+        }
+    }
+
+    private static class CachedFont {
+        final PDFont font;
+        final long size;
+        // The thread the font was parsed on and is handed to
+        final Thread owner;
+
+        CachedFont(PDFont font, long size, Thread owner) {
+            this.font = font;
+            this.size = size;
+            this.owner = owner;
+        }
+    }
+}
@@ -1,15 +1,13 @@
 package com.tremorlab.pdfparser;
 
-import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
 import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDResources;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
-import org.apache.pdfbox.pdmodel.font.PDFont;
-import org.apache.pdfbox.pdmodel.graphics.PDXObject;
-import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
-import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
 import org.apache.pdfbox.text.PDFTextStripper;
 import org.apache.pdfbox.text.PDFTextStripperByArea;
 import org.apache.pdfbox.text.TextPosition;
@@ -21,38 +19,111 @@ import java.io.StringWriter;
 import java.util.*;
 
 /**
- * Extractor for detailed information about a single PDF page
+ * Extractor for detailed information about a single PDF page.
+ *
+ * Extractors are configured through a {@link Builder} and immutable, so one
+ * extractor can serve concurrent requests.
  */
 public class SinglePageExtractor {
-    private boolean normalizeText = true;
-    // Add margin settings with default values
-    private float marginLeft = 0;
-    private float marginTop = 0;
-    private float marginRight = 0;
-    private float marginBottom = 0;
-    private boolean useMargins = false;
-
     /**
-     * Set whether text should be normalized for font size inconsistencies
+     * Optional parts of the page data. Page number and dimensions are always
+     * included; each field left out is not computed at all.
      */
-    public void setNormalizeText(boolean normalizeText) {
-        this.normalizeText = normalizeText;
+    public enum Field {
+        FONTS("fonts"),
+        IMAGES("images"),
+        PLAIN_TEXT("plainText"),
+        /** Paragraphs, or the raw runs when text normalization is off */
+        POSITIONED_TEXT("positionedText"),
+        TABLES("tables"),
+        RAW_POSITIONED_TEXT("rawPositionedText"),
+        CONTENT_REGION("regionText.content"),
+        TOP_LEFT_REGION("regionText.topLeft"),
+        TOP_RIGHT_REGION("regionText.topRight"),
+        BOTTOM_LEFT_REGION("regionText.bottomLeft"),
+        BOTTOM_RIGHT_REGION("regionText.bottomRight");
+
+        private static final EnumSet<Field> REGIONS = EnumSet.range(CONTENT_REGION, BOTTOM_RIGHT_REGION);
+
+        private final String jsonName;
+
+        Field(String jsonName) {
+            this.jsonName = jsonName;
+        }
+
+        /**
+         * Name of the field in the page data JSON; regions are written as
+         * "regionText.&lt;region&gt;"
+         */
+        public String getJsonName() {
+            return jsonName;
+        }
+
+        /**
+         * Parse a comma-separated list of JSON field names, e.g.
+         * "plainText,regionText.content". "regionText" stands for all regions.
+         *
+         * @throws IllegalArgumentException If a name is not a field
+         */
+        public static EnumSet<Field> parse(String names) {
+            EnumSet<Field> fields = EnumSet.noneOf(Field.class);
+            for (String part : names.split(",")) {
+                String name = part.trim();
+                if (name.isEmpty())
+                    continue;
+
+                if ("regionText".equals(name)) {
+                    fields.addAll(REGIONS);
+                    continue;
+                }
+                Field field = null;
+                for (Field candidate : values()) {
+                    if (candidate.jsonName.equals(name)) {
+                        field = candidate;
+                    }
+                }
+                if (field == null) {
+                    throw new IllegalArgumentException("Unknown page data field: " + name);
+                }
+                fields.add(field);
+            }
+            return fields;
+        }
+    }
+
+    private final boolean normalizeText;
+    private final boolean layoutAnalysis;
+    private final float marginLeft;
+    private final float marginTop;
+    private final float marginRight;
+    private final float marginBottom;
+    private final boolean useMargins;
+    private final boolean leanText;
+    private final EnumSet<Field> fields;
+
+    private SinglePageExtractor(Builder builder) {
+        this.normalizeText = builder.normalizeText;
+        this.layoutAnalysis = builder.layoutAnalysis;
+        this.marginLeft = builder.marginLeft;
+        this.marginTop = builder.marginTop;
+        this.marginRight = builder.marginRight;
+        this.marginBottom = builder.marginBottom;
+        this.useMargins = builder.useMargins;
+        this.leanText = builder.leanText;
+        this.fields = EnumSet.copyOf(builder.fields);
     }
 
     /**
-     * Set margins to define the content area of interest
-     * 
-     * @param left   Left margin (points from left edge)
-     * @param top    Top margin (points from top edge)
-     * @param right  Right margin (points from right edge)
-     * @param bottom Bottom margin (points from bottom edge)
+     * Get an extractor with the same settings but other margins
      */
-    public void setMargins(float left, float top, float right, float bottom) {
-        this.marginLeft = left;
-        this.marginTop = top;
-        this.marginRight = right;
-        this.marginBottom = bottom;
-        this.useMargins = true;
+    public SinglePageExtractor withMargins(float left, float top, float right, float bottom) {
+        return new Builder()
+                .normalizeText(normalizeText)
+                .layoutAnalysis(layoutAnalysis)
+                .leanText(leanText)
+                .fields(fields)
+                .margins(left, top, right, bottom)
+                .build();
     }
 
     /**
@@ -64,106 +135,133 @@ public class SinglePageExtractor {
      * @throws IOException If there's an error processing the PDF
      */
     public PageData extractPage(File pdfFile, int pageIndex) throws IOException {
+        try (PdfOpener source = new PdfOpener(pdfFile)) {
+            return extractPage(source, pageIndex);
+        }
+    }
+
+    /**
+     * Extract detailed metadata and content from a specific page of a PDF that
+     * may need credentials to open
+     * 
+     * @param source    Opener for the PDF file
+     * @param pageIndex The 1-based page number
+     * @return A PageData object containing page information
+     * @throws IOException If there's an error processing the PDF
+     */
+    public PageData extractPage(PdfOpener source, int pageIndex) throws IOException {
         if (pageIndex < 1) {
             throw new IllegalArgumentException("Page index must be 1 or greater");
         }
 
-        try (PDDocument document = Loader.loadPDF(pdfFile)) {
-            int totalPages = document.getNumberOfPages();
+        try (PDDocument document = source.open()) {
+            return extractPage(document, pageIndex, new ResourceMetadataCache());
+        }
+    }
 
-            if (pageIndex > totalPages) {
-                throw new IllegalArgumentException("Page index " + pageIndex +
-                        " exceeds document length " + totalPages);
-            }
+    /**
+     * Extract detailed metadata and content from a page of an already open
+     * document. Passing the same cache for every page of the document lets
+     * shared fonts and XObjects be described only once.
+     * 
+     * @param document  The open PDF document
+     * @param pageIndex The 1-based page number
+     * @param cache     Resource metadata cache for this document
+     * @return A PageData object containing page information
+     * @throws IOException If there's an error processing the PDF
+     */
+    public PageData extractPage(PDDocument document, int pageIndex, ResourceMetadataCache cache)
+            throws IOException {
+        if (pageIndex < 1) {
+            throw new IllegalArgumentException("Page index must be 1 or greater");
+        }
 
-            // PDFBox uses 0-based indexing internally
-            PDPage page = document.getPage(pageIndex - 1);
-
-            // Create a PageData object to hold all information
-            PageData pageData = new PageData();
-            pageData.setPageNumber(pageIndex);
-            pageData.setTotalPages(totalPages);
-
-            // Extract page dimensions
-            PDRectangle cropBox = page.getCropBox();
-            PDRectangle mediaBox = page.getMediaBox();
-            pageData.setWidth(cropBox.getWidth());
-            pageData.setHeight(cropBox.getHeight());
-            pageData.setMediaBoxWidth(mediaBox.getWidth());
-            pageData.setMediaBoxHeight(mediaBox.getHeight());
-            pageData.setRotation(page.getRotation());
-
-            // Set margins metadata if they're being used
-            if (useMargins) {
-                pageData.setUsingMargins(true);
-                pageData.setMargins(marginLeft, marginTop, marginRight, marginBottom);
-            }
+        int totalPages = document.getNumberOfPages();
+
+        if (pageIndex > totalPages) {
+            throw new IllegalArgumentException("Page index " + pageIndex +
+                    " exceeds document length " + totalPages);
+        }
+
+        // PDFBox uses 0-based indexing internally
+        PDPage page = document.getPage(pageIndex - 1);
+
+        // Create a PageData object to hold all information
+        PageData pageData = new PageData();
+        pageData.setFields(fields);
+        pageData.setPageNumber(pageIndex);
+        pageData.setTotalPages(totalPages);
+
+        // Extract page dimensions
+        PDRectangle cropBox = page.getCropBox();
+        PDRectangle mediaBox = page.getMediaBox();
+        pageData.setWidth(cropBox.getWidth());
+        pageData.setHeight(cropBox.getHeight());
+        pageData.setMediaBoxWidth(mediaBox.getWidth());
+        pageData.setMediaBoxHeight(mediaBox.getHeight());
+        pageData.setRotation(page.getRotation());
+
+        // Set margins metadata if they're being used
+        if (useMargins) {
+            pageData.setUsingMargins(true);
+            pageData.setMargins(marginLeft, marginTop, marginRight, marginBottom);
+        }
 
-            // Extract page resources
-            analyzePageResources(page, pageData);
+        // Extract page resources
+        analyzePageResources(page, pageData, cache);
 
-            // Extract text content using standard text stripper
+        // Extract text content using standard text stripper
+        if (fields.contains(Field.PLAIN_TEXT)) {
             extractBasicText(document, pageIndex, pageData);
+        }
 
-            // Extract text with positioning information
+        // Extract text with positioning information
+        if (fields.contains(Field.POSITIONED_TEXT) || fields.contains(Field.TABLES)
+                || fields.contains(Field.RAW_POSITIONED_TEXT)) {
             extractPositionedText(document, pageIndex, pageData);
+        }
 
-            // Extract text by regions (divide page into quadrants for example)
+        // Extract text by regions (divide page into quadrants for example)
+        if (!Collections.disjoint(fields, Field.REGIONS)) {
             extractTextByRegions(page, pageData);
-
-            return pageData;
         }
+
+        return pageData;
     }
 
     /**
      * Analyze page resources (fonts, images, etc.)
      */
-    private void analyzePageResources(PDPage page, PageData pageData) throws IOException {
+    private void analyzePageResources(PDPage page, PageData pageData, ResourceMetadataCache cache) {
         PDResources resources = page.getResources();
         if (resources == null)
             return;
 
         // Extract font information
         Map<String, FontInfo> fontInfoMap = new HashMap<>();
-        for (COSName fontName : resources.getFontNames()) {
-            PDFont font = resources.getFont(fontName);
-            if (font != null) {
-                FontInfo fontInfo = new FontInfo();
-                fontInfo.setName(font.getName());
-                fontInfo.setId(fontName.getName());
-                fontInfo.setEmbedded(font.isEmbedded());
-                fontInfoMap.put(fontName.getName(), fontInfo);
+        COSDictionary fonts = resources.getCOSObject().getCOSDictionary(COSName.FONT);
+        if (fonts != null && fields.contains(Field.FONTS)) {
+            for (COSName fontName : fonts.keySet()) {
+                COSBase font = fonts.getDictionaryObject(fontName);
+                if (font instanceof COSDictionary) {
+                    fontInfoMap.put(fontName.getName(), cache.getFontInfo(fontName, (COSDictionary) font));
+                }
             }
         }
         pageData.setFonts(fontInfoMap);
 
-        // Extract image information
+        // Extract image and form XObject information
         List<ImageInfo> imageInfoList = new ArrayList<>();
-        for (COSName xObjectName : resources.getXObjectNames()) {
-            PDXObject xObject = resources.getXObject(xObjectName);
-
-            // Check if this XObject is an image
-            if (xObject instanceof PDImageXObject) {
-                PDImageXObject image = (PDImageXObject) xObject;
-                ImageInfo imageInfo = new ImageInfo();
-                imageInfo.setName(xObjectName.getName());
-                imageInfo.setWidth(image.getWidth());
-                imageInfo.setHeight(image.getHeight());
-                imageInfo.setColorSpace(image.getColorSpace() != null ? image.getColorSpace().getName() : "unknown");
-                imageInfo.setBitsPerComponent(image.getBitsPerComponent());
-                imageInfoList.add(imageInfo);
-            }
-            // Check if this XObject is a form (can contain other content)
-            else if (xObject instanceof PDFormXObject) {
-                PDFormXObject form = (PDFormXObject) xObject;
-                // Process form XObjects if needed
-                // This is a simplified example
-                ImageInfo formInfo = new ImageInfo();
-                formInfo.setName(xObjectName.getName() + " (Form)");
-                formInfo.setWidth((int) form.getBBox().getWidth());
-                formInfo.setHeight((int) form.getBBox().getHeight());
-                formInfo.setColorSpace("form");
-                imageInfoList.add(formInfo);
+        COSDictionary xObjects = resources.getCOSObject().getCOSDictionary(COSName.XOBJECT);
+        if (xObjects != null && fields.contains(Field.IMAGES)) {
+            for (COSName xObjectName : xObjects.keySet()) {
+                COSBase xObject = xObjects.getDictionaryObject(xObjectName);
+                if (xObject instanceof COSStream) {
+                    ImageInfo imageInfo = cache.getImageInfo(xObjectName, (COSStream) xObject);
+                    if (imageInfo != null) {
+                        imageInfoList.add(imageInfo);
+                    }
+                }
             }
         }
         pageData.setImages(imageInfoList);
@@ -188,80 +286,143 @@ public class SinglePageExtractor {
         List<PositionedText> rawTextPositions = new ArrayList<>();
 
         // Calculate actual content boundaries based on page dimensions and margins
-        final float pageWidth = pageData.getWidth();
-        final float pageHeight = pageData.getHeight();
-        final float contentMinX = marginLeft;
-        final float contentMinY = marginTop;
-        final float contentMaxX = pageWidth - marginRight;
-        final float contentMaxY = pageHeight - marginBottom;
-
-        PDFTextStripper stripper = new PDFTextStripper() {
-            @Override
-            protected void writeString(String text, List<TextPosition> textPositions) throws IOException {
-                if (textPositions == null || textPositions.isEmpty())
-                    return;
-
-                TextPosition firstPos = textPositions.get(0);
-                TextPosition lastPos = textPositions.get(textPositions.size() - 1);
-
-                // Calculate the bounding box for this text
-                float minX = firstPos.getX();
-                float minY = firstPos.getY() - firstPos.getHeight();
-                float maxX = lastPos.getX() + lastPos.getWidth();
-                float maxY = firstPos.getY();
-
-                // Skip text outside of defined content area if margins are set
-                if (useMargins) {
-                    // Center point of text
-                    float centerX = (minX + maxX) / 2;
-                    float centerY = (minY + maxY) / 2;
-
-                    // Skip if center point is outside the defined content area
-                    if (centerX < contentMinX || centerX > contentMaxX ||
-                            centerY < contentMinY || centerY > contentMaxY) {
+        final ContentBounds contentBounds = useMargins
+                ? ContentBounds.fromMargins(pageData.getWidth(), pageData.getHeight(),
+                        marginLeft, marginTop, marginRight, marginBottom)
+                : null;
+
+        // Ruling lines are collected in the same content stream pass; rotated pages are left alone
+        PDPage page = document.getPage(pageIndex - 1);
+        // Positioned text leaves out the text of tables, so they are detected for it too
+        final TableDetector tableDetector = page.getRotation() % 360 == 0
+                && (fields.contains(Field.TABLES) || fields.contains(Field.POSITIONED_TEXT))
+                ? new TableDetector(page.getCropBox())
+                : null;
+
+        if (leanText) {
+            LeanTextEngine engine = new LeanTextEngine() {
+                @Override
+                protected void processTextPosition(TextPosition text) {
+                    if (contentBounds != null && !contentBounds.contains(text)) {
                         return;
                     }
+                    super.processTextPosition(text);
                 }
 
-                // Create positioned text object
-                PositionedText posText = new PositionedText();
-                posText.setText(text);
-                posText.setX(minX);
-                posText.setY(minY);
-                posText.setWidth(maxX - minX);
-                posText.setHeight(maxY - minY);
-                posText.setFontSize(firstPos.getFontSizeInPt());
-                posText.setFontName(firstPos.getFont().getName());
-                posText.setBaseline(firstPos.getY());
-
-                rawTextPositions.add(posText);
+                @Override
+                protected void writeString(String text, List<TextPosition> textPositions) {
+                    addRun(rawTextPositions, text, textPositions);
+                }
+            };
+            if (tableDetector != null) {
+                tableDetector.register(engine);
             }
-        };
+            engine.setSortByPosition(true);
+            engine.processPages(document, pageIndex, pageIndex);
+        } else {
+            PDFTextStripper stripper = new PDFTextStripper() {
+                {
+                    if (tableDetector != null) {
+                        tableDetector.register(this);
+                    }
+                }
 
-        stripper.setStartPage(pageIndex);
-        stripper.setEndPage(pageIndex);
-        stripper.setSortByPosition(true);
+                @Override
+                protected void processTextPosition(TextPosition text) {
+                    // Drop glyphs outside the content area before they are collected and sorted
+                    if (contentBounds != null && !contentBounds.contains(text)) {
+                        return;
+                    }
+                    super.processTextPosition(text);
+                }
 
-        // This will trigger the writeString method for each text segment
-        StringWriter writer = new StringWriter();
-        stripper.writeText(document, writer);
+                @Override
+                protected void writeString(String text, List<TextPosition> textPositions) {
+                    addRun(rawTextPositions, text, textPositions);
+                }
+            };
+
+            stripper.setStartPage(pageIndex);
+            stripper.setEndPage(pageIndex);
+            stripper.setSortByPosition(true);
+
+            // This will trigger the writeString method for each text segment
+            StringWriter writer = new StringWriter();
+            stripper.writeText(document, writer);
+        }
 
         // Always store raw text positions for reference
         pageData.setRawPositionedText(new ArrayList<>(rawTextPositions));
 
+        // Table text goes into the table cells instead of being merged into paragraphs
+        List<PositionedText> flowText = rawTextPositions;
+        if (tableDetector != null) {
+            pageData.setTables(tableDetector.detectTables(rawTextPositions));
+            if (!pageData.getTables().isEmpty()) {
+                flowText = new ArrayList<>();
+                for (PositionedText run : rawTextPositions) {
+                    if (!tableDetector.isTableText(run)) {
+                        flowText.add(run);
+                    }
+                }
+            }
+        }
+
         // Process text blocks based on normalization setting
+        if (!fields.contains(Field.POSITIONED_TEXT)) {
+            return;
+        }
         if (normalizeText) {
-            // First sort all text by Y position
-            Collections.sort(rawTextPositions, Comparator.comparing(PositionedText::getBaseline));
+            List<PositionedText> paragraphTextList = new ArrayList<>();
+            if (layoutAnalysis) {
+                // Group each column/block region separately so that columns don't interleave
+                for (List<PositionedText> region : new LayoutSegmenter().segment(flowText)) {
+                    region.sort(Comparator.comparing(PositionedText::getBaseline));
+                    paragraphTextList.addAll(groupIntoParagraphs(region));
+                }
+            } else {
+                // First sort all text by Y position
+                Collections.sort(flowText, Comparator.comparing(PositionedText::getBaseline));
 
-            // Group into paragraphs based on Y position and normalize font sizes
-            List<PositionedText> paragraphTextList = groupIntoParagraphs(rawTextPositions);
+                // Group into paragraphs based on Y position and normalize font sizes
+                paragraphTextList = groupIntoParagraphs(flowText);
+            }
             pageData.setPositionedText(paragraphTextList);
         } else {
             pageData.setPositionedText(new ArrayList<>(rawTextPositions));
         }
     }
 
+    /**
+     * Add a run of text written by the text engine, with its bounding box
+     */
+    private static void addRun(List<PositionedText> runs, String text, List<TextPosition> textPositions) {
+        if (textPositions == null || textPositions.isEmpty())
+            return;
+
+        TextPosition firstPos = textPositions.get(0);
+        TextPosition lastPos = textPositions.get(textPositions.size() - 1);
+
+        // Calculate the bounding box for this text
+        float minX = firstPos.getX();
+        float minY = firstPos.getY() - firstPos.getHeight();
+        float maxX = lastPos.getX() + lastPos.getWidth();
+        float maxY = firstPos.getY();
+
+        // Create positioned text object
+        PositionedText posText = new PositionedText();
+        posText.setText(text);
+        posText.setX(minX);
+        posText.setY(minY);
+        posText.setWidth(maxX - minX);
+        posText.setHeight(maxY - minY);
+        posText.setFontSize(firstPos.getFontSizeInPt());
+        posText.setFontName(firstPos.getFont().getName());
+        posText.setBaseline(firstPos.getY());
+
+        runs.add(posText);
+    }
+
     /**
      * Group text positions into paragraphs and normalize font sizes
      */
@@ -439,9 +600,6 @@ public class SinglePageExtractor {
      * Extract text by dividing the page into regions
      */
     private void extractTextByRegions(PDPage page, PageData pageData) throws IOException {
-        PDFTextStripperByArea stripper = new PDFTextStripperByArea();
-        stripper.setSortByPosition(true);
-
         // Define regions based on margins if set
         PDRectangle cropBox = page.getCropBox();
         float width = cropBox.getWidth();
@@ -457,7 +615,6 @@ public class SinglePageExtractor {
 
         // Create a content region
         Rectangle2D contentRegion = new Rectangle2D.Float(effectiveLeft, effectiveTop, contentWidth, contentHeight);
-        stripper.addRegion("content", contentRegion);
 
         // Define and add quadrant regions
         float midX = effectiveLeft + contentWidth / 2;
@@ -472,22 +629,47 @@ public class SinglePageExtractor {
         Rectangle2D bottomRight = new Rectangle2D.Float(midX, midY,
                 contentWidth / 2, contentHeight / 2);
 
-        stripper.addRegion("topLeft", topLeft);
-        stripper.addRegion("topRight", topRight);
-        stripper.addRegion("bottomLeft", bottomLeft);
-        stripper.addRegion("bottomRight", bottomRight);
+        Map<Field, Rectangle2D> quadrants = new EnumMap<>(Field.class);
+        quadrants.put(Field.TOP_LEFT_REGION, topLeft);
+        quadrants.put(Field.TOP_RIGHT_REGION, topRight);
+        quadrants.put(Field.BOTTOM_LEFT_REGION, bottomLeft);
+        quadrants.put(Field.BOTTOM_RIGHT_REGION, bottomRight);
+        quadrants.keySet().retainAll(fields);
+
+        // A stripper hands each glyph to only one of the regions containing it, so
+        // the content region, which overlaps every quadrant, gets a pass of its own
+        Map<String, String> regionText = new HashMap<>();
+        if (fields.contains(Field.CONTENT_REGION)) {
+            extractRegions(page, Collections.singletonMap(Field.CONTENT_REGION, contentRegion), regionText);
+        }
+        if (!quadrants.isEmpty()) {
+            extractRegions(page, quadrants, regionText);
+        }
+
+        pageData.setRegionText(regionText);
+    }
+
+    /**
+     * Extract the text of non-overlapping regions of a page in one pass
+     */
+    private static void extractRegions(PDPage page, Map<Field, Rectangle2D> regions, Map<String, String> regionText)
+            throws IOException {
+        PDFTextStripperByArea stripper = new PDFTextStripperByArea();
+        stripper.setSortByPosition(true);
+        for (Map.Entry<Field, Rectangle2D> region : regions.entrySet()) {
+            stripper.addRegion(regionName(region.getKey()), region.getValue());
+        }
 
         // Extract text from the regions
         stripper.extractRegions(page);
 
-        Map<String, String> regionText = new HashMap<>();
-        regionText.put("content", stripper.getTextForRegion("content"));
-        regionText.put("topLeft", stripper.getTextForRegion("topLeft"));
-        regionText.put("topRight", stripper.getTextForRegion("topRight"));
-        regionText.put("bottomLeft", stripper.getTextForRegion("bottomLeft"));
-        regionText.put("bottomRight", stripper.getTextForRegion("bottomRight"));
+        for (Field field : regions.keySet()) {
+            regionText.put(regionName(field), stripper.getTextForRegion(regionName(field)));
+        }
+    }
 
-        pageData.setRegionText(regionText);
+    private static String regionName(Field field) {
+        return field.getJsonName().substring("regionText.".length());
     }
 
     /**
@@ -506,7 +688,9 @@ public class SinglePageExtractor {
         private List<ImageInfo> images = new ArrayList<>();
         private List<PositionedText> positionedText = new ArrayList<>();
         private List<PositionedText> rawPositionedText = new ArrayList<>();
+        private List<TableInfo> tables = new ArrayList<>();
         private Map<String, String> regionText = new HashMap<>();
+        private Set<Field> fields = EnumSet.allOf(Field.class);
         // Add margin information
         private boolean usingMargins = false;
         private float marginLeft = 0;
@@ -515,6 +699,17 @@ public class SinglePageExtractor {
         private float marginBottom = 0;
 
         // Getters and setters
+        /**
+         * Get the fields that were extracted and are written out by {@link #toJson()}
+         */
+        public Set<Field> getFields() {
+            return fields;
+        }
+
+        public void setFields(Set<Field> fields) {
+            this.fields = fields;
+        }
+
         public int getPageNumber() {
             return pageNumber;
         }
@@ -611,6 +806,14 @@ public class SinglePageExtractor {
             this.rawPositionedText = rawPositionedText;
         }
 
+        public List<TableInfo> getTables() {
+            return tables;
+        }
+
+        public void setTables(List<TableInfo> tables) {
+            this.tables = tables;
+        }
+
         public Map<String, String> getRegionText() {
             return regionText;
         }
@@ -678,76 +881,104 @@ public class SinglePageExtractor {
             }
 
             // Fonts
-            sb.append("  \"fonts\": [\n");
-            if (!fonts.isEmpty()) {
-                int i = 0;
-                for (FontInfo font : fonts.values()) {
-                    sb.append(font.toJson(4));
-                    if (++i < fonts.size()) {
-                        sb.append(",");
+            if (fields.contains(Field.FONTS)) {
+                sb.append("  \"fonts\": [\n");
+                if (!fonts.isEmpty()) {
+                    int i = 0;
+                    for (FontInfo font : fonts.values()) {
+                        sb.append(font.toJson(4));
+                        if (++i < fonts.size()) {
+                            sb.append(",");
+                        }
+                        sb.append("\n");
                     }
-                    sb.append("\n");
                 }
+                sb.append("  ],\n");
             }
-            sb.append("  ],\n");
 
             // Images
-            sb.append("  \"images\": [\n");
-            if (!images.isEmpty()) {
-                for (int i = 0; i < images.size(); i++) {
-                    sb.append(images.get(i).toJson(4));
-                    if (i < images.size() - 1) {
-                        sb.append(",");
+            if (fields.contains(Field.IMAGES)) {
+                sb.append("  \"images\": [\n");
+                if (!images.isEmpty()) {
+                    for (int i = 0; i < images.size(); i++) {
+                        sb.append(images.get(i).toJson(4));
+                        if (i < images.size() - 1) {
+                            sb.append(",");
+                        }
+                        sb.append("\n");
                     }
-                    sb.append("\n");
                 }
+                sb.append("  ],\n");
             }
-            sb.append("  ],\n");
 
             // Text content
-            sb.append("  \"plainText\": ").append(jsonEscape(plainText)).append(",\n");
+            if (fields.contains(Field.PLAIN_TEXT)) {
+                sb.append("  \"plainText\": ").append(jsonEscape(plainText)).append(",\n");
+            }
 
             // Positioned text (normalized/grouped into paragraphs)
-            sb.append("  \"positionedText\": [\n");
-            if (!positionedText.isEmpty()) {
-                for (int i = 0; i < positionedText.size(); i++) {
-                    sb.append(positionedText.get(i).toJson(4));
-                    if (i < positionedText.size() - 1) {
+            if (fields.contains(Field.POSITIONED_TEXT)) {
+                sb.append("  \"positionedText\": [\n");
+                if (!positionedText.isEmpty()) {
+                    for (int i = 0; i < positionedText.size(); i++) {
+                        sb.append(positionedText.get(i).toJson(4));
+                        if (i < positionedText.size() - 1) {
+                            sb.append(",");
+                        }
+                        sb.append("\n");
+                    }
+                }
+                sb.append("  ],\n");
+            }
+
+            // Tables detected from ruling lines
+            if (fields.contains(Field.TABLES)) {
+                sb.append("  \"tables\": [\n");
+                for (int i = 0; i < tables.size(); i++) {
+                    sb.append(tables.get(i).toJson(4));
+                    if (i < tables.size() - 1) {
                         sb.append(",");
                     }
                     sb.append("\n");
                 }
+                sb.append("  ],\n");
             }
-            sb.append("  ],\n");
 
             // Raw positioned text (for debugging)
-            sb.append("  \"rawPositionedText\": [\n");
-            if (!rawPositionedText.isEmpty()) {
-                for (int i = 0; i < rawPositionedText.size(); i++) {
-                    sb.append(rawPositionedText.get(i).toJson(4));
-                    if (i < rawPositionedText.size() - 1) {
-                        sb.append(",");
+            if (fields.contains(Field.RAW_POSITIONED_TEXT)) {
+                sb.append("  \"rawPositionedText\": [\n");
+                if (!rawPositionedText.isEmpty()) {
+                    for (int i = 0; i < rawPositionedText.size(); i++) {
+                        sb.append(rawPositionedText.get(i).toJson(4));
+                        if (i < rawPositionedText.size() - 1) {
+                            sb.append(",");
+                        }
+                        sb.append("\n");
                     }
-                    sb.append("\n");
                 }
+                sb.append("  ],\n");
             }
-            sb.append("  ],\n");
 
             // Region text
-            sb.append("  \"regionText\": {\n");
-            if (!regionText.isEmpty()) {
-                int i = 0;
-                for (Map.Entry<String, String> entry : regionText.entrySet()) {
-                    sb.append("    ").append(jsonEscape(entry.getKey())).append(": ")
-                            .append(jsonEscape(entry.getValue()));
-                    if (++i < regionText.size()) {
-                        sb.append(",");
+            if (!Collections.disjoint(fields, Field.REGIONS)) {
+                sb.append("  \"regionText\": {\n");
+                if (!regionText.isEmpty()) {
+                    int i = 0;
+                    for (Map.Entry<String, String> entry : regionText.entrySet()) {
+                        sb.append("    ").append(jsonEscape(entry.getKey())).append(": ")
+                                .append(jsonEscape(entry.getValue()));
+                        if (++i < regionText.size()) {
+                            sb.append(",");
+                        }
+                        sb.append("\n");
                     }
-                    sb.append("\n");
                 }
+                sb.append("  },\n");
             }
-            sb.append("  }\n");
 
+            // No comma after the last field
+            sb.setLength(sb.length() - 2);
+            sb.append("\n");
             sb.append("}");
             return sb.toString();
         }
@@ -908,6 +1139,199 @@ public class SinglePageExtractor {
         }
     }
 
+    /**
+     * Class to hold a table detected from ruling lines
+     */
+    public static class TableInfo {
+        private final float[] rowLines;
+        private final float[] columnLines;
+        private final List<TableCell> cells = new ArrayList<>();
+        private final int[][] cellGrid;
+
+        /**
+         * @param rowLines    Sorted y positions of the horizontal rulings
+         * @param columnLines Sorted x positions of the vertical rulings
+         */
+        public TableInfo(float[] rowLines, float[] columnLines) {
+            this.rowLines = rowLines;
+            this.columnLines = columnLines;
+            this.cellGrid = new int[rowLines.length - 1][columnLines.length - 1];
+        }
+
+        public float getX() {
+            return columnLines[0];
+        }
+
+        public float getY() {
+            return rowLines[0];
+        }
+
+        public float getWidth() {
+            return columnLines[columnLines.length - 1] - columnLines[0];
+        }
+
+        public float getHeight() {
+            return rowLines[rowLines.length - 1] - rowLines[0];
+        }
+
+        public int getRows() {
+            return rowLines.length - 1;
+        }
+
+        public int getColumns() {
+            return columnLines.length - 1;
+        }
+
+        public List<TableCell> getCells() {
+            return cells;
+        }
+
+        public void addCell(TableCell cell) {
+            for (int column = cell.getColumn(); column < cell.getColumn() + cell.getColSpan(); column++) {
+                cellGrid[cell.getRow()][column] = cells.size();
+            }
+            cells.add(cell);
+        }
+
+        /**
+         * Get the cell containing a point, or null if the point is outside the table
+         */
+        public TableCell getCellAt(float x, float y) {
+            int row = Arrays.binarySearch(rowLines, y);
+            int column = Arrays.binarySearch(columnLines, x);
+            // Points exactly on a ruling belong to the cell after it
+            row = row >= 0 ? row : -row - 2;
+            column = column >= 0 ? column : -column - 2;
+            if (row < 0 || row >= getRows() || column < 0 || column >= getColumns()) {
+                return null;
+            }
+            return cells.get(cellGrid[row][column]);
+        }
+
+        /**
+         * Convert to JSON format
+         */
+        public String toJson(int indent) {
+            String spaces = " ".repeat(indent);
+            StringBuilder sb = new StringBuilder();
+            sb.append(spaces).append("{\n");
+            sb.append(spaces).append("  \"position\": {\n");
+            sb.append(spaces).append("    \"x\": ").append(getX()).append(",\n");
+            sb.append(spaces).append("    \"y\": ").append(getY()).append(",\n");
+            sb.append(spaces).append("    \"width\": ").append(getWidth()).append(",\n");
+            sb.append(spaces).append("    \"height\": ").append(getHeight()).append("\n");
+            sb.append(spaces).append("  },\n");
+            sb.append(spaces).append("  \"rows\": ").append(getRows()).append(",\n");
+            sb.append(spaces).append("  \"columns\": ").append(getColumns()).append(",\n");
+            sb.append(spaces).append("  \"cells\": [\n");
+            for (int i = 0; i < cells.size(); i++) {
+                sb.append(cells.get(i).toJson(indent + 4));
+                if (i < cells.size() - 1) {
+                    sb.append(",");
+                }
+                sb.append("\n");
+            }
+            sb.append(spaces).append("  ]\n");
+            sb.append(spaces).append("}");
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Class to hold one cell of a detected table
+     */
+    public static class TableCell {
+        private final int row;
+        private final int column;
+        private final int colSpan;
+        private final float x;
+        private final float y;
+        private final float width;
+        private final float height;
+        private List<PositionedText> runs = new ArrayList<>();
+        private String text = "";
+
+        public TableCell(int row, int column, int colSpan, float x, float y, float width, float height) {
+            this.row = row;
+            this.column = column;
+            this.colSpan = colSpan;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        public int getColumn() {
+            return column;
+        }
+
+        public int getColSpan() {
+            return colSpan;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * Add a text run that lies inside this cell
+         */
+        public void addText(PositionedText run) {
+            runs.add(run);
+        }
+
+        /**
+         * Join the collected runs into the cell text, line by line
+         */
+        public void finishText() {
+            runs.sort(Comparator.<PositionedText>comparingDouble(p -> p.getBaseline())
+                    .thenComparingDouble(p -> p.getX()));
+
+            StringBuilder sb = new StringBuilder();
+            PositionedText last = null;
+            for (PositionedText run : runs) {
+                if (last != null) {
+                    if (Math.abs(run.getBaseline() - last.getBaseline()) > 2.0) {
+                        sb.append("\n");
+                    } else if (run.getX() > last.getX() + last.getWidth() + 2.0) {
+                        sb.append(" ");
+                    }
+                }
+                sb.append(run.getText());
+                last = run;
+            }
+            text = sb.toString();
+            runs = new ArrayList<>();
+        }
+
+        /**
+         * Convert to JSON format
+         */
+        public String toJson(int indent) {
+            String spaces = " ".repeat(indent);
+            StringBuilder sb = new StringBuilder();
+            sb.append(spaces).append("{\n");
+            sb.append(spaces).append("  \"row\": ").append(row).append(",\n");
+            sb.append(spaces).append("  \"column\": ").append(column).append(",\n");
+            if (colSpan > 1) {
+                sb.append(spaces).append("  \"colSpan\": ").append(colSpan).append(",\n");
+            }
+            sb.append(spaces).append("  \"position\": {\n");
+            sb.append(spaces).append("    \"x\": ").append(x).append(",\n");
+            sb.append(spaces).append("    \"y\": ").append(y).append(",\n");
+            sb.append(spaces).append("    \"width\": ").append(width).append(",\n");
+            sb.append(spaces).append("    \"height\": ").append(height).append("\n");
+            sb.append(spaces).append("  },\n");
+            sb.append(spaces).append("  \"text\": ").append(DocumentSection.jsonEscape(text)).append("\n");
+            sb.append(spaces).append("}");
+            return sb.toString();
+        }
+    }
+
     /**
      * Class to hold positioned text information
      */
@@ -1062,4 +1486,77 @@ public class SinglePageExtractor {
             this.fontSize = (this.fontSize + other.fontSize) / 2;
         }
     }
+
+    /**
+     * Settings for a {@link SinglePageExtractor}
+     */
+    public static class Builder {
+        private boolean normalizeText = true;
+        private boolean layoutAnalysis = true;
+        private float marginLeft = 0;
+        private float marginTop = 0;
+        private float marginRight = 0;
+        private float marginBottom = 0;
+        private boolean useMargins = false;
+        private boolean leanText = false;
+        private EnumSet<Field> fields = EnumSet.allOf(Field.class);
+
+        /**
+         * Set whether text should be normalized for font size inconsistencies
+         */
+        public Builder normalizeText(boolean normalizeText) {
+            this.normalizeText = normalizeText;
+            return this;
+        }
+
+        /**
+         * Set whether pages are segmented into column and block regions before
+         * grouping text into paragraphs
+         */
+        public Builder layoutAnalysis(boolean layoutAnalysis) {
+            this.layoutAnalysis = layoutAnalysis;
+            return this;
+        }
+
+        /**
+         * Set margins to define the content area of interest
+         * 
+         * @param left   Left margin (points from left edge)
+         * @param top    Top margin (points from top edge)
+         * @param right  Right margin (points from right edge)
+         * @param bottom Bottom margin (points from bottom edge)
+         */
+        public Builder margins(float left, float top, float right, float bottom) {
+            this.marginLeft = left;
+            this.marginTop = top;
+            this.marginRight = right;
+            this.marginBottom = bottom;
+            this.useMargins = true;
+            return this;
+        }
+
+        /**
+         * Set whether page text is read with {@link LeanTextEngine} rather than
+         * PDFTextStripper
+         */
+        public Builder leanText(boolean leanText) {
+            this.leanText = leanText;
+            return this;
+        }
+
+        /**
+         * Set which parts of the page data are extracted (default all). Text
+         * passes whose fields are all left out are skipped, so a request for
+         * "regionText.content" costs one pass over the page.
+         */
+        public Builder fields(Set<Field> fields) {
+            this.fields = EnumSet.noneOf(Field.class);
+            this.fields.addAll(fields);
+            return this;
+        }
+
+        public SinglePageExtractor build() {
+            return new SinglePageExtractor(this);
+        }
+    }
 }
@@ -0,0 +1,148 @@
+package com.tremorlab.pdfparser;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.FontMappers;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Runs every extraction mode once on a small generated document.
+ *
+ * This is used when building the startup-optimized distribution: running it
+ * under {@code -XX:ArchiveClassesAtExit} records the classes all modes need in
+ * an AppCDS archive, and the first font lookup makes PDFBox scan the system
+ * fonts and write its font cache to the {@code pdfbox.fontcache} directory.
+ * Later runs map the archive and read the cache instead of redoing that work.
+ *
+ * Apart from that, each mode only sets up what it uses: rendering, worker
+ * pools and section digests are only created when their mode asks for them.
+ * Two costs remain in every mode and are left to the archive and the font
+ * cache: PDDocument's static initializer warms up AWT color conversion, and
+ * text extraction does need the substitutes of non-embedded fonts, whose font
+ * matrix and bounding box place the glyphs.
+ */
+public class StartupWarmup {
+    private static final int PAGES = 3;
+
+    public static void run() throws IOException {
+        // Scanning the system fonts is the slowest part of a cold start; this saves the result
+        FontMappers.instance().getFontBoxFont("Helvetica", null);
+
+        File workDir = Files.createTempDirectory("pdfparse-warmup").toFile();
+        try {
+            File pdfFile = new File(workDir, "warmup.pdf");
+            writeSampleDocument(pdfFile);
+
+            HierarchicalPdfExtractor hierarchicalExtractor = new HierarchicalPdfExtractor.Builder()
+                    .autoMargins(true)
+                    .contentDigests(true)
+                    .build();
+            DocumentStructure structure = hierarchicalExtractor.extractHierarchy(pdfFile);
+            structure.toJson();
+            SectionManifest.of(structure, pdfFile.getPath());
+
+            File indexFile = new File(workDir, "warmup" + SectionIndex.FILE_EXTENSION);
+            try (PdfOpener source = new PdfOpener(pdfFile);
+                    CompactDocumentTree tree = hierarchicalExtractor.extractCompactTree(source)) {
+                SectionIndex.write(tree, pdfFile.getPath(), indexFile);
+            }
+            try (SectionIndex index = SectionIndex.open(indexFile)) {
+                index.search("limits");
+            }
+
+            SinglePageExtractor pageExtractor = new SinglePageExtractor.Builder()
+                    .margins(20, 20, 20, 20)
+                    .build();
+            pageExtractor.extractPage(pdfFile, 1).toJson();
+
+            ImageExporter.toJson(new ImageExporter(new File(workDir, "images")).exportImages(pdfFile, 1, PAGES));
+
+            PageRenderer renderer = new PageRenderer(pdfFile, 256, 16L * 1024 * 1024, 1);
+            try {
+                renderer.getTile(1, 1f, 0, 0);
+            } finally {
+                renderer.close();
+            }
+        } finally {
+            deleteRecursively(workDir);
+        }
+    }
+
+    /**
+     * Write a few pages with headings, body text, a running footer, a ruled
+     * table and an image
+     */
+    private static void writeSampleDocument(File pdfFile) throws IOException {
+        PDType1Font regular = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+        PDType1Font bold = new PDType1Font(Standard14Fonts.FontName.HELVETICA_BOLD);
+
+        try (PDDocument document = new PDDocument()) {
+            BufferedImage image = new BufferedImage(32, 32, BufferedImage.TYPE_INT_RGB);
+            for (int x = 0; x < 32; x++) {
+                for (int y = 0; y < 32; y++) {
+                    image.setRGB(x, y, (x * 8) << 16 | (y * 8) << 8);
+                }
+            }
+            PDImageXObject logo = LosslessFactory.createFromImage(document, image);
+
+            for (int p = 1; p <= PAGES; p++) {
+                PDPage page = new PDPage(PDRectangle.LETTER);
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    showText(content, regular, 9, 300, 30, "Page " + p + " of " + PAGES);
+                    content.drawImage(logo, 500, 740, 32, 32);
+                    showText(content, bold, 18, 72, 700, "Chapter " + p);
+                    showText(content, bold, 14, 72, 670, p + ".1 Limits");
+                    for (int line = 0; line < 10; line++) {
+                        showText(content, regular, 10, 72, 640 - line * 12,
+                                "Body text line " + line + " with torque limits " + (line * p));
+                    }
+
+                    // A ruled 2x2 table
+                    content.setLineWidth(0.5f);
+                    for (int i = 0; i <= 2; i++) {
+                        content.moveTo(72, 480 - i * 20);
+                        content.lineTo(312, 480 - i * 20);
+                        content.moveTo(72 + i * 120, 480);
+                        content.lineTo(72 + i * 120, 440);
+                    }
+                    content.stroke();
+                    showText(content, regular, 10, 76, 466, "Cell A");
+                    showText(content, regular, 10, 196, 466, "Cell B");
+                }
+            }
+            document.save(pdfFile);
+        }
+    }
+
+    private static void showText(PDPageContentStream content, PDType1Font font, float size, float x, float y,
+            String text) throws IOException {
+        content.beginText();
+        content.setFont(font, size);
+        content.newLineAtOffset(x, y);
+        content.showText(text);
+        content.endText();
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+}
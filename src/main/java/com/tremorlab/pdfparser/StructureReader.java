@@ -0,0 +1,283 @@
+package com.tremorlab.pdfparser;
+
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.documentinterchange.logicalstructure.PDMarkedContentReference;
+import org.apache.pdfbox.pdmodel.documentinterchange.logicalstructure.PDStructureElement;
+import org.apache.pdfbox.pdmodel.documentinterchange.logicalstructure.PDStructureNode;
+import org.apache.pdfbox.pdmodel.documentinterchange.logicalstructure.PDStructureTreeRoot;
+import org.apache.pdfbox.pdmodel.interactive.action.PDAction;
+import org.apache.pdfbox.pdmodel.interactive.action.PDActionGoTo;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDNamedDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageFitRectangleDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageFitWidthDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageXYZDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDDocumentOutline;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineItem;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineNode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads the section hierarchy a PDF already declares, either as a document
+ * outline (bookmarks) or as heading elements of its logical structure tree
+ * (tagged PDF), so headings don't have to be inferred from font sizes.
+ *
+ * Neither source contains section text; the extractor still strips the pages
+ * and uses what is read here to decide where each section starts.
+ */
+public class StructureReader {
+    private final PDDocument document;
+    /** 1-based page numbers keyed by page dictionary */
+    private final Map<COSDictionary, Integer> pageNumbers = new IdentityHashMap<>();
+
+    public StructureReader(PDDocument document) {
+        this.document = document;
+        int pageNumber = 0;
+        for (PDPage page : document.getPages()) {
+            pageNumbers.put(page.getCOSObject(), ++pageNumber);
+        }
+    }
+
+    /**
+     * Read the outline entries in document order
+     *
+     * @return The entries, or an empty list if the document has no outline
+     */
+    public List<OutlineEntry> readOutline() throws IOException {
+        List<OutlineEntry> entries = new ArrayList<>();
+        PDDocumentOutline outline = document.getDocumentCatalog().getDocumentOutline();
+        if (outline != null) {
+            readOutlineLevel(outline, 1, entries, Collections.newSetFromMap(new IdentityHashMap<>()));
+        }
+        return entries;
+    }
+
+    private void readOutlineLevel(PDOutlineNode node, int level, List<OutlineEntry> entries,
+            Set<COSDictionary> visited) throws IOException {
+        for (PDOutlineItem item : node.children()) {
+            // Malformed outlines can link back to an ancestor
+            if (!visited.add(item.getCOSObject()))
+                return;
+
+            PDPageDestination destination = resolveDestination(item);
+            Integer pageNumber = destination != null ? pageNumberOf(destination) : null;
+            String title = item.getTitle();
+            if (pageNumber != null && title != null && !title.trim().isEmpty()) {
+                entries.add(new OutlineEntry(title.trim(), level, pageNumber,
+                        displayTop(destination, document.getPage(pageNumber - 1))));
+            }
+            readOutlineLevel(item, level + 1, entries, visited);
+        }
+    }
+
+    private PDPageDestination resolveDestination(PDOutlineItem item) throws IOException {
+        PDDestination destination = item.getDestination();
+        if (destination == null) {
+            PDAction action = item.getAction();
+            if (action instanceof PDActionGoTo) {
+                destination = ((PDActionGoTo) action).getDestination();
+            }
+        }
+        if (destination instanceof PDNamedDestination) {
+            return document.getDocumentCatalog().findNamedDestinationPage((PDNamedDestination) destination);
+        }
+        return destination instanceof PDPageDestination ? (PDPageDestination) destination : null;
+    }
+
+    private Integer pageNumberOf(PDPageDestination destination) {
+        PDPage page = destination.getPage();
+        if (page != null) {
+            return pageNumbers.get(page.getCOSObject());
+        }
+        // Malformed: a local destination given as a 0-based page number
+        int index = destination.getPageNumber();
+        return index >= 0 && index < pageNumbers.size() ? index + 1 : null;
+    }
+
+    /**
+     * Convert the top of a destination to a display y coordinate (measured
+     * down from the top of the crop box, like TextPosition.getY())
+     *
+     * @return The y coordinate, or -1 when the destination has no top or the
+     *         page is rotated
+     */
+    private static float displayTop(PDPageDestination destination, PDPage page) {
+        int top = -1;
+        if (destination instanceof PDPageXYZDestination) {
+            top = ((PDPageXYZDestination) destination).getTop();
+        } else if (destination instanceof PDPageFitWidthDestination) {
+            top = ((PDPageFitWidthDestination) destination).getTop();
+        } else if (destination instanceof PDPageFitRectangleDestination) {
+            top = ((PDPageFitRectangleDestination) destination).getTop();
+        }
+        if (top < 0 || page.getRotation() % 360 != 0)
+            return -1;
+
+        PDRectangle cropBox = page.getCropBox();
+        return Math.max(0, cropBox.getUpperRightY() - top);
+    }
+
+    /**
+     * Find the heading elements (H, H1-H6 after role mapping) of the structure
+     * tree and the marked content that makes them up
+     *
+     * @return For each 1-based page number, the heading owning each marked
+     *         content id; empty if the document is not tagged or has no headings
+     */
+    public Map<Integer, Map<Integer, TaggedHeading>> readTaggedHeadings() {
+        Map<Integer, Map<Integer, TaggedHeading>> headings = new HashMap<>();
+        PDStructureTreeRoot root = document.getDocumentCatalog().getStructureTreeRoot();
+        if (root != null) {
+            readStructureNode(root, 0, headings, Collections.newSetFromMap(new IdentityHashMap<>()));
+        }
+        return headings;
+    }
+
+    private void readStructureNode(PDStructureNode node, int sectionDepth,
+            Map<Integer, Map<Integer, TaggedHeading>> headings, Set<COSDictionary> visited) {
+        for (Object kid : node.getKids()) {
+            if (!(kid instanceof PDStructureElement))
+                continue;
+            PDStructureElement element = (PDStructureElement) kid;
+            if (!visited.add(element.getCOSObject()))
+                continue;
+
+            String type = element.getStandardStructureType();
+            int level = headingLevel(type, sectionDepth);
+            if (level > 0) {
+                collectMarkedContent(element, inheritedPage(element), new TaggedHeading(level), headings, visited);
+            } else {
+                boolean section = "Sect".equals(type) || "Part".equals(type) || "Art".equals(type);
+                readStructureNode(element, section ? sectionDepth + 1 : sectionDepth, headings, visited);
+            }
+        }
+    }
+
+    /**
+     * Heading level of a structure type: Hn is level n, and a plain H takes its
+     * level from the number of enclosing sections
+     *
+     * @return The level, or 0 if the type is not a heading
+     */
+    private static int headingLevel(String type, int sectionDepth) {
+        if (type == null || type.isEmpty() || type.charAt(0) != 'H')
+            return 0;
+        if (type.length() == 1)
+            return Math.max(1, sectionDepth);
+        if (type.length() == 2 && type.charAt(1) >= '1' && type.charAt(1) <= '6')
+            return type.charAt(1) - '0';
+        return 0;
+    }
+
+    /**
+     * Record every marked content sequence under a heading element, including
+     * those of nested elements such as spans
+     */
+    private void collectMarkedContent(PDStructureElement element, Integer pageNumber, TaggedHeading heading,
+            Map<Integer, Map<Integer, TaggedHeading>> headings, Set<COSDictionary> visited) {
+        for (Object kid : element.getKids()) {
+            if (kid instanceof Integer) {
+                if (pageNumber != null) {
+                    headings.computeIfAbsent(pageNumber, p -> new HashMap<>()).put((Integer) kid, heading);
+                }
+            } else if (kid instanceof PDMarkedContentReference) {
+                PDMarkedContentReference reference = (PDMarkedContentReference) kid;
+                PDPage page = reference.getPage();
+                Integer referencePage = page != null ? pageNumbers.get(page.getCOSObject()) : pageNumber;
+                if (referencePage != null) {
+                    headings.computeIfAbsent(referencePage, p -> new HashMap<>()).put(reference.getMCID(), heading);
+                }
+            } else if (kid instanceof PDStructureElement) {
+                PDStructureElement child = (PDStructureElement) kid;
+                if (visited.add(child.getCOSObject())) {
+                    PDPage page = child.getPage();
+                    collectMarkedContent(child, page != null ? pageNumbers.get(page.getCOSObject()) : pageNumber,
+                            heading, headings, visited);
+                }
+            }
+        }
+    }
+
+    /**
+     * The page of an element, which may be given on any ancestor
+     */
+    private Integer inheritedPage(PDStructureElement element) {
+        PDStructureNode node = element;
+        while (node instanceof PDStructureElement) {
+            PDPage page = ((PDStructureElement) node).getPage();
+            if (page != null) {
+                return pageNumbers.get(page.getCOSObject());
+            }
+            node = ((PDStructureElement) node).getParent();
+        }
+        return null;
+    }
+
+    /**
+     * A bookmark with the page and position it points to
+     */
+    public static class OutlineEntry {
+        private final String title;
+        private final int level;
+        private final int pageNumber;
+        private final float top;
+
+        public OutlineEntry(String title, int level, int pageNumber, float top) {
+            this.title = title;
+            this.level = level;
+            this.pageNumber = pageNumber;
+            this.top = top;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        /**
+         * Nesting depth in the outline, 1 for top-level entries
+         */
+        public int getLevel() {
+            return level;
+        }
+
+        public int getPageNumber() {
+            return pageNumber;
+        }
+
+        /**
+         * Display y coordinate the destination scrolls to, or -1 for the top of
+         * the page
+         */
+        public float getTop() {
+            return top;
+        }
+    }
+
+    /**
+     * A heading element of the structure tree; all text marked as part of it
+     * shares one instance
+     */
+    public static class TaggedHeading {
+        private final int level;
+
+        public TaggedHeading(int level) {
+            this.level = level;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+    }
+}
@@ -0,0 +1,449 @@
+package com.tremorlab.pdfparser;
+
+import com.tremorlab.pdfparser.SinglePageExtractor.PositionedText;
+import com.tremorlab.pdfparser.SinglePageExtractor.TableCell;
+import com.tremorlab.pdfparser.SinglePageExtractor.TableInfo;
+import org.apache.pdfbox.contentstream.PDFStreamEngine;
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.contentstream.operator.OperatorProcessor;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Detects ruled tables from the line and rectangle paths of a page.
+ *
+ * The detector hooks the path construction and painting operators into an
+ * existing content stream pass (the positioned text stripper), so the page is
+ * only parsed once. Painted horizontal and vertical segments are collected in
+ * display coordinates and indexed in a uniform grid; touching segments are
+ * clustered with union-find, and every cluster with at least two rows and two
+ * columns of cells becomes a table. Text runs are then assigned to cells by
+ * their center point.
+ *
+ * Merged cells are recognized horizontally (a missing vertical ruling inside a
+ * row joins the neighbouring cells); rotated pages are not supported.
+ */
+public class TableDetector {
+    /** Distance within which ruling ends are considered to touch, and lines to coincide */
+    private static final float TOLERANCE = 2.0f;
+    /** Rectangles thinner than this are treated as a single ruling line */
+    private static final float MAX_RULE_THICKNESS = 3.0f;
+    /** Segments shorter than this are ignored (glyph-like decorations, ticks) */
+    private static final float MIN_SEGMENT_LENGTH = 4.0f;
+    private static final float GRID_CELL_SIZE = 50.0f;
+
+    private final float originX;
+    private final float originY;
+
+    private final List<Segment> segments = new ArrayList<>();
+    private final List<Segment> pendingSegments = new ArrayList<>();
+    private final Set<PositionedText> tableText = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private Point2D.Float currentPoint;
+    private Point2D.Float subpathStart;
+
+    /**
+     * @param cropBox Crop box of the page, used to convert user space to the
+     *                top-left origin display coordinates of the text positions
+     */
+    public TableDetector(PDRectangle cropBox) {
+        this.originX = cropBox.getLowerLeftX();
+        this.originY = cropBox.getUpperRightY();
+    }
+
+    /**
+     * Register the path operators on a stream engine. Painting operators commit
+     * the current path's segments, {@code n} (used for clipping paths) drops them.
+     */
+    public void register(PDFStreamEngine engine) {
+        engine.addOperator(new PathOperator(engine, "m", this::moveTo));
+        engine.addOperator(new PathOperator(engine, "l", this::lineTo));
+        engine.addOperator(new PathOperator(engine, "re", this::rectangle));
+        engine.addOperator(new PathOperator(engine, "h", (context, operands) -> closePath()));
+        engine.addOperator(new PathOperator(engine, "c", (context, operands) -> curveTo(context, operands, 4)));
+        engine.addOperator(new PathOperator(engine, "v", (context, operands) -> curveTo(context, operands, 2)));
+        engine.addOperator(new PathOperator(engine, "y", (context, operands) -> curveTo(context, operands, 2)));
+        for (String paint : new String[] { "S", "f", "F", "f*", "B", "B*" }) {
+            engine.addOperator(new PathOperator(engine, paint, (context, operands) -> paintPath(false)));
+        }
+        for (String paint : new String[] { "s", "b", "b*" }) {
+            engine.addOperator(new PathOperator(engine, paint, (context, operands) -> paintPath(true)));
+        }
+        engine.addOperator(new PathOperator(engine, "n", (context, operands) -> endPath()));
+    }
+
+    /**
+     * Find the tables among the collected rulings and fill their cells with the
+     * text runs that fall inside them
+     *
+     * @param runs Text runs of the page in display coordinates
+     * @return The tables, top to bottom
+     */
+    public List<TableInfo> detectTables(List<PositionedText> runs) {
+        List<TableInfo> tables = new ArrayList<>();
+        tableText.clear();
+        if (segments.size() < 6)
+            return tables;
+
+        for (List<Segment> cluster : clusterSegments()) {
+            TableInfo table = buildTable(cluster);
+            if (table != null) {
+                tables.add(table);
+            }
+        }
+        tables.sort(Comparator.comparingDouble(TableInfo::getY));
+
+        for (PositionedText run : runs) {
+            float centerX = run.getX() + run.getWidth() / 2;
+            float centerY = run.getY() + run.getHeight() / 2;
+            for (TableInfo table : tables) {
+                TableCell cell = table.getCellAt(centerX, centerY);
+                if (cell != null) {
+                    cell.addText(run);
+                    tableText.add(run);
+                    break;
+                }
+            }
+        }
+        for (TableInfo table : tables) {
+            for (TableCell cell : table.getCells()) {
+                cell.finishText();
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Whether a text run was placed in a table cell by the last call to
+     * {@link #detectTables(List)}
+     */
+    public boolean isTableText(PositionedText run) {
+        return tableText.contains(run);
+    }
+
+    private Point2D.Float toDisplay(PDFStreamEngine engine, float x, float y) {
+        Point2D.Float point = engine.getGraphicsState().getCurrentTransformationMatrix().transformPoint(x, y);
+        point.x -= originX;
+        point.y = originY - point.y;
+        return point;
+    }
+
+    private void moveTo(PDFStreamEngine engine, List<COSBase> operands) {
+        if (!hasNumbers(operands, 2))
+            return;
+        currentPoint = toDisplay(engine, number(operands, 0), number(operands, 1));
+        subpathStart = currentPoint;
+    }
+
+    private void lineTo(PDFStreamEngine engine, List<COSBase> operands) {
+        if (!hasNumbers(operands, 2))
+            return;
+        Point2D.Float point = toDisplay(engine, number(operands, 0), number(operands, 1));
+        if (currentPoint != null) {
+            addPendingLine(currentPoint, point);
+        } else {
+            subpathStart = point;
+        }
+        currentPoint = point;
+    }
+
+    private void rectangle(PDFStreamEngine engine, List<COSBase> operands) {
+        if (!hasNumbers(operands, 4))
+            return;
+        float x = number(operands, 0);
+        float y = number(operands, 1);
+        float w = number(operands, 2);
+        float h = number(operands, 3);
+        Point2D.Float p0 = toDisplay(engine, x, y);
+        Point2D.Float p1 = toDisplay(engine, x + w, y);
+        Point2D.Float p2 = toDisplay(engine, x + w, y + h);
+        Point2D.Float p3 = toDisplay(engine, x, y + h);
+
+        float minX = Math.min(Math.min(p0.x, p1.x), Math.min(p2.x, p3.x));
+        float maxX = Math.max(Math.max(p0.x, p1.x), Math.max(p2.x, p3.x));
+        float minY = Math.min(Math.min(p0.y, p1.y), Math.min(p2.y, p3.y));
+        float maxY = Math.max(Math.max(p0.y, p1.y), Math.max(p2.y, p3.y));
+
+        if (maxY - minY <= MAX_RULE_THICKNESS && maxX - minX > maxY - minY) {
+            // Thin filled bar drawn as a rectangle: a horizontal ruling
+            float midY = (minY + maxY) / 2;
+            addPendingLine(new Point2D.Float(minX, midY), new Point2D.Float(maxX, midY));
+        } else if (maxX - minX <= MAX_RULE_THICKNESS) {
+            float midX = (minX + maxX) / 2;
+            addPendingLine(new Point2D.Float(midX, minY), new Point2D.Float(midX, maxY));
+        } else {
+            addPendingLine(p0, p1);
+            addPendingLine(p1, p2);
+            addPendingLine(p2, p3);
+            addPendingLine(p3, p0);
+        }
+        currentPoint = p0;
+        subpathStart = p0;
+    }
+
+    private void curveTo(PDFStreamEngine engine, List<COSBase> operands, int endIndex) {
+        // Curves are never rulings; only the current point needs to move along
+        if (!hasNumbers(operands, endIndex + 2))
+            return;
+        currentPoint = toDisplay(engine, number(operands, endIndex), number(operands, endIndex + 1));
+    }
+
+    private void closePath() {
+        if (currentPoint != null && subpathStart != null) {
+            addPendingLine(currentPoint, subpathStart);
+            currentPoint = subpathStart;
+        }
+    }
+
+    private void paintPath(boolean close) {
+        if (close) {
+            closePath();
+        }
+        segments.addAll(pendingSegments);
+        endPath();
+    }
+
+    private void endPath() {
+        pendingSegments.clear();
+        currentPoint = null;
+        subpathStart = null;
+    }
+
+    private void addPendingLine(Point2D.Float from, Point2D.Float to) {
+        float dx = Math.abs(to.x - from.x);
+        float dy = Math.abs(to.y - from.y);
+        if (dy <= TOLERANCE / 2 && dx >= MIN_SEGMENT_LENGTH) {
+            float y = (from.y + to.y) / 2;
+            pendingSegments.add(new Segment(true, y, Math.min(from.x, to.x), Math.max(from.x, to.x)));
+        } else if (dx <= TOLERANCE / 2 && dy >= MIN_SEGMENT_LENGTH) {
+            float x = (from.x + to.x) / 2;
+            pendingSegments.add(new Segment(false, x, Math.min(from.y, to.y), Math.max(from.y, to.y)));
+        }
+        // Diagonal lines are not table rulings
+    }
+
+    /**
+     * Group the segments into connected clusters. Each segment is entered in
+     * every grid cell its (slightly enlarged) box covers, so only segments
+     * sharing a grid cell have to be tested against each other.
+     */
+    private List<List<Segment>> clusterSegments() {
+        int count = segments.size();
+        int[] parent = new int[count];
+        for (int i = 0; i < count; i++) {
+            parent[i] = i;
+        }
+
+        Map<Long, List<Integer>> grid = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            Segment segment = segments.get(i);
+            int fromCol = gridIndex(segment.minX() - TOLERANCE);
+            int toCol = gridIndex(segment.maxX() + TOLERANCE);
+            int fromRow = gridIndex(segment.minY() - TOLERANCE);
+            int toRow = gridIndex(segment.maxY() + TOLERANCE);
+            for (int col = fromCol; col <= toCol; col++) {
+                for (int row = fromRow; row <= toRow; row++) {
+                    List<Integer> bucket = grid.computeIfAbsent(((long) col << 32) | (row & 0xffffffffL),
+                            k -> new ArrayList<>());
+                    for (int other : bucket) {
+                        if (find(parent, other) != find(parent, i) && segment.touches(segments.get(other))) {
+                            parent[find(parent, other)] = find(parent, i);
+                        }
+                    }
+                    bucket.add(i);
+                }
+            }
+        }
+
+        Map<Integer, List<Segment>> clusters = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            clusters.computeIfAbsent(find(parent, i), k -> new ArrayList<>()).add(segments.get(i));
+        }
+        return new ArrayList<>(clusters.values());
+    }
+
+    private static int gridIndex(float coordinate) {
+        return (int) Math.floor(coordinate / GRID_CELL_SIZE);
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Build the cell grid of a cluster from its distinct horizontal and vertical
+     * ruling positions
+     *
+     * @return The table, or null if the cluster has fewer than 2x2 cells
+     */
+    private TableInfo buildTable(List<Segment> cluster) {
+        List<Segment> horizontals = new ArrayList<>();
+        List<Segment> verticals = new ArrayList<>();
+        for (Segment segment : cluster) {
+            (segment.horizontal ? horizontals : verticals).add(segment);
+        }
+
+        float[] rowLines = distinctPositions(horizontals);
+        float[] columnLines = distinctPositions(verticals);
+        if (rowLines.length < 3 || columnLines.length < 3)
+            return null;
+
+        int rows = rowLines.length - 1;
+        int columns = columnLines.length - 1;
+        TableInfo table = new TableInfo(rowLines, columnLines);
+
+        for (int row = 0; row < rows; row++) {
+            float midY = (rowLines[row] + rowLines[row + 1]) / 2;
+            int column = 0;
+            while (column < columns) {
+                int span = 1;
+                // Join the next cell while no vertical ruling separates it within this row
+                while (column + span < columns && !isCovered(verticals, columnLines[column + span], midY)) {
+                    span++;
+                }
+                table.addCell(new TableCell(row, column, span, columnLines[column], rowLines[row],
+                        columnLines[column + span] - columnLines[column], rowLines[row + 1] - rowLines[row]));
+                column += span;
+            }
+        }
+        return table;
+    }
+
+    private static boolean isCovered(List<Segment> verticals, float x, float y) {
+        for (Segment segment : verticals) {
+            if (Math.abs(segment.position - x) <= TOLERANCE
+                    && segment.from - TOLERANCE <= y && y <= segment.to + TOLERANCE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sorted positions of the given parallel segments, with positions closer
+     * than the tolerance merged into one line
+     */
+    private static float[] distinctPositions(List<Segment> parallel) {
+        float[] positions = new float[parallel.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = parallel.get(i).position;
+        }
+        Arrays.sort(positions);
+
+        List<Float> lines = new ArrayList<>();
+        float sum = 0;
+        int count = 0;
+        for (float position : positions) {
+            if (count > 0 && position - sum / count > TOLERANCE) {
+                lines.add(sum / count);
+                sum = 0;
+                count = 0;
+            }
+            sum += position;
+            count++;
+        }
+        if (count > 0) {
+            lines.add(sum / count);
+        }
+
+        float[] result = new float[lines.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = lines.get(i);
+        }
+        return result;
+    }
+
+    private static boolean hasNumbers(List<COSBase> operands, int count) {
+        if (operands.size() < count)
+            return false;
+        for (int i = 0; i < count; i++) {
+            if (!(operands.get(i) instanceof COSNumber))
+                return false;
+        }
+        return true;
+    }
+
+    private static float number(List<COSBase> operands, int index) {
+        return ((COSNumber) operands.get(index)).floatValue();
+    }
+
+    /**
+     * An axis-aligned ruling in display coordinates: a fixed y from x=from to
+     * x=to for horizontal segments, a fixed x from y=from to y=to for vertical ones
+     */
+    private static class Segment {
+        final boolean horizontal;
+        final float position;
+        final float from;
+        final float to;
+
+        Segment(boolean horizontal, float position, float from, float to) {
+            this.horizontal = horizontal;
+            this.position = position;
+            this.from = from;
+            this.to = to;
+        }
+
+        float minX() {
+            return horizontal ? from : position;
+        }
+
+        float maxX() {
+            return horizontal ? to : position;
+        }
+
+        float minY() {
+            return horizontal ? position : from;
+        }
+
+        float maxY() {
+            return horizontal ? position : to;
+        }
+
+        boolean touches(Segment other) {
+            return minX() - TOLERANCE <= other.maxX() && other.minX() <= maxX() + TOLERANCE
+                    && minY() - TOLERANCE <= other.maxY() && other.minY() <= maxY() + TOLERANCE;
+        }
+    }
+
+    private interface PathHandler {
+        void handle(PDFStreamEngine engine, List<COSBase> operands);
+    }
+
+    private static class PathOperator extends OperatorProcessor {
+        private final String name;
+        private final PathHandler handler;
+
+        PathOperator(PDFStreamEngine engine, String name, PathHandler handler) {
+            super(engine);
+            this.name = name;
+            this.handler = handler;
+        }
+
+        @Override
+        public void process(Operator operator, List<COSBase> operands) {
+            handler.handle(getContext(), operands);
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+    }
+}
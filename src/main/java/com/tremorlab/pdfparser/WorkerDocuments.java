@@ -0,0 +1,93 @@
+package com.tremorlab.pdfparser;
+
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hands out one open copy of a PDF per thread.
+ *
+ * PDDocument is not thread-safe, so worker pools that decode or render from
+ * the same file each get their own instance. Copies are loaded lazily on first
+ * use by a thread and all of them are closed together.
+ */
+public class WorkerDocuments implements Closeable {
+    private final PdfOpener source;
+    private final boolean shareFonts;
+    private final List<PDDocument> openDocuments = new ArrayList<>();
+    private final ThreadLocal<PDDocument> documents = new ThreadLocal<>();
+    private boolean closed = false;
+
+    public WorkerDocuments(File pdfFile) {
+        this(new PdfOpener(pdfFile));
+    }
+
+    /**
+     * @param source Opener for the PDF; with a decrypt cache, encrypted files
+     *               are only decrypted for the first copy
+     */
+    public WorkerDocuments(PdfOpener source) {
+        this(source, true);
+    }
+
+    /**
+     * @param source     Opener for the PDF
+     * @param shareFonts Whether the copies use the opener's font cache; fonts
+     *                   are cached per thread, so a pool whose threads end
+     *                   with the job should not
+     */
+    public WorkerDocuments(PdfOpener source, boolean shareFonts) {
+        this.source = source;
+        this.shareFonts = shareFonts;
+    }
+
+    /**
+     * Get the calling thread's copy of the document, loading it if needed
+     */
+    public PDDocument get() throws IOException {
+        PDDocument document = documents.get();
+        if (document == null) {
+            // Spill decoded stream buffers to a scratch file rather than the heap
+            document = source.open(IOUtils.createTempFileOnlyStreamCache(), shareFonts);
+            synchronized (openDocuments) {
+                if (closed) {
+                    document.close();
+                    throw new IOException("Worker documents for " + source.getFile().getName() + " are closed");
+                }
+                openDocuments.add(document);
+            }
+            documents.set(document);
+        }
+        return document;
+    }
+
+    /**
+     * Close every copy. A copy that fails to close does not keep the others
+     * open; the first failure is thrown once all of them were closed.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        synchronized (openDocuments) {
+            closed = true;
+            for (PDDocument document : openDocuments) {
+                try {
+                    document.close();
+                } catch (IOException | RuntimeException e) {
+                    if (failure == null) {
+                        failure = e instanceof IOException ? (IOException) e : new IOException(e);
+                    }
+                }
+            }
+            openDocuments.clear();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}